@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2Monitor.StatusPanel.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic server responses for the benchmarks
+ */
+final class BenchmarkData {
+
+    /** First block identifier */
+    static final long FIRST_BLOCK_ID = 0x1000000000000000L;
+
+    /**
+     * Create a block
+     *
+     * @param       index           Block index (the block identifier and height are derived from the index)
+     * @return                      Block
+     */
+    static Response block(long index) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("block", Long.toUnsignedString(FIRST_BLOCK_ID + index));
+        map.put("height", index);
+        map.put("timestamp", 10000000L + index*60);
+        map.put("version", 3L);
+        map.put("numberOfTransactions", index%50);
+        map.put("generatorRS", "ARDOR-XK4R-7VJU-6EQG-7R335");
+        return new Response(map);
+    }
+
+    /**
+     * Create a block list ordered from the newest block to the oldest block
+     *
+     * @param       firstIndex      Index of the oldest block
+     * @param       count           Number of blocks
+     * @return                      Block list
+     */
+    static List<Response> blocks(long firstIndex, int count) {
+        List<Response> blocks = new ArrayList<>(count);
+        for (int i=count-1; i>=0; i--)
+            blocks.add(block(firstIndex + i));
+        return blocks;
+    }
+
+    /**
+     * Return the network address for a peer
+     *
+     * @param       index           Peer index
+     * @return                      Network address
+     */
+    static String address(int index) {
+        return String.format("10.%d.%d.%d", (index>>16)&255, (index>>8)&255, index&255);
+    }
+
+    /**
+     * Create a peer
+     *
+     * @param       index           Peer index
+     * @param       state           Peer state
+     * @return                      Peer
+     */
+    static Response peer(int index, State state) {
+        Map<String, Object> map = new HashMap<>();
+        String address = address(index);
+        map.put("address", address);
+        map.put("announcedAddress", (index%3 == 0 ? "" : "node"+index+".example.com"));
+        map.put("application", "Ardor");
+        map.put("version", "2.0.4");
+        map.put("platform", "Linux amd64");
+        map.put("services", new ArrayList<>(Arrays.asList("HALLMARK", "API", "CORS")));
+        map.put("state", (long)state.getCode());
+        map.put("blacklisted", false);
+        return new Response(map);
+    }
+
+    /**
+     * Create a peer list
+     *
+     * @param       count           Number of peers
+     * @return                      Peer list
+     */
+    static List<Response> peers(int count) {
+        List<Response> peers = new ArrayList<>(count);
+        for (int i=0; i<count; i++)
+            peers.add(peer(i, State.CONNECTED));
+        return peers;
+    }
+
+    private BenchmarkData() {
+    }
+}
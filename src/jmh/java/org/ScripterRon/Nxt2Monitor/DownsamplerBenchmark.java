@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chart downsampling benchmark
+ *
+ * The series is reduced to the number of points drawn for a chart of the given width
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class DownsamplerBenchmark {
+
+    /** Number of points in the series */
+    @Param({"10000", "1000000"})
+    public int pointCount;
+
+    /** Chart width (pixels) */
+    @Param({"800"})
+    public int chartWidth;
+
+    /** X values */
+    private double[] x;
+
+    /** Y values */
+    private double[] y;
+
+    /**
+     * Create the series
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        x = new double[pointCount];
+        y = new double[pointCount];
+        double value = 60;
+        for (int i=0; i<pointCount; i++) {
+            x[i] = (double)i/pointCount;
+            value = Math.max(value + random.nextGaussian()*5, 0);
+            y[i] = value;
+        }
+    }
+
+    /**
+     * Reduce the series to the chart width
+     *
+     * @return                      Indexes of the points to keep
+     */
+    @Benchmark
+    public int[] largestTriangleThreeBuckets() {
+        return Downsampler.largestTriangleThreeBuckets(x, y, pointCount, chartWidth);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Event;
+import org.ScripterRon.Nxt2API.Response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JTable;
+import javax.swing.table.TableRowSorter;
+
+/**
+ * Event processing benchmark
+ *
+ * Each invocation processes a burst of server events the same way as the node
+ * monitor event handler: the events are combined into an event batch and the batch
+ * is then applied to the block and connection table models.  The peer and block
+ * requests for the events are already complete, so no server is needed.  The table
+ * models are attached to sorted tables so the cost of the table model events is
+ * included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(value=1, jvmArgsAppend={"-Djava.awt.headless=true"})
+public class EventBenchmark {
+
+    /** Block table column types (same as the status panel) */
+    private static final int[] blockColumnTypes = {
+        SizedTable.DATE, SizedTable.INTEGER, SizedTable.ID, SizedTable.INTEGER, SizedTable.INTEGER, SizedTable.ID};
+
+    /** Connection table column types (same as the status panel) */
+    private static final int[] connectionColumnTypes = {
+        SizedTable.ADDRESS, SizedTable.APPLICATION, SizedTable.APPLICATION, SizedTable.SERVICES, SizedTable.STATUS};
+
+    /** Number of peers in the connection table */
+    private static final int PEER_COUNT = 500;
+
+    /** Number of events in a burst */
+    @Param({"10", "100", "1000"})
+    public int burstSize;
+
+    /** Start each burst by popping the chain head */
+    @Param({"false", "true"})
+    public boolean reorg;
+
+    /** Node monitor */
+    private NodeMonitor nodeMonitor;
+
+    /** Peer requests */
+    private final Map<String, Future<Response>> peerRequests = new HashMap<>();
+
+    /** Block requests for the current burst */
+    private final Map<String, Future<Response>> blockRequests = new HashMap<>();
+
+    /** Events for the current burst */
+    private final List<Event> eventList = new ArrayList<>();
+
+    /** Random number generator */
+    private final Random random = new Random(1);
+
+    /** Index of the next block */
+    private long nextBlock;
+
+    /**
+     * Create the node monitor and load the table models
+     *
+     * @throws      Exception       Unable to create the node monitor
+     */
+    @Setup
+    public void setup() throws Exception {
+        nodeMonitor = new NodeMonitor(new Connection("localhost", 27876, "benchmark"));
+        BlockTableModel blockTableModel = nodeMonitor.getBlockTableModel();
+        blockTableModel.blocksAdded(BenchmarkData.blocks(1, 1000));
+        nextBlock = 1001;
+        JTable blockTable = new SizedTable(blockTableModel, blockColumnTypes);
+        blockTable.setRowSorter(new TableRowSorter<>(blockTableModel));
+        List<Response> peers = BenchmarkData.peers(PEER_COUNT);
+        ConnectionTableModel connectionTableModel = nodeMonitor.getConnectionTableModel();
+        connectionTableModel.peersAdded(peers);
+        JTable connectionTable = new SizedTable(connectionTableModel, connectionColumnTypes);
+        connectionTable.setRowSorter(new TableRowSorter<>(connectionTableModel));
+        for (int i=0; i<PEER_COUNT; i++)
+            peerRequests.put(NodeMonitor.peerRequestKey(BenchmarkData.address(i), false),
+                             CompletableFuture.completedFuture(BenchmarkData.peer(i, StatusPanel.State.CONNECTED)));
+    }
+
+    /**
+     * Create the events for the next burst
+     *
+     * One event in ten is a pushed block and the rest are peer changes
+     */
+    @Setup(Level.Invocation)
+    public void createBurst() {
+        eventList.clear();
+        blockRequests.clear();
+        if (reorg) {
+            nextBlock--;
+            eventList.add(new Event("Block.BLOCK_POPPED",
+                                    Long.toUnsignedString(BenchmarkData.FIRST_BLOCK_ID + nextBlock)));
+        }
+        while (eventList.size() < burstSize) {
+            int selector = random.nextInt(20);
+            if (selector < 2) {
+                String blockId = Long.toUnsignedString(BenchmarkData.FIRST_BLOCK_ID + nextBlock);
+                blockRequests.put(blockId, CompletableFuture.completedFuture(BenchmarkData.block(nextBlock)));
+                eventList.add(new Event("Block.BLOCK_PUSHED", blockId));
+                nextBlock++;
+            } else {
+                String address = BenchmarkData.address(random.nextInt(PEER_COUNT));
+                switch (selector) {
+                    case 2:
+                        eventList.add(new Event("Peer.BLACKLIST", address));
+                        break;
+                    case 3:
+                        eventList.add(new Event("Peer.UNBLACKLIST", address));
+                        break;
+                    default:
+                        eventList.add(new Event("Peer.CHANGE_ACTIVE_PEER", address));
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the event batch and apply it to the table models
+     *
+     * @return                      Event batch
+     * @throws      Exception       Unable to process the events
+     */
+    @Benchmark
+    public EventBatch processBurst() throws Exception {
+        EventBatch batch = nodeMonitor.buildBatch(eventList, peerRequests, blockRequests, new ArrayList<>());
+        nodeMonitor.getBlockTableModel().blocksChanged(batch);
+        nodeMonitor.getConnectionTableModel().peersChanged(batch.getPeerChanges());
+        return batch;
+    }
+}
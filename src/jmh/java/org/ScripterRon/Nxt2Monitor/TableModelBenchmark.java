@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JTable;
+
+/**
+ * Table cell value and cell rendering benchmarks for the block and connection tables
+ *
+ * The value benchmarks read every cell in the table.  The rendering benchmarks
+ * prepare the renderer for each cell in the first page of rows, which is the work
+ * done by the table UI when the visible rows are painted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(value=1, jvmArgsAppend={"-Djava.awt.headless=true"})
+public class TableModelBenchmark {
+
+    /** Block table column types (same as the status panel) */
+    private static final int[] blockColumnTypes = {
+        SizedTable.DATE, SizedTable.INTEGER, SizedTable.ID, SizedTable.INTEGER, SizedTable.INTEGER, SizedTable.ID};
+
+    /** Connection table column types (same as the status panel) */
+    private static final int[] connectionColumnTypes = {
+        SizedTable.ADDRESS, SizedTable.APPLICATION, SizedTable.APPLICATION, SizedTable.SERVICES, SizedTable.STATUS};
+
+    /** Number of rows painted for a table page */
+    private static final int PAGE_ROWS = 25;
+
+    /** Number of blocks in the block table */
+    @Param({"25", "5000"})
+    public int blockCount;
+
+    /** Number of peers in the connection table */
+    @Param({"100", "1000"})
+    public int peerCount;
+
+    /** Block table model */
+    private BlockTableModel blockTableModel;
+
+    /** Block table */
+    private JTable blockTable;
+
+    /** Connection table model */
+    private ConnectionTableModel connectionTableModel;
+
+    /** Connection table */
+    private JTable connectionTable;
+
+    /**
+     * Create the table models
+     */
+    @Setup
+    public void setup() {
+        blockTableModel = new BlockTableModel(blockCount);
+        blockTableModel.blocksAdded(BenchmarkData.blocks(1, blockCount));
+        blockTable = new SizedTable(blockTableModel, blockColumnTypes);
+        connectionTableModel = new ConnectionTableModel(300);
+        connectionTableModel.peersAdded(BenchmarkData.peers(peerCount));
+        connectionTable = new SizedTable(connectionTableModel, connectionColumnTypes);
+    }
+
+    /**
+     * Get the value for each block table cell
+     *
+     * @param       bh              Blackhole
+     */
+    @Benchmark
+    public void blockCellValues(Blackhole bh) {
+        int rows = blockTableModel.getRowCount();
+        int columns = blockTableModel.getColumnCount();
+        for (int row=0; row<rows; row++)
+            for (int column=0; column<columns; column++)
+                bh.consume(blockTableModel.getValueAt(row, column));
+    }
+
+    /**
+     * Render the first page of the block table
+     *
+     * @param       bh              Blackhole
+     */
+    @Benchmark
+    public void blockCellRendering(Blackhole bh) {
+        renderPage(blockTable, bh);
+    }
+
+    /**
+     * Get the value for each connection table cell
+     *
+     * @param       bh              Blackhole
+     */
+    @Benchmark
+    public void connectionCellValues(Blackhole bh) {
+        int rows = connectionTableModel.getRowCount();
+        int columns = connectionTableModel.getColumnCount();
+        for (int row=0; row<rows; row++)
+            for (int column=0; column<columns; column++)
+                bh.consume(connectionTableModel.getValueAt(row, column));
+    }
+
+    /**
+     * Render the first page of the connection table
+     *
+     * @param       bh              Blackhole
+     */
+    @Benchmark
+    public void connectionCellRendering(Blackhole bh) {
+        renderPage(connectionTable, bh);
+    }
+
+    /**
+     * Prepare the cell renderers for the first page of a table
+     *
+     * @param       table           Table
+     * @param       bh              Blackhole
+     */
+    private static void renderPage(JTable table, Blackhole bh) {
+        int rows = Math.min(table.getRowCount(), PAGE_ROWS);
+        int columns = table.getColumnCount();
+        for (int row=0; row<rows; row++)
+            for (int column=0; column<columns; column++)
+                bh.consume(table.prepareRenderer(table.getCellRenderer(row, column), row, column));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Transaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transaction parsing benchmark for large blocks
+ *
+ * Transaction.processTransactions needs the chain definitions from a server, so
+ * the benchmark uses the server specified by the benchmark.host and benchmark.port
+ * system properties (localhost:27876 by default).  The transactions in the most
+ * recent blocks, including the child chain transactions, are repeated to build a
+ * block with the requested number of transactions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class TransactionBenchmark {
+
+    /** Maximum number of child chain transactions fetched from the server */
+    private static final int MAX_CHILD_TRANSACTIONS = 200;
+
+    /** Number of transactions in the block */
+    @Param({"1000", "10000"})
+    public int transactionCount;
+
+    /** Block transactions */
+    private final List<Response> transactions = new ArrayList<>();
+
+    /**
+     * Get the sample transactions from the server
+     *
+     * @throws      Exception       Unable to get the transactions
+     */
+    @Setup
+    public void setup() throws Exception {
+        String host = System.getProperty("benchmark.host", "localhost");
+        int port = Integer.parseInt(System.getProperty("benchmark.port", "27876"));
+        Nxt.init(host, port, false);
+        NodeClient nodeClient = new HttpNodeClient(new Connection(host, port, ""), false);
+        List<Response> samples = new ArrayList<>();
+        int childCount = 0;
+        for (Response block : nodeClient.getBlocks(0, 99, true)) {
+            for (Response tx : block.getObjectList("transactions")) {
+                if (tx.getInt("type") != -1) {
+                    samples.add(tx);
+                    continue;
+                }
+                Response attachment = tx.getObject("attachment");
+                String chain = Nxt.getChain(attachment.getInt("chain")).getName();
+                for (String hash : attachment.getStringList("childTransactionFullHashes")) {
+                    if (childCount++ == MAX_CHILD_TRANSACTIONS)
+                        break;
+                    samples.add(nodeClient.getTransaction(hash, chain));
+                }
+            }
+        }
+        if (samples.isEmpty())
+            throw new IllegalStateException("No transactions found in the most recent blocks");
+        for (int i=0; i<transactionCount; i++)
+            transactions.add(samples.get(i%samples.size()));
+    }
+
+    /**
+     * Parse the block transactions
+     *
+     * @return                      Parsed transactions
+     * @throws      Exception       Unable to parse the transactions
+     */
+    @Benchmark
+    public List<Transaction> processTransactions() throws Exception {
+        return Transaction.processTransactions(transactions);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+/**
+ * BlockStatistics maintains the block interval and transaction rate for the blocks
+ * in the block table.  Each pair of adjacent blocks contributes the time between the
+ * two blocks and the number of transactions in the newer block.  A pair is added
+ * when a block is added to the table and is removed when a block is discarded or
+ * popped, so the statistics always describe the blocks currently in the table.
+ *
+ * The block intervals are counted in a histogram with one-second buckets, so an
+ * update takes constant time and does not allocate memory.  Intervals longer than
+ * the histogram are counted in the last bucket.
+ */
+class BlockStatistics {
+
+    /** Longest interval with its own histogram bucket (seconds) */
+    private static final int MAX_INTERVAL = 600;
+
+    /** Interval histogram */
+    private final int[] histogram = new int[MAX_INTERVAL+1];
+
+    /** Number of intervals */
+    private int count;
+
+    /** Total of the intervals (seconds) */
+    private long intervalTotal;
+
+    /** Total of the transaction counts */
+    private long transactionTotal;
+
+    /**
+     * Add a block interval
+     *
+     * @param       interval        Time between the blocks (seconds)
+     * @param       transactions    Number of transactions in the newer block
+     */
+    void addInterval(int interval, int transactions) {
+        histogram[bucket(interval)]++;
+        count++;
+        intervalTotal += interval;
+        transactionTotal += transactions;
+    }
+
+    /**
+     * Remove a block interval that was previously added
+     *
+     * @param       interval        Time between the blocks (seconds)
+     * @param       transactions    Number of transactions in the newer block
+     */
+    void removeInterval(int interval, int transactions) {
+        histogram[bucket(interval)]--;
+        count--;
+        intervalTotal -= interval;
+        transactionTotal -= transactions;
+    }
+
+    /**
+     * Return the number of block intervals
+     *
+     * @return                      Interval count
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Return the average block interval
+     *
+     * @return                      Average interval (seconds) or 0 if there are no intervals
+     */
+    double getAverageInterval() {
+        return (count != 0 ? (double)intervalTotal/count : 0.0);
+    }
+
+    /**
+     * Return a block interval percentile
+     *
+     * An interval longer than the histogram is reported as the histogram limit
+     *
+     * @param       percentile      Percentile (0 - 100)
+     * @return                      Interval (seconds) or 0 if there are no intervals
+     */
+    int getInterval(double percentile) {
+        if (count == 0)
+            return 0;
+        long rank = Math.max((long)Math.ceil(percentile*count/100), 1);
+        long total = 0;
+        for (int i=0; i<histogram.length; i++) {
+            total += histogram[i];
+            if (total >= rank)
+                return i;
+        }
+        return MAX_INTERVAL;
+    }
+
+    /**
+     * Return the transaction rate
+     *
+     * @return                      Transactions per second or 0 if there are no intervals
+     */
+    double getTransactionRate() {
+        return (intervalTotal > 0 ? (double)transactionTotal/intervalTotal : 0.0);
+    }
+
+    /**
+     * Return the histogram bucket for an interval
+     *
+     * @param       interval        Interval (seconds)
+     * @return                      Histogram bucket
+     */
+    private static int bucket(int interval) {
+        return Math.min(Math.max(interval, 0), MAX_INTERVAL);
+    }
+}
@@ -0,0 +1,642 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.IdentifierException;
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.Response;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model for the block status table
+ *
+ * The blocks are kept in a fixed-size ring buffer with the chain head in table row 0.
+ * The oldest block is discarded when a new block is added to a full buffer.  The
+ * block interval statistics are updated as blocks are added and removed.
+ *
+ * A new block that is more than one block above the chain head leaves a gap in the
+ * table.  The missing heights are recorded so the node monitor can fetch them and
+ * insert them into the table.
+ */
+class BlockTableModel extends AbstractTableModel {
+
+    /** Column names */
+    private static final String[] columnNames = {
+        "Date", "Height", "Block", "Version", "Tx Count", "Generator"};
+
+    /** Column classes */
+    private static final Class<?>[] columnClasses = {
+        Date.class, Integer.class, String.class, Integer.class, Integer.class, String.class};
+
+    /** Block ring buffer */
+    private final Response[] blockRing;
+
+    /** Ring buffer slot containing the chain head */
+    private int headSlot = -1;
+
+    /** Number of blocks in the ring buffer */
+    private int blockCount = 0;
+
+    /** Block identifier to ring buffer slot */
+    private final Map<Long, Integer> slotMap;
+
+    /** Block interval statistics */
+    private final BlockStatistics statistics = new BlockStatistics();
+
+    /** Missing height ranges that have not been reported */
+    private final List<int[]> gaps = new ArrayList<>();
+
+    /**
+     * Create the table model
+     *
+     * @param       capacity            Maximum number of blocks
+     */
+    public BlockTableModel(int capacity) {
+        super();
+        this.blockRing = new Response[capacity];
+        this.slotMap = new HashMap<>(capacity*4/3+1);
+    }
+
+    /**
+     * Get the number of columns in the table
+     *
+     * @return                  The number of columns
+     */
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * Get the column class
+     *
+     * @param       column      Column number
+     * @return                  The column class
+     */
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return columnClasses[column];
+    }
+
+    /**
+     * Get the column name
+     *
+     * @param       column      Column number
+     * @return                  Column name
+     */
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    /**
+     * Get the number of rows in the table
+     *
+     * @return                  The number of rows
+     */
+    @Override
+    public int getRowCount() {
+        return blockCount;
+    }
+
+    /**
+     * Get the value for a cell
+     *
+     * @param       row         Row number
+     * @param       column      Column number
+     * @return                  Returns the object associated with the cell
+     */
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (row >= blockCount)
+            return null;
+        Object value;
+        Response block = blockRing[rowToSlot(row)];
+        //
+        // Get the value for the requested cell
+        //
+        switch (column) {
+            case 0:                             // Date
+                value = new Date(block.getLong("timestamp") * 1000 + Nxt.getEpoch());
+                break;
+            case 1:                             // Height
+                value = block.getInt("height");
+                break;
+            case 2:                             // Block identifier
+                value = block.getString("block");
+                break;
+            case 3:                             // Block version
+                value = block.getInt("version");
+                break;
+            case 4:                             // Block transaction count
+                value = block.getInt("numberOfTransactions");
+                break;
+            case 5:                             // Block generator
+                value = block.getString("generatorRS");
+                break;
+            default:
+                throw new IndexOutOfBoundsException("Table column "+column+" is not valid");
+        }
+        return value;
+    }
+
+    /**
+     * New blocks have been added to the block chain
+     *
+     * The block list is ordered from the newest block to the oldest block
+     *
+     * @param   blocks          Block list
+     */
+    public void blocksAdded(List<Response> blocks) {
+        for (int i=blocks.size()-1; i>=0; i--)
+            pushBlock(blocks.get(i));
+        fireTableDataChanged();
+    }
+
+    /**
+     * Apply the block changes in an event batch
+     *
+     * New blocks are reported as a single row insertion.  A popped block is the
+     * chain head, so the popped blocks are reported as a single row deletion at
+     * the top of the table followed by the insertion of the new blocks.  The table
+     * is refreshed only if a block other than the chain head is removed.
+     *
+     * @param   batch           Event batch
+     */
+    public void blocksChanged(EventBatch batch) {
+        List<EventBatch.BlockChange> changes = batch.getBlockChanges();
+        if (changes.isEmpty())
+            return;
+        if (batch.isBlockPopped()) {
+            int startCount = blockCount;
+            int addedCount = 0;
+            int poppedCount = 0;
+            int oldestCount = 0;
+            boolean refresh = false;
+            for (EventBatch.BlockChange change : changes) {
+                if (change.getBlock() != null) {
+                    checkGap(change.getBlock());
+                    int count = blockCount;
+                    if (pushBlock(change.getBlock())) {
+                        if (blockCount == count) {
+                            if (blockCount - addedCount > 0)
+                                oldestCount++;
+                            else
+                                addedCount--;
+                        }
+                        addedCount++;
+                    }
+                } else {
+                    Integer slot = slotMap.get(change.getBlockId());
+                    if (slot == null)
+                        continue;
+                    int row = slotToRow(slot);
+                    if (row < addedCount)
+                        addedCount--;
+                    else if (row == 0)
+                        poppedCount++;
+                    else
+                        refresh = true;
+                    removeBlock(change.getBlockId());
+                }
+            }
+            if (refresh) {
+                fireTableDataChanged();
+                return;
+            }
+            if (oldestCount > 0)
+                fireTableRowsDeleted(startCount-oldestCount, startCount-1);
+            if (poppedCount > 0)
+                fireTableRowsDeleted(0, poppedCount-1);
+            if (addedCount > 0)
+                fireTableRowsInserted(0, addedCount-1);
+            return;
+        }
+        int newCount = 0;
+        for (EventBatch.BlockChange change : changes) {
+            if (!slotMap.containsKey(change.getBlockId()))
+                newCount++;
+        }
+        int removeCount = Math.min(blockCount + newCount - blockRing.length, blockCount);
+        if (removeCount > 0) {
+            int lastRow = blockCount-1;
+            for (int i=0; i<removeCount; i++)
+                removeOldest();
+            fireTableRowsDeleted(blockCount, lastRow);
+        }
+        int startCount = blockCount;
+        changes.forEach(change -> {
+            checkGap(change.getBlock());
+            pushBlock(change.getBlock());
+        });
+        if (blockCount > startCount)
+            fireTableRowsInserted(0, blockCount-startCount-1);
+    }
+
+    /**
+     * Resynchronize the block table after reconnecting to the server
+     *
+     * The block list is a contiguous range ending at the server chain head and is
+     * ordered from the newest block to the oldest block.  Blocks in the table that
+     * are no longer in the server chain are removed and then the missing blocks
+     * are added.
+     *
+     * @param   blocks          Block list
+     * @return                  Number of blocks added
+     */
+    public int blocksRecovered(List<Response> blocks) {
+        if (blocks.isEmpty())
+            return 0;
+        Map<Integer, Response> heightMap = new HashMap<>(blocks.size()*4/3+1);
+        blocks.forEach(block -> heightMap.put(block.getInt("height"), block));
+        int oldestHeight = blocks.get(blocks.size()-1).getInt("height");
+        while (blockCount != 0) {
+            Response head = blockRing[headSlot];
+            int height = head.getInt("height");
+            if (height < oldestHeight)
+                break;
+            Response block = heightMap.get(height);
+            if (block != null && block.getString("block").equals(head.getString("block")))
+                break;
+            removeBlock(getBlockId(head));
+        }
+        int headHeight = (blockCount != 0 ? blockRing[headSlot].getInt("height") : -1);
+        int addedCount = 0;
+        for (int i=blocks.size()-1; i>=0; i--) {
+            Response block = blocks.get(i);
+            if (block.getInt("height") > headHeight && pushBlock(block))
+                addedCount++;
+        }
+        fireTableDataChanged();
+        return addedCount;
+    }
+
+    /**
+     * Replace the blocks in the table
+     *
+     * The block list is ordered from the newest block to the oldest block
+     *
+     * @param   blocks          Block list
+     */
+    public void blocksReplaced(List<Response> blocks) {
+        while (blockCount != 0)
+            removeOldest();
+        headSlot = -1;
+        blocksAdded(blocks);
+    }
+
+    /**
+     * Insert missing blocks into the table
+     *
+     * Blocks at heights that are already in the table are ignored.  The new blocks
+     * are merged with the blocks in the table in a single pass and each run of
+     * adjacent new rows is reported as a row insertion.  The oldest blocks are
+     * discarded if the table is full, including any new blocks that are older
+     * than the blocks that are kept.
+     *
+     * @param   blocks          Block list
+     * @return                  Number of blocks added to the table
+     */
+    public int blocksInserted(List<Response> blocks) {
+        if (blockCount == 0)
+            return 0;
+        //
+        // Order the new blocks from the newest block to the oldest block
+        //
+        Set<Integer> heights = new HashSet<>(blockCount*4/3+1);
+        for (int row=0; row<blockCount; row++)
+            heights.add(blockRing[rowToSlot(row)].getInt("height"));
+        List<Response> newBlocks = new ArrayList<>(blocks.size());
+        for (Response block : blocks) {
+            try {
+                if (!slotMap.containsKey(block.getId("block")) && heights.add(block.getInt("height")))
+                    newBlocks.add(block);
+            } catch (IdentifierException exc) {
+                // Skip a block with an invalid identifier
+            }
+        }
+        if (newBlocks.isEmpty())
+            return 0;
+        newBlocks.sort((b1, b2) -> Integer.compare(b2.getInt("height"), b1.getInt("height")));
+        //
+        // Merge the new blocks with the blocks in the table
+        //
+        List<Response> merged = new ArrayList<>(Math.min(blockCount+newBlocks.size(), blockRing.length));
+        List<Integer> insertedRows = new ArrayList<>(newBlocks.size());
+        int oldRow = 0;
+        int newIndex = 0;
+        while (merged.size() < blockRing.length && (oldRow < blockCount || newIndex < newBlocks.size())) {
+            Response oldBlock = (oldRow < blockCount ? blockRing[rowToSlot(oldRow)] : null);
+            Response newBlock = (newIndex < newBlocks.size() ? newBlocks.get(newIndex) : null);
+            if (newBlock != null && (oldBlock == null || newBlock.getInt("height") > oldBlock.getInt("height"))) {
+                insertedRows.add(merged.size());
+                merged.add(newBlock);
+                newIndex++;
+            } else {
+                merged.add(oldBlock);
+                oldRow++;
+            }
+        }
+        if (insertedRows.isEmpty())
+            return 0;
+        //
+        // Discard the oldest blocks that no longer fit in the table
+        //
+        if (oldRow < blockCount) {
+            int lastRow = blockCount-1;
+            while (blockCount > oldRow)
+                removeOldest();
+            fireTableRowsDeleted(blockCount, lastRow);
+        }
+        //
+        // Store the merged blocks in the ring buffer and add the intervals
+        // for the new blocks
+        //
+        for (int row=0; row<merged.size(); row++) {
+            int slot = rowToSlot(row);
+            Response block = merged.get(row);
+            blockRing[slot] = block;
+            slotMap.put(getBlockId(block), slot);
+        }
+        blockCount = merged.size();
+        for (int i=0; i<insertedRows.size(); i++) {
+            int row = insertedRows.get(i);
+            if (row > 0 && (i == 0 || insertedRows.get(i-1) != row-1))
+                updateStatistics(merged.get(row-1), merged.get(row), true);
+            if (row < merged.size()-1)
+                updateStatistics(merged.get(row), merged.get(row+1), true);
+        }
+        //
+        // Report each run of new rows
+        //
+        int firstRow = insertedRows.get(0);
+        for (int i=1; i<=insertedRows.size(); i++) {
+            if (i == insertedRows.size() || insertedRows.get(i) != insertedRows.get(i-1)+1) {
+                fireTableRowsInserted(firstRow, insertedRows.get(i-1));
+                if (i < insertedRows.size())
+                    firstRow = insertedRows.get(i);
+            }
+        }
+        return insertedRows.size();
+    }
+
+    /**
+     * Return the heights in a range that are missing from the table
+     *
+     * Heights at or above the chain head and heights below the oldest block in a
+     * full table are not reported since they would not be added to the table.
+     *
+     * @param   firstHeight     First height
+     * @param   lastHeight      Last height
+     * @return                  List of height ranges (first height, last height)
+     */
+    public List<int[]> getMissingHeights(int firstHeight, int lastHeight) {
+        List<int[]> missing = new ArrayList<>();
+        if (blockCount == 0)
+            return missing;
+        int first = firstHeight;
+        int last = Math.min(lastHeight, blockRing[headSlot].getInt("height")-1);
+        if (blockCount == blockRing.length)
+            first = Math.max(first, blockRing[rowToSlot(blockCount-1)].getInt("height")+1);
+        if (first > last)
+            return missing;
+        boolean[] present = new boolean[last-first+1];
+        for (int row=0; row<blockCount; row++) {
+            int height = blockRing[rowToSlot(row)].getInt("height");
+            if (height >= first && height <= last)
+                present[height-first] = true;
+        }
+        int[] range = null;
+        for (int i=0; i<present.length; i++) {
+            if (present[i]) {
+                range = null;
+            } else if (range != null) {
+                range[1] = first+i;
+            } else {
+                range = new int[] {first+i, first+i};
+                missing.add(range);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Return the missing height ranges found since the last call
+     *
+     * @return                  List of height ranges (first height, last height)
+     */
+    public List<int[]> getGaps() {
+        List<int[]> result = new ArrayList<>(gaps);
+        gaps.clear();
+        return result;
+    }
+
+    /**
+     * Record a gap between the chain head and a new block
+     *
+     * Only the missing heights that fit in the table are recorded
+     *
+     * @param   block           New block
+     */
+    private void checkGap(Response block) {
+        if (blockCount == 0)
+            return;
+        int headHeight = blockRing[headSlot].getInt("height");
+        int height = block.getInt("height");
+        if (height > headHeight+1)
+            gaps.add(new int[] {Math.max(headHeight+1, height-blockRing.length+1), height-1});
+    }
+
+    /**
+     * Remove a block from the ring buffer
+     *
+     * The chain head is removed in constant time.  Any other block requires
+     * the newer blocks to be moved down one slot.
+     *
+     * @param   blockId         Block identifier
+     */
+    private void removeBlock(long blockId) {
+        Integer slot = slotMap.remove(blockId);
+        if (slot == null)
+            return;
+        int row = slotToRow(slot);
+        Response block = blockRing[slot];
+        Response newer = (row > 0 ? blockRing[rowToSlot(row-1)] : null);
+        Response older = (row < blockCount-1 ? blockRing[rowToSlot(row+1)] : null);
+        if (older != null)
+            updateStatistics(block, older, false);
+        if (newer != null) {
+            updateStatistics(newer, block, false);
+            if (older != null)
+                updateStatistics(newer, older, true);
+        }
+        for (int i=row; i>0; i--) {
+            int to = rowToSlot(i);
+            Response moved = blockRing[rowToSlot(i-1)];
+            blockRing[to] = moved;
+            slotMap.put(getBlockId(moved), to);
+        }
+        blockRing[headSlot] = null;
+        headSlot = (headSlot == 0 ? blockRing.length-1 : headSlot-1);
+        blockCount--;
+    }
+
+    /**
+     * Return the block chain head
+     *
+     * @return                  Block chain head or null if the chain is empty
+     */
+    public Response getChainHead() {
+        return (blockCount != 0 ? blockRing[headSlot] : null);
+    }
+
+    /**
+     * Return the block interval statistics for the blocks in the table
+     *
+     * @return                  Block statistics
+     */
+    public BlockStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Return the blocks in the table
+     *
+     * @return                  Block list ordered from the newest block to the oldest block
+     */
+    public List<Response> getBlocks() {
+        List<Response> blocks = new ArrayList<>(blockCount);
+        for (int row=0; row<blockCount; row++)
+            blocks.add(blockRing[rowToSlot(row)]);
+        return blocks;
+    }
+
+    /**
+     * Return the block for the specified table row
+     *
+     * @param   row             Table row
+     * @return                  Block
+     */
+    public Response getBlock(int row) {
+        if (row >= blockCount)
+            throw new IndexOutOfBoundsException("Table row "+row+" is not valid");
+        return blockRing[rowToSlot(row)];
+    }
+
+    /**
+     * Add a block to the head of the ring buffer, discarding the oldest block
+     * if the ring buffer is full
+     *
+     * @param   block           Block to add
+     * @return                  TRUE if the block was added
+     */
+    private boolean pushBlock(Response block) {
+        long id;
+        try {
+            id = block.getId("block");
+        } catch (IdentifierException exc) {
+            return false;
+        }
+        if (slotMap.containsKey(id))
+            return false;
+        if (blockCount == blockRing.length)
+            removeOldest();
+        if (blockCount != 0)
+            updateStatistics(block, blockRing[headSlot], true);
+        headSlot = (headSlot+1 == blockRing.length ? 0 : headSlot+1);
+        blockRing[headSlot] = block;
+        slotMap.put(id, headSlot);
+        blockCount++;
+        return true;
+    }
+
+    /**
+     * Remove the oldest block from the ring buffer
+     */
+    private void removeOldest() {
+        int slot = rowToSlot(blockCount-1);
+        if (blockCount > 1)
+            updateStatistics(blockRing[rowToSlot(blockCount-2)], blockRing[slot], false);
+        slotMap.remove(getBlockId(blockRing[slot]));
+        blockRing[slot] = null;
+        blockCount--;
+    }
+
+    /**
+     * Add or remove the interval between two adjacent blocks
+     *
+     * Blocks that are not at consecutive heights do not have an interval
+     *
+     * @param   newer           Newer block
+     * @param   older           Older block
+     * @param   add             TRUE to add the interval or FALSE to remove it
+     */
+    private void updateStatistics(Response newer, Response older, boolean add) {
+        if (newer.getInt("height") != older.getInt("height")+1)
+            return;
+        int interval = (int)(newer.getLong("timestamp") - older.getLong("timestamp"));
+        int transactions = newer.getInt("numberOfTransactions");
+        if (add)
+            statistics.addInterval(interval, transactions);
+        else
+            statistics.removeInterval(interval, transactions);
+    }
+
+    /**
+     * Convert a table row to a ring buffer slot
+     *
+     * @param   row             Table row
+     * @return                  Ring buffer slot
+     */
+    private int rowToSlot(int row) {
+        int slot = headSlot - row;
+        return (slot < 0 ? slot+blockRing.length : slot);
+    }
+
+    /**
+     * Convert a ring buffer slot to a table row
+     *
+     * @param   slot            Ring buffer slot
+     * @return                  Table row
+     */
+    private int slotToRow(int slot) {
+        int row = headSlot - slot;
+        return (row < 0 ? row+blockRing.length : row);
+    }
+
+    /**
+     * Return the identifier for a block already in the ring buffer
+     *
+     * @param   block           Block
+     * @return                  Block identifier
+     */
+    private long getBlockId(Response block) {
+        try {
+            return block.getId("block");
+        } catch (IdentifierException exc) {
+            throw new IllegalStateException("Block identifier is not valid", exc);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2Monitor.MetricStore.Series;
+import org.ScripterRon.Nxt2Monitor.MetricStore.Tier;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * ChartPanel displays the metric history for a server as a set of sparklines.
+ *
+ * The samples are read from the metric store and reduced to the chart width on a
+ * background thread, so a long history does not block the AWT event thread.  The
+ * chart is drawn into an off-screen image which is only redrawn when the chart data
+ * or the chart size changes.  The history is reloaded when the server is updated,
+ * but not more often than the reload interval.
+ */
+public final class ChartPanel extends JPanel {
+
+    /** Charted series */
+    private static final Series[] chartSeries = {
+        Series.BLOCK_INTERVAL, Series.TRANSACTIONS, Series.PEERS};
+
+    /** Height of each sparkline */
+    private static final int SPARKLINE_HEIGHT = 40;
+
+    /** Minimum time between reloads (milliseconds) */
+    private static final int RELOAD_INTERVAL = 10000;
+
+    /** Chart time ranges */
+    private enum Range {
+        HOUR("Last hour", 60L*60*1000, Tier.MINUTE),
+        DAY("Last day", 24L*60*60*1000, Tier.MINUTE),
+        WEEK("Last 7 days", 7L*24*60*60*1000, Tier.MINUTE),
+        MONTH("Last 30 days", 30L*24*60*60*1000, Tier.HOUR),
+        HALF_YEAR("Last 180 days", 180L*24*60*60*1000, Tier.HOUR),
+        YEARS("Last 10 years", 3650L*24*60*60*1000, Tier.DAY);
+
+        /** Display name */
+        private final String name;
+
+        /** Time range (milliseconds) */
+        private final long range;
+
+        /** Aggregation tier */
+        private final Tier tier;
+
+        /**
+         * Create the time range
+         *
+         * @param       name            Display name
+         * @param       range           Time range (milliseconds)
+         * @param       tier            Aggregation tier
+         */
+        private Range(String name, long range, Tier tier) {
+            this.name = name;
+            this.range = range;
+            this.tier = tier;
+        }
+
+        /**
+         * Return the display name
+         *
+         * @return                      Display name
+         */
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /** Chart loader thread */
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Nxt Chart Loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Chart component */
+    private final ChartComponent chart = new ChartComponent();
+
+    /** Time range selector */
+    private final JComboBox<Range> rangeField = new JComboBox<>(Range.values());
+
+    /** Reload timer */
+    private final Timer reloadTimer;
+
+    /** Reload has been queued */
+    private final AtomicBoolean reloadQueued = new AtomicBoolean();
+
+    /** Current node monitor */
+    private volatile NodeMonitor nodeMonitor;
+
+    /** Current time range */
+    private volatile Range range = Range.DAY;
+
+    /** Chart width for the next load */
+    private volatile int requestedWidth;
+
+    /** Chart width used for the loaded data (AWT event thread) */
+    private int chartWidth;
+
+    /** Load generation (incremented when the monitor or range changes) */
+    private volatile int generation;
+
+    /** Server has been updated since the last reload (AWT event thread) */
+    private boolean updated;
+
+    /** Chart data for each series (AWT event thread) */
+    private ChartData[] chartData = new ChartData[0];
+
+    /** Off-screen chart image (AWT event thread) */
+    private BufferedImage image;
+
+    /**
+     * Create the chart panel
+     *
+     * @param       nodeMonitor     Node monitor for the current server
+     */
+    public ChartPanel(NodeMonitor nodeMonitor) {
+        super(new BorderLayout());
+        this.nodeMonitor = nodeMonitor;
+        setOpaque(true);
+        setBackground(Color.WHITE);
+        rangeField.setSelectedItem(range);
+        rangeField.addActionListener(event -> {
+            range = (Range)rangeField.getSelectedItem();
+            reload(true);
+        });
+        JPanel headerPane = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        headerPane.setOpaque(false);
+        headerPane.add(new JLabel("<html><b>History</b></html>"));
+        headerPane.add(rangeField);
+        add(headerPane, BorderLayout.NORTH);
+        add(chart, BorderLayout.CENTER);
+        chart.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent event) {
+                if (chart.getWidth() != chartWidth)
+                    reload(false);
+            }
+        });
+        reloadTimer = new Timer(RELOAD_INTERVAL, event -> {
+            if (updated)
+                reload(false);
+        });
+        reloadTimer.start();
+    }
+
+    /**
+     * Display the history for a different server (AWT event thread)
+     *
+     * @param       monitor         Node monitor
+     */
+    public void setMonitor(NodeMonitor monitor) {
+        nodeMonitor = monitor;
+        reload(true);
+    }
+
+    /**
+     * The server has been updated (AWT event thread)
+     *
+     * The history is reloaded by the reload timer
+     */
+    public void monitorUpdated() {
+        updated = true;
+    }
+
+    /**
+     * Queue a reload of the chart data (AWT event thread)
+     *
+     * A reload that is already queued is not queued again.  The current chart data
+     * is discarded when the server or the time range changes.
+     *
+     * @param       clear           TRUE to discard the current chart data
+     */
+    private void reload(boolean clear) {
+        updated = false;
+        requestedWidth = chart.getWidth();
+        if (clear) {
+            generation++;
+            chartData = new ChartData[0];
+            image = null;
+            chart.repaint();
+        }
+        if (reloadQueued.compareAndSet(false, true))
+            loader.execute(() -> loadChart());
+    }
+
+    /**
+     * Load the chart data (loader thread)
+     *
+     * The samples are reduced to one point for each pixel of the chart width
+     */
+    private void loadChart() {
+        reloadQueued.set(false);
+        int loadGeneration = generation;
+        NodeMonitor monitor = nodeMonitor;
+        Range loadRange = range;
+        int width = Math.max(requestedWidth, 1);
+        MetricStore store = monitor.getMetricStore();
+        long endTime = System.currentTimeMillis();
+        long startTime = endTime - loadRange.range;
+        ChartData[] loadData = new ChartData[chartSeries.length];
+        for (int i=0; i<chartSeries.length; i++) {
+            List<MetricStore.Sample> samples = (store != null ?
+                    store.getSamples(chartSeries[i], loadRange.tier, startTime, endTime) :
+                    Collections.emptyList());
+            loadData[i] = new ChartData(chartSeries[i], samples, startTime, endTime, width);
+        }
+        SwingUtilities.invokeLater(() -> {
+            if (loadGeneration != generation)
+                return;
+            chartWidth = width;
+            chartData = loadData;
+            image = null;
+            chart.repaint();
+        });
+    }
+
+    /**
+     * Chart component drawing the off-screen chart image
+     */
+    private class ChartComponent extends JComponent {
+
+        /**
+         * Create the chart component
+         */
+        private ChartComponent() {
+            setPreferredSize(new Dimension(400, SPARKLINE_HEIGHT*chartSeries.length));
+        }
+
+        /**
+         * Paint the component
+         *
+         * The chart image is redrawn if the chart data or the component size has changed
+         *
+         * @param       g               Graphics context
+         */
+        @Override
+        protected void paintComponent(Graphics g) {
+            int width = getWidth();
+            int height = getHeight();
+            if (width <= 0 || height <= 0)
+                return;
+            if (image == null || image.getWidth() != width || image.getHeight() != height) {
+                image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                drawChart(image, width, height);
+            }
+            g.drawImage(image, 0, 0, null);
+        }
+
+        /**
+         * Draw the chart
+         *
+         * @param       image           Chart image
+         * @param       width           Image width
+         * @param       height          Image height
+         */
+        private void drawChart(BufferedImage image, int width, int height) {
+            Graphics2D g = image.createGraphics();
+            try {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g.setFont(getFont().deriveFont(Font.PLAIN, 11f));
+                FontMetrics metrics = g.getFontMetrics();
+                int bandHeight = height/chartSeries.length;
+                for (int i=0; i<chartSeries.length; i++) {
+                    int top = i*bandHeight;
+                    ChartData data = (i < chartData.length ? chartData[i] : null);
+                    g.setColor(Color.LIGHT_GRAY);
+                    g.drawLine(0, top+bandHeight-1, width, top+bandHeight-1);
+                    g.setColor(Color.DARK_GRAY);
+                    String text = (data != null ? data.getLabel() : chartSeries[i].toString());
+                    g.drawString(text, 2, top+metrics.getAscent());
+                    if (data == null || data.length == 0)
+                        continue;
+                    int plotTop = top + metrics.getHeight();
+                    int plotHeight = Math.max(bandHeight - metrics.getHeight() - 3, 1);
+                    double yRange = Math.max(data.maxY - data.minY, 1);
+                    int[] px = new int[data.length];
+                    int[] py = new int[data.length];
+                    for (int j=0; j<data.length; j++) {
+                        px[j] = (int)Math.round(data.x[j]*(width-1));
+                        py[j] = plotTop + plotHeight - (int)Math.round((data.y[j]-data.minY)/yRange*plotHeight);
+                    }
+                    g.setColor(new Color(0, 90, 180));
+                    if (data.length == 1)
+                        g.fillOval(px[0]-1, py[0]-1, 3, 3);
+                    else
+                        g.drawPolyline(px, py, data.length);
+                }
+            } finally {
+                g.dispose();
+            }
+        }
+    }
+
+    /**
+     * Downsampled chart data for a series
+     */
+    private static class ChartData {
+
+        /** Series */
+        private final Series series;
+
+        /** X positions as a fraction of the chart width */
+        private final double[] x;
+
+        /** Y values */
+        private final double[] y;
+
+        /** Number of points */
+        private final int length;
+
+        /** Minimum Y value */
+        private double minY = Double.MAX_VALUE;
+
+        /** Maximum Y value */
+        private double maxY = -Double.MAX_VALUE;
+
+        /** Latest value */
+        private final double last;
+
+        /**
+         * Create the chart data
+         *
+         * @param       series          Series
+         * @param       samples         Samples ordered by time
+         * @param       startTime       Chart start time (milliseconds since the epoch)
+         * @param       endTime         Chart end time (milliseconds since the epoch)
+         * @param       width           Chart width (pixels)
+         */
+        private ChartData(Series series, List<MetricStore.Sample> samples, long startTime, long endTime,
+                          int width) {
+            this.series = series;
+            int count = samples.size();
+            double[] sampleX = new double[count];
+            double[] sampleY = new double[count];
+            double span = Math.max(endTime - startTime, 1);
+            for (int i=0; i<count; i++) {
+                MetricStore.Sample sample = samples.get(i);
+                sampleX[i] = Math.max(sample.getTime() - startTime, 0) / span;
+                sampleY[i] = sample.getAverage();
+            }
+            int[] indexes = Downsampler.largestTriangleThreeBuckets(sampleX, sampleY, count, width);
+            length = indexes.length;
+            x = new double[length];
+            y = new double[length];
+            for (int i=0; i<length; i++) {
+                x[i] = sampleX[indexes[i]];
+                y[i] = sampleY[indexes[i]];
+                minY = Math.min(minY, y[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+            last = (count != 0 ? sampleY[count-1] : 0);
+        }
+
+        /**
+         * Return the series label
+         *
+         * @return                      Series name followed by the latest, minimum and maximum values
+         */
+        private String getLabel() {
+            if (length == 0)
+                return series.toString();
+            return String.format("%s: %.1f (min %.1f, max %.1f)", series, last, minY, maxY);
+        }
+    }
+}
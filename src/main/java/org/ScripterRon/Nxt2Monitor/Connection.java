@@ -15,8 +15,13 @@
  */
 package org.ScripterRon.Nxt2Monitor;
 
+import java.util.Locale;
+
 /**
  * Connection defines an NRS server connection
+ *
+ * Two connections are equal if they have the same host and port.  The host name
+ * is not case-sensitive and the administrator password is not compared.
  */
 public class Connection {
 
@@ -27,7 +32,7 @@ public class Connection {
     private int port;
 
     /** Server administrator password */
-    private String adminPW;
+    private volatile String adminPW;
 
     /**
      * Create a server connection
@@ -141,6 +146,28 @@ public class Connection {
         this.adminPW = adminPW;
     }
 
+    /**
+     * Return the hash code for this connection
+     *
+     * @return                      Hash code
+     */
+    @Override
+    public int hashCode() {
+        return host.toLowerCase(Locale.ROOT).hashCode() ^ port;
+    }
+
+    /**
+     * Check if two connections refer to the same server
+     *
+     * @param       obj             Object to compare
+     * @return                      TRUE if the host and port are the same
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return (obj instanceof Connection && host.equalsIgnoreCase(((Connection)obj).host) &&
+                port == ((Connection)obj).port);
+    }
+
     /**
      * Return the string representation of this connection
      *
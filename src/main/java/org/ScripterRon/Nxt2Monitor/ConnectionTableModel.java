@@ -0,0 +1,430 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2Monitor.StatusPanel.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model for the connections table
+ *
+ * The peers are kept in an array list with a network address to table row index.
+ * Disconnected and blacklisted peers are removed from the table once they have
+ * been inactive for the peer retention time.
+ *
+ * The table is kept current by the peer events.  The connected peers are also
+ * requested from the server at regular intervals and any difference is corrected
+ * in case an event was missed or a state change was guessed wrong.
+ */
+class ConnectionTableModel extends AbstractTableModel {
+
+    /** Column names */
+    private static final String[] columnNames = {
+        "Address", "Version", "Platform", "Services", "Status"};
+
+    /** Column classes */
+    private static final Class<?>[] columnClasses = {
+        String.class, String.class, String.class, String.class, String.class};
+
+    /** Connection list */
+    private final List<Response> connectionList = new ArrayList<>();
+
+    /** Connection map */
+    private final Map<String, Response> connectionMap = new ConcurrentHashMap<>();
+
+    /** Network address to table row */
+    private final Map<String, Integer> rowMap = new HashMap<>();
+
+    /** Network address to the time the peer became inactive */
+    private final Map<String, Long> inactiveMap = new HashMap<>();
+
+    /** Inactive peer retention time (milliseconds) */
+    private final long retentionTime;
+
+    /** Active connection count */
+    private int activeCount = 0;
+
+    /**
+     * Create the table model
+     *
+     * @param       retentionTime       Inactive peer retention time (seconds)
+     */
+    public ConnectionTableModel(int retentionTime) {
+        super();
+        this.retentionTime = (long)retentionTime * 1000;
+    }
+
+    /**
+     * Get the number of columns in the table
+     *
+     * @return                  The number of columns
+     */
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * Get the column class
+     *
+     * @param       column      Column number
+     * @return                  The column class
+     */
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return columnClasses[column];
+    }
+
+    /**
+     * Get the column name
+     *
+     * @param       column      Column number
+     * @return                  Column name
+     */
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    /**
+     * Get the number of rows in the table
+     *
+     * @return                  The number of rows
+     */
+    @Override
+    public int getRowCount() {
+        return connectionList.size();
+    }
+
+    /**
+     * Get the value for a cell
+     *
+     * @param       row         Row number
+     * @param       column      Column number
+     * @return                  Returns the object associated with the cell
+     */
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (row >= connectionList.size())
+            return null;
+        Object value = null;
+        Response peer = connectionList.get(row);
+        switch (column) {
+            case 0:                         // Network address
+                value = peer.getString("announcedAddress");
+                if (((String)value).isEmpty())
+                    value = peer.getString("address");
+                break;
+            case 1:                         // Application version
+                value = peer.getString("application") + " " + peer.getString("version");
+                break;
+            case 2:                         // Platform
+                value = peer.getString("platform");
+                break;
+            case 3:                         // Services
+                List<String> services = peer.getStringList("services");
+                StringBuilder builder = new StringBuilder(32);
+                services.forEach((service) -> {
+                    if (builder.length() > 0)
+                        builder.append(",");
+                    builder.append(service);
+                });
+                value = builder.toString();
+                break;
+            case 4:                         // Status
+                if (peer.getBoolean("blacklisted")) {
+                    value = "Blacklisted";
+                } else {
+                    State state = State.fromCode(peer.getInt("state"));
+                    switch (state) {
+                        case CONNECTED:
+                            value = "Connected";
+                            break;
+                        case DISCONNECTED:
+                            value = "Disconnected";
+                            break;
+                        default:
+                            value = "Not connected";
+                    }
+                }
+                break;
+        }
+        return value;
+    }
+
+    /**
+     * New peers have been added
+     *
+     * @param   peerList        Peers to add
+     */
+    public void peersAdded(List<Response> peerList) {
+        peerList.stream()
+                .filter(peer -> connectionMap.get(peer.getString("address")) == null &&
+                                !peer.getString("version").isEmpty())
+                .forEach(peer -> {
+                    String address = peer.getString("address");
+                    rowMap.put(address, connectionList.size());
+                    connectionList.add(peer);
+                    connectionMap.put(address, peer);
+                    if (State.fromCode(peer.getInt("state")) == State.CONNECTED)
+                        activeCount++;
+                    setInactive(address, peer);
+        });
+        fireTableDataChanged();
+    }
+
+    /**
+     * Apply the peer changes in an event batch
+     *
+     * New peers are reported as a single row insertion and changed peers
+     * are reported as a single row update.
+     *
+     * @param   changes         Peer changes
+     */
+    public void peersChanged(Collection<EventBatch.PeerChange> changes) {
+        if (changes.isEmpty())
+            return;
+        int firstRow = connectionList.size();
+        int minRow = Integer.MAX_VALUE;
+        int maxRow = -1;
+        for (EventBatch.PeerChange change : changes) {
+            String address = change.getAddress();
+            Response mapPeer = connectionMap.get(address);
+            Response peer = change.getPeer();
+            if (mapPeer == null) {
+                if (peer != null) {
+                    rowMap.put(address, connectionList.size());
+                    connectionList.add(peer);
+                    connectionMap.put(address, peer);
+                    if (change.getState() == State.CONNECTED)
+                        activeCount++;
+                    setInactive(address, peer);
+                }
+                continue;
+            }
+            State mapState = State.fromCode(mapPeer.getInt("state"));
+            State peerState = change.getState();
+            if (mapState == State.CONNECTED && peerState != State.CONNECTED)
+                activeCount--;
+            else if (mapState != State.CONNECTED && peerState == State.CONNECTED)
+                activeCount++;
+            int row = rowMap.get(address);
+            if (peer != null) {
+                connectionList.set(row, peer);
+                connectionMap.put(address, peer);
+            } else {
+                peer = mapPeer;
+                peer.getObjectMap().put("state", (long)peerState.getCode());
+                peer.getObjectMap().put("blacklisted", change.isBlacklisted());
+            }
+            setInactive(address, peer);
+            if (row < firstRow) {
+                minRow = Math.min(minRow, row);
+                maxRow = Math.max(maxRow, row);
+            }
+        }
+        if (connectionList.size() > firstRow)
+            fireTableRowsInserted(firstRow, connectionList.size()-1);
+        if (maxRow >= 0)
+            fireTableRowsUpdated(minRow, maxRow);
+    }
+
+    /**
+     * Resynchronize the connection table after reconnecting to the server
+     *
+     * The connected peers are added or replaced and any other peer that is
+     * still shown as connected is marked as disconnected.
+     *
+     * @param   peerList        Connected peers
+     */
+    public void peersRecovered(List<Response> peerList) {
+        EventBatch batch = new EventBatch();
+        peerList.stream()
+                .filter(peer -> !peer.getString("version").isEmpty())
+                .forEach(peer -> batch.peerAdded(peer));
+        connectionList.forEach(peer -> {
+            String address = peer.getString("address");
+            if (batch.getPeerChange(address) == null && State.fromCode(peer.getInt("state")) == State.CONNECTED)
+                batch.peerUpdated(address, State.DISCONNECTED, peer.getBoolean("blacklisted"));
+        });
+        peersChanged(batch.getPeerChanges());
+    }
+
+    /**
+     * Reconcile the connection table with the connected peers reported by the server
+     *
+     * A connected peer is added if it is not in the table and replaced if any of
+     * the displayed fields are different.  Any other peer that is still shown as
+     * connected is marked as disconnected and will be removed once the retention
+     * time has passed.  The corrections are applied as a single batch.
+     *
+     * Peers that have been changed by an event since the peer list was requested
+     * are not corrected since the table is more current than the peer list.
+     *
+     * @param   peerList        Connected peers
+     * @param   changedPeers    Addresses of the peers changed since the peer list was requested
+     * @return                  Number of corrections
+     */
+    public int peersReconciled(List<Response> peerList, Set<String> changedPeers) {
+        EventBatch batch = new EventBatch();
+        Set<String> addresses = new HashSet<>(peerList.size()*4/3+1);
+        peerList.stream()
+                .filter(peer -> !peer.getString("version").isEmpty())
+                .forEach(peer -> {
+                    String address = peer.getString("address");
+                    addresses.add(address);
+                    if (changedPeers.contains(address))
+                        return;
+                    Response mapPeer = connectionMap.get(address);
+                    if (mapPeer == null || !peerFields(mapPeer).equals(peerFields(peer)))
+                        batch.peerAdded(peer);
+                });
+        connectionList.forEach(peer -> {
+            String address = peer.getString("address");
+            if (!addresses.contains(address) && !changedPeers.contains(address) &&
+                    State.fromCode(peer.getInt("state")) == State.CONNECTED)
+                batch.peerUpdated(address, State.DISCONNECTED, peer.getBoolean("blacklisted"));
+        });
+        Collection<EventBatch.PeerChange> changes = batch.getPeerChanges();
+        peersChanged(changes);
+        return changes.size();
+    }
+
+    /**
+     * Remove peers that have been inactive longer than the retention time
+     *
+     * The last table row is moved into the vacated row so each removal
+     * is done in constant time.
+     */
+    public void peersExpired() {
+        if (inactiveMap.isEmpty())
+            return;
+        long expireTime = System.currentTimeMillis() - retentionTime;
+        List<String> expiredList = new ArrayList<>();
+        inactiveMap.forEach((address, time) -> {
+            if (time <= expireTime)
+                expiredList.add(address);
+        });
+        for (String address : expiredList) {
+            inactiveMap.remove(address);
+            Response peer = connectionMap.remove(address);
+            int row = rowMap.remove(address);
+            if (State.fromCode(peer.getInt("state")) == State.CONNECTED)
+                activeCount--;
+            int lastRow = connectionList.size()-1;
+            Response lastPeer = connectionList.remove(lastRow);
+            if (row != lastRow) {
+                connectionList.set(row, lastPeer);
+                rowMap.put(lastPeer.getString("address"), row);
+            }
+            fireTableRowsDeleted(lastRow, lastRow);
+            if (row != lastRow)
+                fireTableRowsUpdated(row, row);
+        }
+    }
+
+    /**
+     * Return an existing peer
+     *
+     * @param   address         Peer network address
+     * @return                  Peer or null if peer not found
+     */
+    public Response getPeer(String address) {
+        return connectionMap.get(address);
+    }
+
+    /**
+     * Return the peers in the table
+     *
+     * @return                  Peer list
+     */
+    public List<Response> getPeers() {
+        return new ArrayList<>(connectionList);
+    }
+
+    /**
+     * Return the active connection count
+     *
+     * @return                  Active connection count
+     */
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    /**
+     * Return the number of peers in each connection state
+     *
+     * @return                  Peer counts indexed by connection state ordinal followed
+     *                          by the blacklisted peer count
+     */
+    public int[] getPeerCounts() {
+        int[] counts = new int[State.values().length+1];
+        connectionList.forEach(peer -> {
+            counts[State.fromCode(peer.getInt("state")).ordinal()]++;
+            if (peer.getBoolean("blacklisted"))
+                counts[counts.length-1]++;
+        });
+        return counts;
+    }
+
+    /**
+     * Check if a peer is active
+     *
+     * @param   peer            Peer
+     * @return                  TRUE if the peer is connected and not blacklisted
+     */
+    private boolean isActive(Response peer) {
+        return (State.fromCode(peer.getInt("state")) == State.CONNECTED && !peer.getBoolean("blacklisted"));
+    }
+
+    /**
+     * Return the peer fields shown in the table
+     *
+     * @param   peer            Peer
+     * @return                  Field values
+     */
+    private static List<Object> peerFields(Response peer) {
+        return Arrays.asList(peer.getString("announcedAddress"), peer.getString("application"),
+                             peer.getString("version"), peer.getString("platform"),
+                             peer.getStringList("services"), peer.getInt("state"),
+                             peer.getBoolean("blacklisted"));
+    }
+
+    /**
+     * Start or stop the retention timer for a peer
+     *
+     * @param   address         Peer network address
+     * @param   peer            Peer
+     */
+    private void setInactive(String address, Response peer) {
+        if (isActive(peer))
+            inactiveMap.remove(address);
+        else
+            inactiveMap.putIfAbsent(address, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+/**
+ * Downsampler reduces a series to a smaller number of points while keeping the
+ * visual shape of the series.  It uses the largest-triangle-three-buckets algorithm:
+ * the first and last points are always kept and the points between them are divided
+ * into equal buckets.  The point kept for each bucket is the one forming the largest
+ * triangle with the point kept for the previous bucket and the average of the next
+ * bucket.  Peaks and valleys are kept, which is not the case when every n-th point
+ * is kept or the bucket average is used.
+ */
+final class Downsampler {
+
+    /**
+     * Downsampler is not instantiated
+     */
+    private Downsampler() {
+    }
+
+    /**
+     * Select the points to keep
+     *
+     * @param       x               X values in ascending order
+     * @param       y               Y values
+     * @param       length          Number of points
+     * @param       threshold       Maximum number of points to keep
+     * @return                      Indexes of the points to keep in ascending order
+     */
+    static int[] largestTriangleThreeBuckets(double[] x, double[] y, int length, int threshold) {
+        if (threshold >= length || threshold < 3) {
+            int count = (threshold >= length ? length : Math.min(length, 2));
+            int[] indexes = new int[count];
+            for (int i=0; i<count; i++)
+                indexes[i] = (i == count-1 ? length-1 : i);
+            return indexes;
+        }
+        int[] indexes = new int[threshold];
+        double bucketSize = (double)(length-2) / (threshold-2);
+        int a = 0;
+        int count = 0;
+        indexes[count++] = 0;
+        for (int i=0; i<threshold-2; i++) {
+            //
+            // Get the average of the next bucket
+            //
+            int avgStart = (int)((i+1)*bucketSize) + 1;
+            int avgEnd = Math.min((int)((i+2)*bucketSize) + 1, length);
+            double avgX = 0;
+            double avgY = 0;
+            for (int j=avgStart; j<avgEnd; j++) {
+                avgX += x[j];
+                avgY += y[j];
+            }
+            avgX /= (avgEnd-avgStart);
+            avgY /= (avgEnd-avgStart);
+            //
+            // Keep the point in the current bucket forming the largest triangle
+            //
+            int rangeStart = (int)(i*bucketSize) + 1;
+            int rangeEnd = (int)((i+1)*bucketSize) + 1;
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int j=rangeStart; j<rangeEnd; j++) {
+                double area = Math.abs((x[a]-avgX)*(y[j]-y[a]) - (x[a]-x[j])*(avgY-y[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+            indexes[count++] = next;
+            a = next;
+        }
+        indexes[count] = length-1;
+        return indexes;
+    }
+}
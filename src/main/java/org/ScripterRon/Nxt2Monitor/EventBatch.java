@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Response;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * EventBatch contains the table model changes for a single event wait.  The batch
+ * is built by the event handler thread and then applied by the AWT event thread.
+ *
+ * Repeated changes for the same peer are combined into a single change.  A block that
+ * is pushed and then popped within the same batch is removed from the batch.
+ */
+class EventBatch {
+
+    /** Peer changes */
+    private final Map<String, PeerChange> peerChanges = new LinkedHashMap<>();
+
+    /** Block changes */
+    private final List<BlockChange> blockChanges = new ArrayList<>();
+
+    /** Batch contains a popped block */
+    private boolean blockPopped = false;
+
+    /** Batch sequence number */
+    private long sequence;
+
+    /**
+     * Create an empty batch
+     */
+    EventBatch() {
+    }
+
+    /**
+     * Check if the batch is empty
+     *
+     * @return                      TRUE if there are no changes
+     */
+    boolean isEmpty() {
+        return (peerChanges.isEmpty() && blockChanges.isEmpty());
+    }
+
+    /**
+     * A peer has been added or replaced
+     *
+     * @param       peer            Peer
+     */
+    void peerAdded(Response peer) {
+        peerChanges.put(peer.getString("address"), new PeerChange(peer));
+    }
+
+    /**
+     * A peer state has changed
+     *
+     * @param       address         Peer network address
+     * @param       state           New peer state
+     * @param       blacklisted     TRUE if the peer is blacklisted
+     */
+    void peerUpdated(String address, StatusPanel.State state, boolean blacklisted) {
+        PeerChange change = peerChanges.get(address);
+        if (change != null && change.getPeer() != null) {
+            Map<String, Object> peerMap = change.getPeer().getObjectMap();
+            peerMap.put("state", (long)state.getCode());
+            peerMap.put("blacklisted", blacklisted);
+        } else {
+            peerChanges.put(address, new PeerChange(address, state, blacklisted));
+        }
+    }
+
+    /**
+     * Return the pending change for a peer
+     *
+     * @param       address         Peer network address
+     * @return                      Peer change or null if there is no change
+     */
+    PeerChange getPeerChange(String address) {
+        return peerChanges.get(address);
+    }
+
+    /**
+     * Return the peer changes in the order they were first made
+     *
+     * @return                      Peer changes
+     */
+    Collection<PeerChange> getPeerChanges() {
+        return peerChanges.values();
+    }
+
+    /**
+     * A block has been pushed
+     *
+     * @param       blockId         Block identifier
+     * @param       block           Block
+     */
+    void blockPushed(long blockId, Response block) {
+        blockChanges.add(new BlockChange(blockId, block));
+    }
+
+    /**
+     * A block has been popped
+     *
+     * @param       blockId         Block identifier
+     */
+    void blockPopped(long blockId) {
+        int last = blockChanges.size()-1;
+        if (last >= 0 && blockChanges.get(last).getBlockId() == blockId && blockChanges.get(last).getBlock() != null) {
+            blockChanges.remove(last);
+        } else {
+            blockChanges.add(new BlockChange(blockId, null));
+            blockPopped = true;
+        }
+    }
+
+    /**
+     * Return the block changes in the order they were made
+     *
+     * @return                      Block changes
+     */
+    List<BlockChange> getBlockChanges() {
+        return blockChanges;
+    }
+
+    /**
+     * Check if the batch contains a popped block
+     *
+     * @return                      TRUE if a block was popped
+     */
+    boolean isBlockPopped() {
+        return blockPopped;
+    }
+
+    /**
+     * Set the batch sequence number
+     *
+     * @param       sequence        Sequence number assigned when the batch is queued
+     */
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Return the batch sequence number
+     *
+     * @return                      Sequence number or 0 if the batch has not been queued
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * A peer change is either a new peer or a state change for an existing peer
+     */
+    static class PeerChange {
+
+        /** Peer network address */
+        private final String address;
+
+        /** New or replacement peer */
+        private final Response peer;
+
+        /** New peer state */
+        private final StatusPanel.State state;
+
+        /** Peer is blacklisted */
+        private final boolean blacklisted;
+
+        /**
+         * Create a new peer change
+         *
+         * @param       peer            New or replacement peer
+         */
+        PeerChange(Response peer) {
+            this.address = peer.getString("address");
+            this.peer = peer;
+            this.state = StatusPanel.State.fromCode(peer.getInt("state"));
+            this.blacklisted = peer.getBoolean("blacklisted");
+        }
+
+        /**
+         * Create a peer state change
+         *
+         * @param       address         Peer network address
+         * @param       state           New peer state
+         * @param       blacklisted     TRUE if the peer is blacklisted
+         */
+        PeerChange(String address, StatusPanel.State state, boolean blacklisted) {
+            this.address = address;
+            this.peer = null;
+            this.state = state;
+            this.blacklisted = blacklisted;
+        }
+
+        /**
+         * Return the peer network address
+         *
+         * @return                      Network address
+         */
+        String getAddress() {
+            return address;
+        }
+
+        /**
+         * Return the new or replacement peer
+         *
+         * @return                      Peer or null if this is a state change
+         */
+        Response getPeer() {
+            return peer;
+        }
+
+        /**
+         * Return the new peer state
+         *
+         * @return                      Peer state
+         */
+        StatusPanel.State getState() {
+            return (peer != null ? StatusPanel.State.fromCode(peer.getInt("state")) : state);
+        }
+
+        /**
+         * Check if the peer is blacklisted
+         *
+         * @return                      TRUE if the peer is blacklisted
+         */
+        boolean isBlacklisted() {
+            return (peer != null ? peer.getBoolean("blacklisted") : blacklisted);
+        }
+    }
+
+    /**
+     * A block change is either a pushed block or a popped block
+     */
+    static class BlockChange {
+
+        /** Block identifier */
+        private final long blockId;
+
+        /** Pushed block */
+        private final Response block;
+
+        /**
+         * Create a block change
+         *
+         * @param       blockId         Block identifier
+         * @param       block           Pushed block or null if the block was popped
+         */
+        BlockChange(long blockId, Response block) {
+            this.blockId = blockId;
+            this.block = block;
+        }
+
+        /**
+         * Return the block identifier
+         *
+         * @return                      Block identifier
+         */
+        long getBlockId() {
+            return blockId;
+        }
+
+        /**
+         * Return the pushed block
+         *
+         * @return                      Block or null if the block was popped
+         */
+        Response getBlock() {
+            return block;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2Monitor.RequestScheduler.Priority;
+
+import org.ScripterRon.Nxt2API.Response;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ForkDetector compares the chains of the monitored servers to find servers that
+ * are on different forks.  The chain head is requested from all of the servers at
+ * the same time and the most recent blocks are then requested from each server
+ * whose chain head has changed since the last check.
+ *
+ * The highest block common to two servers is found by comparing hashes of the block
+ * identifiers in fixed height windows, starting with the highest window that both
+ * servers have.  Since two chains are the same up to the fork and different after
+ * it, only the blocks above the highest matching window need to be compared one at
+ * a time.  The divergence depth is the number of blocks above the common block on
+ * the shorter of the two chains, so a server that is just behind another server is
+ * not reported as being on a fork.
+ *
+ * The requests are run at background priority by the request scheduler for each
+ * server.  Servers that are not active are not checked.
+ */
+class ForkDetector {
+
+    /** Number of recent blocks compared */
+    static final int FORK_WINDOW = 100;
+
+    /** Number of blocks in a hash window */
+    private static final int HASH_WINDOW = 10;
+
+    /** Time between checks (seconds) */
+    private static final int CHECK_INTERVAL = 15;
+
+    /** Node monitors */
+    private final List<NodeMonitor> monitors;
+
+    /** Check timer */
+    private final ScheduledExecutorService timer;
+
+    /** Most recent chain for each server (check thread) */
+    private final Map<NodeMonitor, Chain> chainMap = new HashMap<>();
+
+    /** Divergence for each pair of servers from the last check */
+    private volatile List<Divergence> divergences = Collections.emptyList();
+
+    /**
+     * Create the fork detector
+     *
+     * @param       monitors        Node monitors
+     */
+    ForkDetector(List<NodeMonitor> monitors) {
+        this.monitors = monitors;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Nxt Fork Detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start checking the servers
+     */
+    void start() {
+        timer.scheduleWithFixedDelay(() -> checkForks(), CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop checking the servers
+     */
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Return the divergence for each pair of servers from the last check
+     *
+     * @return                      Divergence list
+     */
+    List<Divergence> getDivergences() {
+        return divergences;
+    }
+
+    /**
+     * Check the servers for forks (check thread)
+     */
+    private void checkForks() {
+        try {
+            //
+            // Get the chain head for each active server
+            //
+            Map<NodeMonitor, Future<List<Response>>> headRequests = new HashMap<>();
+            for (NodeMonitor monitor : monitors) {
+                if (monitor.getStatus() == NodeMonitor.Status.ACTIVE)
+                    headRequests.put(monitor, monitor.getScheduler().submit(Priority.BACKGROUND,
+                            () -> monitor.getNodeClient().getBlocks(0, 0, false)));
+            }
+            //
+            // Get the recent blocks for each server with a new chain head
+            //
+            Map<NodeMonitor, Future<List<Response>>> blockRequests = new HashMap<>();
+            for (Map.Entry<NodeMonitor, Future<List<Response>>> entry : headRequests.entrySet()) {
+                NodeMonitor monitor = entry.getKey();
+                List<Response> head = getResult(monitor, entry.getValue());
+                Chain chain = chainMap.get(monitor);
+                if (head == null || head.isEmpty()) {
+                    chainMap.remove(monitor);
+                } else if (chain == null || chain.getHeadId() != Long.parseUnsignedLong(head.get(0).getString("block"))) {
+                    blockRequests.put(monitor, monitor.getScheduler().submit(Priority.BACKGROUND,
+                            () -> monitor.getNodeClient().getBlocks(0, FORK_WINDOW-1, false)));
+                }
+            }
+            for (Map.Entry<NodeMonitor, Future<List<Response>>> entry : blockRequests.entrySet()) {
+                NodeMonitor monitor = entry.getKey();
+                List<Response> blocks = getResult(monitor, entry.getValue());
+                if (blocks == null || blocks.isEmpty())
+                    chainMap.remove(monitor);
+                else
+                    chainMap.put(monitor, new Chain(blocks));
+            }
+            chainMap.keySet().retainAll(headRequests.keySet());
+            //
+            // Compare each pair of servers
+            //
+            List<Divergence> previous = divergences;
+            List<Divergence> results = new ArrayList<>();
+            Map<NodeMonitor, Integer> depthMap = new HashMap<>();
+            for (int i=0; i<monitors.size(); i++) {
+                NodeMonitor monitor = monitors.get(i);
+                Chain chain = chainMap.get(monitor);
+                for (int j=i+1; j<monitors.size() && chain!=null; j++) {
+                    NodeMonitor otherMonitor = monitors.get(j);
+                    Chain otherChain = chainMap.get(otherMonitor);
+                    if (otherChain == null)
+                        continue;
+                    Divergence divergence = compare(monitor, chain, otherMonitor, otherChain);
+                    if (divergence == null)
+                        continue;
+                    results.add(divergence);
+                    depthMap.merge(monitor, divergence.getDepth(), Math::max);
+                    depthMap.merge(otherMonitor, divergence.getDepth(), Math::max);
+                    logChange(divergence, previous);
+                }
+            }
+            divergences = Collections.unmodifiableList(results);
+            monitors.forEach(monitor -> monitor.setForkDepth(depthMap.getOrDefault(monitor, 0)));
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        } catch (Exception exc) {
+            Main.log.error("Exception while checking for forks", exc);
+        }
+    }
+
+    /**
+     * Return the result of a server request
+     *
+     * @param       monitor         Node monitor
+     * @param       future          Server request
+     * @return                      Request result or null if the request failed
+     * @throws      InterruptedException The check was interrupted
+     */
+    private static List<Response> getResult(NodeMonitor monitor, Future<List<Response>> future)
+                                            throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException exc) {
+            Main.log.debug(String.format("Unable to get blocks from %s for fork check: %s",
+                    monitor.getConnection().getHost(), exc.getCause()));
+            return null;
+        }
+    }
+
+    /**
+     * Compare the chains for two servers
+     *
+     * @param       monitor         First node monitor
+     * @param       chain           First chain
+     * @param       otherMonitor    Second node monitor
+     * @param       otherChain      Second chain
+     * @return                      Divergence or null if the chains do not overlap
+     */
+    private static Divergence compare(NodeMonitor monitor, Chain chain, NodeMonitor otherMonitor, Chain otherChain) {
+        int top = Math.min(chain.getHeadHeight(), otherChain.getHeadHeight());
+        int bottom = Math.max(chain.getLowHeight(), otherChain.getLowHeight());
+        if (top < bottom)
+            return null;
+        if (chain.getId(top) == otherChain.getId(top))
+            return new Divergence(monitor, otherMonitor, top, 0);
+        //
+        // Find the highest window that matches.  The chains are the same up to the
+        // fork, so the common block is at or above the top of this window.
+        //
+        int height = bottom;
+        for (int window=(top+1)/HASH_WINDOW-1; window*HASH_WINDOW>=bottom; window--) {
+            if (chain.getHash(window) == otherChain.getHash(window)) {
+                height = window*HASH_WINDOW + HASH_WINDOW - 1;
+                break;
+            }
+        }
+        if (chain.getId(height) != otherChain.getId(height))
+            return new Divergence(monitor, otherMonitor, -1, top-bottom+1);
+        while (height < top && chain.getId(height+1) == otherChain.getId(height+1))
+            height++;
+        return new Divergence(monitor, otherMonitor, height, top-height);
+    }
+
+    /**
+     * Log a change in the divergence between two servers
+     *
+     * @param       divergence      Current divergence
+     * @param       previous        Divergences from the previous check
+     */
+    private static void logChange(Divergence divergence, List<Divergence> previous) {
+        int previousDepth = 0;
+        for (Divergence check : previous) {
+            if (check.getMonitor() == divergence.getMonitor() &&
+                    check.getOtherMonitor() == divergence.getOtherMonitor()) {
+                previousDepth = check.getDepth();
+                break;
+            }
+        }
+        String host = divergence.getMonitor().getConnection().getHost();
+        String otherHost = divergence.getOtherMonitor().getConnection().getHost();
+        if (divergence.getDepth() != 0 && previousDepth == 0) {
+            if (divergence.getCommonHeight() < 0)
+                Main.log.warn(String.format("%s and %s are on different forks with no common block in the last %d blocks",
+                        host, otherHost, divergence.getDepth()));
+            else
+                Main.log.warn(String.format("%s and %s are on different forks: common block at height %d, depth %d",
+                        host, otherHost, divergence.getCommonHeight(), divergence.getDepth()));
+        } else if (divergence.getDepth() == 0 && previousDepth != 0) {
+            Main.log.info(String.format("%s and %s are on the same chain at height %d",
+                    host, otherHost, divergence.getCommonHeight()));
+        }
+    }
+
+    /**
+     * The divergence between the chains for two servers
+     */
+    static class Divergence {
+
+        /** First node monitor */
+        private final NodeMonitor monitor;
+
+        /** Second node monitor */
+        private final NodeMonitor otherMonitor;
+
+        /** Height of the highest common block or -1 if there is no common block */
+        private final int commonHeight;
+
+        /** Number of blocks above the common block on the shorter chain */
+        private final int depth;
+
+        /**
+         * Create a divergence
+         *
+         * @param       monitor         First node monitor
+         * @param       otherMonitor    Second node monitor
+         * @param       commonHeight    Height of the highest common block or -1 if there is no common block
+         * @param       depth           Number of blocks above the common block on the shorter chain
+         */
+        private Divergence(NodeMonitor monitor, NodeMonitor otherMonitor, int commonHeight, int depth) {
+            this.monitor = monitor;
+            this.otherMonitor = otherMonitor;
+            this.commonHeight = commonHeight;
+            this.depth = depth;
+        }
+
+        /**
+         * Return the first node monitor
+         *
+         * @return                      Node monitor
+         */
+        NodeMonitor getMonitor() {
+            return monitor;
+        }
+
+        /**
+         * Return the second node monitor
+         *
+         * @return                      Node monitor
+         */
+        NodeMonitor getOtherMonitor() {
+            return otherMonitor;
+        }
+
+        /**
+         * Return the height of the highest common block
+         *
+         * @return                      Block height or -1 if there is no common block in the compared blocks
+         */
+        int getCommonHeight() {
+            return commonHeight;
+        }
+
+        /**
+         * Return the divergence depth
+         *
+         * @return                      Number of blocks above the common block on the shorter
+         *                              chain or 0 if the servers are on the same chain
+         */
+        int getDepth() {
+            return depth;
+        }
+    }
+
+    /**
+     * The recent blocks for a server
+     */
+    private static class Chain {
+
+        /** Chain head height */
+        private final int headHeight;
+
+        /** Block identifiers indexed by the distance from the chain head */
+        private final long[] ids;
+
+        /** Hash of the block identifiers in each complete window */
+        private final Map<Integer, Long> hashMap = new HashMap<>();
+
+        /**
+         * Create the chain
+         *
+         * @param       blocks          Block list ordered from the newest block to the oldest block
+         */
+        private Chain(List<Response> blocks) {
+            headHeight = blocks.get(0).getInt("height");
+            ids = new long[blocks.size()];
+            for (int i=0; i<ids.length; i++)
+                ids[i] = Long.parseUnsignedLong(blocks.get(i).getString("block"));
+            int lowHeight = getLowHeight();
+            for (int window=(lowHeight+HASH_WINDOW-1)/HASH_WINDOW;
+                        window*HASH_WINDOW+HASH_WINDOW-1<=headHeight; window++) {
+                long hash = 0xcbf29ce484222325L;
+                for (int height=window*HASH_WINDOW; height<window*HASH_WINDOW+HASH_WINDOW; height++)
+                    hash = (hash ^ getId(height)) * 0x100000001b3L;
+                hashMap.put(window, hash);
+            }
+        }
+
+        /**
+         * Return the chain head height
+         *
+         * @return                      Block height
+         */
+        int getHeadHeight() {
+            return headHeight;
+        }
+
+        /**
+         * Return the height of the oldest block
+         *
+         * @return                      Block height
+         */
+        int getLowHeight() {
+            return headHeight - ids.length + 1;
+        }
+
+        /**
+         * Return the chain head identifier
+         *
+         * @return                      Block identifier
+         */
+        long getHeadId() {
+            return ids[0];
+        }
+
+        /**
+         * Return the identifier for the block at a height
+         *
+         * @param       height          Block height between the oldest block and the chain head
+         * @return                      Block identifier
+         */
+        long getId(int height) {
+            return ids[headHeight-height];
+        }
+
+        /**
+         * Return the hash for a window
+         *
+         * @param       window          Window number (window height divided by the window size)
+         * @return                      Window hash or 0 if the window is not complete
+         */
+        long getHash(int window) {
+            Long hash = hashMap.get(window);
+            return (hash != null ? hash : 0);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2Monitor.RequestScheduler.Priority;
+
+import org.ScripterRon.Nxt2API.Response;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * HealthMonitor checks the health of the monitored servers and switches the
+ * displayed server to the healthiest server when the displayed server is no
+ * longer healthy.
+ *
+ * Each server is sent a request for its chain head at regular intervals.  The
+ * health score starts at 100 and is reduced by the average request time, the
+ * number of blocks the server is behind the highest server and the fraction of
+ * requests that failed since the last check.  A server that is not active or
+ * does not respond has a score of 0.
+ *
+ * The displayed server is replaced when its score has been below the failover
+ * threshold for two checks in a row and another server has a score at or above
+ * the threshold.  The display is switched the same way as selecting the server in
+ * the server table, so the column layout, sort order and chart range are kept.
+ * The server is not replaced again until the failover hold time has passed.
+ */
+class HealthMonitor {
+
+    /** Time between checks (seconds) */
+    private static final int CHECK_INTERVAL = 10;
+
+    /** Minimum time between failovers (milliseconds) */
+    private static final long FAILOVER_HOLD = 60*1000;
+
+    /** Request time with the maximum latency penalty (milliseconds) */
+    private static final double MAX_LATENCY = 2000;
+
+    /** Maximum latency penalty */
+    private static final int LATENCY_PENALTY = 40;
+
+    /** Penalty for each block behind the highest server */
+    private static final int LAG_PENALTY = 10;
+
+    /** Maximum lag penalty */
+    private static final int MAX_LAG_PENALTY = 30;
+
+    /** Penalty when all requests failed */
+    private static final int ERROR_PENALTY = 30;
+
+    /** Weight of the newest measurement in the average request time and error rate */
+    private static final double SMOOTHING = 0.3;
+
+    /** Node monitors */
+    private final List<NodeMonitor> monitors;
+
+    /** Failover threshold */
+    private final int threshold;
+
+    /** Check timer */
+    private final ScheduledExecutorService timer;
+
+    /** Server health by node monitor */
+    private final Map<NodeMonitor, Health> healthMap = new ConcurrentHashMap<>();
+
+    /** Number of checks the displayed server has been below the threshold (check thread) */
+    private int unhealthyCount;
+
+    /** Time of the last failover (check thread) */
+    private long failoverTime;
+
+    /** Number of failovers */
+    private volatile long failoverCount;
+
+    /**
+     * Create the health monitor
+     *
+     * @param       monitors        Node monitors
+     * @param       threshold       Failover threshold
+     */
+    HealthMonitor(List<NodeMonitor> monitors, int threshold) {
+        this.monitors = monitors;
+        this.threshold = threshold;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Nxt Health Check");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start checking the servers
+     */
+    void start() {
+        timer.scheduleWithFixedDelay(() -> checkHealth(), CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop checking the servers
+     */
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Return the health score for a server
+     *
+     * @param       monitor         Node monitor
+     * @return                      Health score (0 - 100) or -1 if the server has not been checked
+     */
+    int getScore(NodeMonitor monitor) {
+        Health health = healthMap.get(monitor);
+        return (health != null ? health.score : -1);
+    }
+
+    /**
+     * Return the number of failovers
+     *
+     * @return                      Failover count
+     */
+    long getFailoverCount() {
+        return failoverCount;
+    }
+
+    /**
+     * Check the servers (check thread)
+     */
+    private void checkHealth() {
+        try {
+            //
+            // Request the chain head from each active server
+            //
+            Map<NodeMonitor, Future<Integer>> probes = new HashMap<>();
+            for (NodeMonitor monitor : monitors) {
+                if (monitor.getStatus() != NodeMonitor.Status.ACTIVE)
+                    continue;
+                Health health = healthMap.computeIfAbsent(monitor, key -> new Health());
+                probes.put(monitor, monitor.getScheduler().submit(Priority.BACKGROUND, () -> {
+                    long startTime = System.nanoTime();
+                    List<Response> blocks = monitor.getNodeClient().getBlocks(0, 0, false);
+                    health.latency = (System.nanoTime()-startTime)/1.0e6;
+                    return (blocks.isEmpty() ? 0 : blocks.get(0).getInt("height"));
+                }));
+            }
+            Map<NodeMonitor, Integer> heights = new HashMap<>();
+            int bestHeight = 0;
+            for (Map.Entry<NodeMonitor, Future<Integer>> entry : probes.entrySet()) {
+                try {
+                    int height = entry.getValue().get();
+                    heights.put(entry.getKey(), height);
+                    bestHeight = Math.max(bestHeight, height);
+                } catch (ExecutionException exc) {
+                    Main.log.debug(String.format("Health check for %s failed: %s",
+                            entry.getKey().getConnection().getHost(), exc.getCause()));
+                }
+            }
+            //
+            // Score each server
+            //
+            for (NodeMonitor monitor : monitors) {
+                Health health = healthMap.computeIfAbsent(monitor, key -> new Health());
+                NodeClient nodeClient = monitor.getNodeClient();
+                long requestCount = nodeClient.getRequestCount();
+                long errorCount = nodeClient.getErrorCount();
+                long requests = (requestCount-health.requestCount) + (errorCount-health.errorCount);
+                double errorRate = (requests != 0 ? (double)(errorCount-health.errorCount)/requests : 0.0);
+                health.requestCount = requestCount;
+                health.errorCount = errorCount;
+                Integer height = heights.get(monitor);
+                if (height == null) {
+                    health.errorRate = 1.0;
+                    health.score = 0;
+                    continue;
+                }
+                health.averageLatency = (health.averageLatency < 0 ? health.latency :
+                        SMOOTHING*health.latency + (1-SMOOTHING)*health.averageLatency);
+                health.errorRate = SMOOTHING*errorRate + (1-SMOOTHING)*health.errorRate;
+                int latencyPenalty = (int)Math.round(Math.min(health.averageLatency/MAX_LATENCY, 1.0)*LATENCY_PENALTY);
+                int lagPenalty = Math.min((bestHeight-height)*LAG_PENALTY, MAX_LAG_PENALTY);
+                int errorPenalty = (int)Math.round(health.errorRate*ERROR_PENALTY);
+                health.score = Math.max(100 - latencyPenalty - lagPenalty - errorPenalty, 0);
+            }
+            checkFailover();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        } catch (Exception exc) {
+            Main.log.error("Exception while checking server health", exc);
+        }
+    }
+
+    /**
+     * Switch to the healthiest server if the displayed server is not healthy (check thread)
+     */
+    private void checkFailover() {
+        NodeMonitor primary = null;
+        for (NodeMonitor monitor : monitors) {
+            if (monitor.getConnection().equals(Main.serverConnection)) {
+                primary = monitor;
+                break;
+            }
+        }
+        if (primary == null)
+            return;
+        int primaryScore = getScore(primary);
+        if (primaryScore >= threshold) {
+            unhealthyCount = 0;
+            return;
+        }
+        if (++unhealthyCount < 2 || System.currentTimeMillis()-failoverTime < FAILOVER_HOLD)
+            return;
+        NodeMonitor best = null;
+        int bestScore = threshold-1;
+        for (NodeMonitor monitor : monitors) {
+            int score = getScore(monitor);
+            if (monitor != primary && score > bestScore) {
+                best = monitor;
+                bestScore = score;
+            }
+        }
+        if (best == null)
+            return;
+        Main.log.warn(String.format("Health score for %s is %d, switching to %s with health score %d",
+                primary.getConnection().getHost(), primaryScore, best.getConnection().getHost(), bestScore));
+        failoverTime = System.currentTimeMillis();
+        unhealthyCount = 0;
+        failoverCount++;
+        Connection primaryConnection = primary.getConnection();
+        NodeMonitor newPrimary = best;
+        if (Main.mainWindow != null) {
+            SwingUtilities.invokeLater(() -> {
+                if (primaryConnection.equals(Main.serverConnection))
+                    Main.mainWindow.selectMonitor(newPrimary);
+            });
+        } else {
+            Main.serverConnection = newPrimary.getConnection();
+        }
+    }
+
+    /**
+     * Health measurements for a server
+     */
+    private static class Health {
+
+        /** Health score */
+        private volatile int score = -1;
+
+        /** Last request time (milliseconds) */
+        private volatile double latency;
+
+        /** Average request time (milliseconds) or -1 if not known (check thread) */
+        private double averageLatency = -1;
+
+        /** Average fraction of failed requests (check thread) */
+        private double errorRate;
+
+        /** Completed request count at the last check (check thread) */
+        private long requestCount;
+
+        /** Failed request count at the last check (check thread) */
+        private long errorCount;
+    }
+}
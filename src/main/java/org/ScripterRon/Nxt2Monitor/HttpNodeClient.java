@@ -0,0 +1,523 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Event;
+import org.ScripterRon.Nxt2API.Response;
+
+import org.ScripterRon.JSON.JSONObject;
+import org.ScripterRon.JSON.JSONParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * HttpNodeClient is the default node client.  Requests are sent to the server API
+ * using HTTP or HTTPS.
+ *
+ * The server connections are kept alive between requests and are reused by later
+ * requests.  A connection is returned to the keep-alive cache once the response has
+ * been read, so each thread issuing a request gets an idle connection if there is
+ * one.  The same SSL socket factory is used for every HTTPS request, which allows
+ * the TLS sessions to be resumed when a new connection is needed.
+ */
+class HttpNodeClient implements NodeClient {
+
+    /** Maximum number of idle connections kept for each server */
+    static final int MAX_CONNECTIONS = 16;
+
+    /** Connect timeout (milliseconds) */
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    /** Read timeout (milliseconds) */
+    private static final int READ_TIMEOUT = 30000;
+
+    /** SSL socket factory shared by all HTTPS requests */
+    private static SSLSocketFactory sslSocketFactory;
+
+    /** Server connection */
+    private final Connection connection;
+
+    /** Request URL */
+    private final URL requestUrl;
+
+    /** Number of completed requests (excluding event waits) */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /** Total request time (nanoseconds, excluding event waits) */
+    private final AtomicLong requestTime = new AtomicLong();
+
+    /** Number of failed requests */
+    private final AtomicLong errorCount = new AtomicLong();
+
+    /** Number of request bytes sent */
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /** Number of response bytes received */
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /** Statistics for each request type */
+    private final Map<String, RequestStats> statsMap = new ConcurrentHashMap<>();
+
+    /**
+     * Create the client for a server connection
+     *
+     * @param       connection      Server connection
+     * @param       useSSL          TRUE to use HTTPS (HTTP is always used for 'localhost')
+     * @throws      IOException     Invalid server address
+     */
+    HttpNodeClient(Connection connection, boolean useSSL) throws IOException {
+        this.connection = connection;
+        String protocol = (useSSL && !connection.getHost().equals("localhost") ? "https" : "http");
+        this.requestUrl = new URL(String.format("%s://%s:%d/nxt", protocol,
+                                                connection.getHost(), connection.getPort()));
+        if (protocol.equals("https"))
+            initSSL();
+    }
+
+    /**
+     * Create the shared SSL socket factory
+     *
+     * @throws      IOException     SSL is not available
+     */
+    private static synchronized void initSSL() throws IOException {
+        if (sslSocketFactory == null) {
+            try {
+                sslSocketFactory = SSLContext.getDefault().getSocketFactory();
+            } catch (NoSuchAlgorithmException exc) {
+                throw new IOException("Unable to create the SSL context", exc);
+            }
+        }
+    }
+
+    /**
+     * Return the server connection
+     *
+     * @return                      Server connection
+     */
+    @Override
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Return the number of completed requests.  Event waits are not included.
+     *
+     * @return                      Request count
+     */
+    @Override
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Return the total time for the completed requests.  Event waits are not included.
+     *
+     * @return                      Request time (nanoseconds)
+     */
+    @Override
+    public long getRequestTime() {
+        return requestTime.get();
+    }
+
+    /**
+     * Return the number of failed requests
+     *
+     * @return                      Error count
+     */
+    @Override
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Return the number of request bytes sent to the server
+     *
+     * @return                      Byte count
+     */
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Return the number of response bytes received from the server
+     *
+     * @return                      Byte count
+     */
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Return the statistics for each request type that has been issued
+     *
+     * @return                      Request statistics
+     */
+    @Override
+    public Collection<RequestStats> getRequestStats() {
+        return Collections.unmodifiableCollection(statsMap.values());
+    }
+
+    /**
+     * Get blocks ordered from the newest block to the oldest block
+     *
+     * @param       firstIndex              Index of the first block (0 is the chain head)
+     * @param       lastIndex               Index of the last block
+     * @param       includeTransactions     TRUE to include the block transactions
+     * @return                              Block list
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public List<Response> getBlocks(int firstIndex, int lastIndex, boolean includeTransactions) throws IOException {
+        Response response = issueRequest("getBlocks",
+                String.format("firstIndex=%d&lastIndex=%d&includeTransactions=%s",
+                              firstIndex, lastIndex, includeTransactions), READ_TIMEOUT);
+        return response.getObjectList("blocks");
+    }
+
+    /**
+     * Get a block
+     *
+     * @param       blockId                 Block identifier
+     * @param       includeTransactions     TRUE to include the block transactions
+     * @return                              Block
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public Response getBlock(String blockId, boolean includeTransactions) throws IOException {
+        return issueRequest("getBlock",
+                String.format("block=%s&includeTransactions=%s", encode(blockId), includeTransactions),
+                READ_TIMEOUT);
+    }
+
+    /**
+     * Get a transaction
+     *
+     * @param       fullHash                Transaction full hash (hex string)
+     * @param       chain                   Chain name
+     * @return                              Transaction
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public Response getTransaction(String fullHash, String chain) throws IOException {
+        return issueRequest("getTransaction",
+                String.format("fullHash=%s&chain=%s", encode(fullHash), encode(chain)), READ_TIMEOUT);
+    }
+
+    /**
+     * Get the peers in the specified state
+     *
+     * @param       state                   Peer state (NON_CONNECTED, CONNECTED or DISCONNECTED)
+     * @return                              Peer list
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public List<Response> getPeers(String state) throws IOException {
+        Response response = issueRequest("getPeers",
+                String.format("state=%s&includePeerInfo=true", encode(state)), READ_TIMEOUT);
+        return response.getObjectList("peers");
+    }
+
+    /**
+     * Get a peer
+     *
+     * @param       address                 Peer network address
+     * @return                              Peer
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public Response getPeer(String address) throws IOException {
+        return issueRequest("getPeer", String.format("peer=%s", encode(address)), READ_TIMEOUT);
+    }
+
+    /**
+     * Connect a peer
+     *
+     * @param       address                 Peer announced address
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public void addPeer(String address) throws IOException {
+        issueRequest("addPeer",
+                String.format("peer=%s&adminPassword=%s", encode(address), encode(connection.getAdminPW())),
+                READ_TIMEOUT);
+    }
+
+    /**
+     * Blacklist a peer
+     *
+     * @param       address                 Peer address
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public void blacklistPeer(String address) throws IOException {
+        issueRequest("blacklistPeer",
+                String.format("peer=%s&adminPassword=%s", encode(address), encode(connection.getAdminPW())),
+                READ_TIMEOUT);
+    }
+
+    /**
+     * Get the accounts that are forging on the server
+     *
+     * @return                              Generator list
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public List<Response> getForging() throws IOException {
+        Response response = issueRequest("getForging",
+                String.format("adminPassword=%s", encode(connection.getAdminPW())), READ_TIMEOUT);
+        return response.getObjectList("generators");
+    }
+
+    /**
+     * Get the bundlers that are running on the server
+     *
+     * @return                              Bundler list
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public List<Response> getBundlers() throws IOException {
+        Response response = issueRequest("getBundlers",
+                String.format("adminPassword=%s", encode(connection.getAdminPW())), READ_TIMEOUT);
+        return response.getObjectList("bundlers");
+    }
+
+    /**
+     * Get the most recent server log messages
+     *
+     * @param       count                   Number of messages to return
+     * @return                              Log messages ordered from the oldest message to the newest message
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public List<String> getLog(int count) throws IOException {
+        Response response = issueRequest("getLog",
+                String.format("count=%d&adminPassword=%s", count, encode(connection.getAdminPW())),
+                READ_TIMEOUT);
+        return response.getStringList("messages");
+    }
+
+    /**
+     * Set the server log level
+     *
+     * @param       level                   Log level (DEBUG, INFO, WARN or ERROR)
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public void setLogging(String level) throws IOException {
+        issueRequest("setLogging",
+                String.format("logLevel=%s&adminPassword=%s", encode(level), encode(connection.getAdminPW())),
+                READ_TIMEOUT);
+    }
+
+    /**
+     * Register server events
+     *
+     * @param       events                  Event names
+     * @param       token                   Event token or 0 for a new registration
+     * @param       add                     TRUE to add events to an existing registration
+     * @param       remove                  TRUE to remove events from an existing registration
+     * @return                              Registration response
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public Response eventRegister(List<String> events, long token, boolean add, boolean remove) throws IOException {
+        StringBuilder sb = new StringBuilder(256);
+        for (String event : events) {
+            sb.append("event=").append(encode(event)).append('&');
+        }
+        if (token != 0)
+            sb.append("token=").append(Long.toUnsignedString(token)).append('&');
+        sb.append("add=").append(add).append("&remove=").append(remove);
+        return issueRequest("eventRegister", sb.toString(), READ_TIMEOUT);
+    }
+
+    /**
+     * Wait for server events
+     *
+     * @param       token                   Event token
+     * @param       timeout                 Wait timeout (seconds)
+     * @return                              Event list
+     * @throws      IOException             Unable to issue the request
+     */
+    @Override
+    public List<Event> eventWait(long token, int timeout) throws IOException {
+        Response response = issueRequest("eventWait",
+                String.format("token=%s&timeout=%d", Long.toUnsignedString(token), timeout),
+                timeout*1000 + READ_TIMEOUT);
+        List<Event> events = new ArrayList<>();
+        response.getObjectList("events").forEach(event -> {
+            String name = event.getString("name");
+            event.getStringList("ids").forEach(id -> events.add(new Event(name, id)));
+        });
+        return events;
+    }
+
+    /**
+     * Issue an API request and record the request metrics
+     *
+     * @param       requestType             Request type
+     * @param       params                  Encoded request parameters
+     * @param       readTimeout             Read timeout (milliseconds)
+     * @return                              Request response
+     * @throws      IOException             Unable to issue the request
+     * @throws      RequestException        The server rejected the request
+     */
+    private Response issueRequest(String requestType, String params, int readTimeout) throws IOException {
+        RequestStats stats = statsMap.computeIfAbsent(requestType, RequestStats::new);
+        byte[] requestBytes = String.format("requestType=%s&%s", requestType, params)
+                                    .getBytes(StandardCharsets.UTF_8);
+        long[] received = new long[1];
+        long startTime = System.nanoTime();
+        Response response;
+        try {
+            response = sendRequest(requestType, requestBytes, readTimeout, received);
+        } catch (IOException exc) {
+            errorCount.incrementAndGet();
+            stats.recordError();
+            throw exc;
+        } finally {
+            bytesSent.addAndGet(requestBytes.length);
+            bytesReceived.addAndGet(received[0]);
+        }
+        long elapsed = System.nanoTime() - startTime;
+        stats.recordRequest(elapsed, requestBytes.length, received[0]);
+        if (!requestType.equals("eventWait")) {
+            requestTime.addAndGet(elapsed);
+            requestCount.incrementAndGet();
+        }
+        return response;
+    }
+
+    /**
+     * Send an API request to the server
+     *
+     * The response is always read to the end and the input stream is then closed.
+     * This allows the connection to be reused for a later request.
+     *
+     * @param       requestType             Request type
+     * @param       requestBytes            Encoded request
+     * @param       readTimeout             Read timeout (milliseconds)
+     * @param       received                Returns the number of response bytes received
+     * @return                              Request response
+     * @throws      IOException             Unable to issue the request
+     * @throws      RequestException        The server rejected the request
+     */
+    @SuppressWarnings("unchecked")
+    private Response sendRequest(String requestType, byte[] requestBytes, int readTimeout, long[] received)
+                                        throws IOException {
+        HttpURLConnection conn = (HttpURLConnection)requestUrl.openConnection();
+        if (conn instanceof HttpsURLConnection)
+            ((HttpsURLConnection)conn).setSSLSocketFactory(sslSocketFactory);
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setUseCaches(false);
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(readTimeout);
+        conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+        conn.setRequestProperty("Content-Length", Integer.toString(requestBytes.length));
+        conn.setRequestProperty("Accept", "application/json");
+        conn.setRequestProperty("Accept-Encoding", "gzip");
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(requestBytes);
+        }
+        int code = conn.getResponseCode();
+        if (code != HttpURLConnection.HTTP_OK) {
+            try (InputStream in = conn.getErrorStream()) {
+                if (in != null)
+                    received[0] = readStream(in).size();
+            } catch (IOException exc) {
+                // The connection will not be reused
+            }
+            throw new IOException(String.format("%s request to %s failed: %d %s", requestType,
+                                  connection.getHost(), code, conn.getResponseMessage()));
+        }
+        ByteArrayOutputStream responseBytes;
+        try (InputStream in = conn.getInputStream()) {
+            responseBytes = readStream(in);
+        }
+        received[0] = responseBytes.size();
+        if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(responseBytes.toByteArray()))) {
+                responseBytes = readStream(in);
+            }
+        }
+        Object respObject;
+        try {
+            respObject = JSONParser.parse(new String(responseBytes.toByteArray(), StandardCharsets.UTF_8));
+        } catch (Exception exc) {
+            throw new IOException(String.format("Unable to parse %s response from %s",
+                                                requestType, connection.getHost()), exc);
+        }
+        if (!(respObject instanceof JSONObject))
+            throw new IOException(String.format("%s response from %s is not a JSON object",
+                                                requestType, connection.getHost()));
+        Response response = new Response((Map<String, Object>)respObject);
+        if (response.getObjectMap().get("errorCode") != null)
+            throw new RequestException(String.format("%s request to %s failed: %s", requestType,
+                                       connection.getHost(), response.getString("errorDescription")),
+                                       response.getInt("errorCode"));
+        return response;
+    }
+
+    /**
+     * Read an input stream to the end
+     *
+     * @param       in                      Input stream
+     * @return                              Stream data
+     * @throws      IOException             Unable to read the stream
+     */
+    private static ByteArrayOutputStream readStream(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count=in.read(buffer)) > 0)
+            out.write(buffer, 0, count);
+        return out;
+    }
+
+    /**
+     * URL-encode a request parameter
+     *
+     * @param       value                   Parameter value
+     * @return                              Encoded value
+     * @throws      IOException             Encoding is not supported
+     */
+    private static String encode(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+}
@@ -15,80 +15,100 @@
  */
 package org.ScripterRon.Nxt2Monitor;
 
-import org.ScripterRon.Nxt2API.Nxt;
-
-import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import java.awt.Dialog;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
+import javax.swing.JCheckBox;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.WindowConstants;
+import javax.swing.text.BadLocationException;
 
 /**
  * Dialog to display the server log
+ *
+ * The log messages are fetched in the background.  When live tail is selected, the
+ * server log is fetched periodically and the new messages are added to the end of the
+ * log.  The new messages are located by matching the start of the latest message window
+ * with the end of the previous message window.  The oldest messages are discarded once
+ * the log contains the maximum number of lines.
  */
 public class LogDialog extends JDialog implements ActionListener {
 
+    /** Number of messages requested from the server */
+    private static final int FETCH_COUNT = 1000;
+
+    /** Maximum number of lines displayed */
+    private static final int MAX_LINES = 10000;
+
+    /** Live tail refresh interval (milliseconds) */
+    private static final int TAIL_INTERVAL = 5000;
+
+    /** Node monitor */
+    private final NodeMonitor nodeMonitor;
+
+    /** Log field */
+    private final JTextArea logField;
+
+    /** Live tail field */
+    private final JCheckBox tailField;
+
+    /** Live tail timer */
+    private final Timer tailTimer;
+
+    /** Current log loader */
+    private LogLoader loader;
+
+    /** Messages returned by the previous request (accessed by the log loader) */
+    private List<String> previousMessages = Collections.emptyList();
+
+    /** A request failure has been reported */
+    private boolean failureReported = false;
+
     /**
      * Create the dialog
      *
      * @param   parent              Parent frame
+     * @param   nodeMonitor         Node monitor for the server
      */
-    public LogDialog(JFrame parent) {
+    public LogDialog(JFrame parent, NodeMonitor nodeMonitor) {
         super(parent, "View Log", Dialog.ModalityType.DOCUMENT_MODAL);
         setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        this.nodeMonitor = nodeMonitor;
         //
         // Create the message field
         //
-        JTextArea logField = new JTextArea(50, 120);
+        logField = new JTextArea(50, 120);
         logField.setLineWrap(false);
+        logField.setEditable(false);
         JScrollPane scrollPane = new JScrollPane(logField);
         //
-        // Load the log messages
+        // Create the live tail field
         //
-        try {
-            List<String> messages = Nxt.getLog(1000, Main.adminPW);
-            messages.forEach((logmsg) -> {
-                String msg = logmsg.trim();
-                StringBuilder sb = new StringBuilder(msg.length());
-                for (int i=0; i<msg.length(); i++) {
-                    int ch = msg.codePointAt(i);
-                    if (Character.isValidCodePoint(ch)) {
-                        if (Character.isWhitespace(ch)) {
-                            sb.appendCodePoint(ch);
-                        } else {
-                            Character.UnicodeBlock block = Character.UnicodeBlock.of(ch);
-                            if (!Character.isISOControl(ch) && block!=null && block!=Character.UnicodeBlock.SPECIALS)
-                                sb.appendCodePoint(ch);
-                            else
-                                sb.append('!');
-                        }
-                        if (Character.isSupplementaryCodePoint(ch))
-                            i++;
-                    } else {
-                        sb.append('!');
-                    }
-                }
-                sb.append('\n');
-                logField.append(sb.toString());
-            });
-        } catch (IOException exc) {
-            Main.log.error("Unable to get server log messages", exc);
-            Main.logException("Unable to get server log messages", exc);
-        }
+        tailField = new JCheckBox("Live tail", true);
+        tailField.setActionCommand("tail");
+        tailField.addActionListener(this);
+        JPanel tailPane = new JPanel();
+        tailPane.add(tailField);
         //
-        // Create the buttons (Done)
+        // Create the buttons (Refresh, Done)
         //
-        JPanel buttonPane = new ButtonPane(this, 10, new String[] {"Done", "done"});
+        JPanel buttonPane = new ButtonPane(this, 10, new String[] {"Refresh", "refresh"},
+                                                     new String[] {"Done", "done"});
         //
         // Set up the content pane
         //
@@ -97,19 +117,37 @@ public class LogDialog extends JDialog implements ActionListener {
         contentPane.setOpaque(true);
         contentPane.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
         contentPane.add(scrollPane);
-        contentPane.add(Box.createVerticalStrut(15));
+        contentPane.add(Box.createVerticalStrut(5));
+        contentPane.add(tailPane);
+        contentPane.add(Box.createVerticalStrut(10));
         contentPane.add(buttonPane);
         setContentPane(contentPane);
+        //
+        // Load the log messages and start the live tail timer
+        //
+        tailTimer = new Timer(TAIL_INTERVAL, this);
+        tailTimer.setActionCommand("poll");
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent we) {
+                tailTimer.stop();
+                if (loader != null)
+                    loader.cancel(true);
+            }
+        });
+        loadMessages(RequestScheduler.Priority.INTERACTIVE);
+        tailTimer.start();
     }
 
     /**
      * Show the log message dialog
      *
      * @param       parent              Parent frame
+     * @param       nodeMonitor         Node monitor for the server
      */
-    public static void showDialog(JFrame parent) {
+    public static void showDialog(JFrame parent, NodeMonitor nodeMonitor) {
         try {
-            LogDialog dialog = new LogDialog(parent);
+            LogDialog dialog = new LogDialog(parent, nodeMonitor);
             dialog.pack();
             dialog.setLocationRelativeTo(parent);
             dialog.setVisible(true);
@@ -128,6 +166,9 @@ public class LogDialog extends JDialog implements ActionListener {
     public void actionPerformed(ActionEvent ae) {
         //
         // "done"       - All done
+        // "poll"       - Live tail timer has expired
+        // "refresh"    - Get new log messages
+        // "tail"       - Live tail has been selected or deselected
         //
         try {
             String action = ae.getActionCommand();
@@ -136,10 +177,192 @@ public class LogDialog extends JDialog implements ActionListener {
                     setVisible(false);
                     dispose();
                     break;
+                case "poll":
+                    if (tailField.isSelected())
+                        loadMessages(RequestScheduler.Priority.BACKGROUND);
+                    break;
+                case "refresh":
+                    loadMessages(RequestScheduler.Priority.INTERACTIVE);
+                    break;
+                case "tail":
+                    if (tailField.isSelected()) {
+                        logField.setCaretPosition(logField.getDocument().getLength());
+                        loadMessages(RequestScheduler.Priority.INTERACTIVE);
+                    }
+                    break;
             }
         } catch (Exception exc) {
             Main.log.error("Exception while processing action event", exc);
             Main.logException("Exception while processing action event", exc);
         }
     }
+
+    /**
+     * Start loading new log messages unless a request is already in progress
+     *
+     * The live tail requests are background requests so they do not delay the
+     * requests for the server events or the user actions.
+     *
+     * @param       priority            Request priority
+     */
+    private void loadMessages(RequestScheduler.Priority priority) {
+        if (loader == null || loader.isDone()) {
+            loader = new LogLoader(priority);
+            loader.execute();
+        }
+    }
+
+    /**
+     * Add new log messages
+     *
+     * The new messages are added with a single document update.  The oldest lines
+     * are then removed if the log contains too many lines.
+     *
+     * @param       text                New log messages
+     */
+    private void appendMessages(String text) {
+        logField.append(text);
+        int excess = logField.getLineCount() - 1 - MAX_LINES;
+        if (excess > 0) {
+            try {
+                logField.replaceRange(null, 0, logField.getLineStartOffset(excess));
+            } catch (BadLocationException exc) {
+                Main.log.error("Unable to remove old log messages", exc);
+            }
+        }
+        if (tailField.isSelected())
+            logField.setCaretPosition(logField.getDocument().getLength());
+    }
+
+    /**
+     * Return the index of the first new message
+     *
+     * The server returns the most recent messages, so the current window overlaps the
+     * end of the previous window unless more than a full window of messages has been
+     * logged since the previous request.  We look for the latest position in the current
+     * window that matches the last previous message and then verify that the messages
+     * before it match the previous window.
+     *
+     * @param       previous            Previous message window
+     * @param       current             Current message window
+     * @return                          Index of the first new message in the current window
+     */
+    private static int findNewMessages(List<String> previous, List<String> current) {
+        if (previous.isEmpty())
+            return 0;
+        int last = previous.size() - 1;
+        String lastMessage = previous.get(last);
+        for (int i=current.size()-1; i>=0; i--) {
+            if (!current.get(i).equals(lastMessage))
+                continue;
+            int overlap = Math.min(i+1, previous.size());
+            boolean match = true;
+            for (int j=1; j<overlap && match; j++)
+                match = current.get(i-j).equals(previous.get(last-j));
+            if (match)
+                return i + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Append a log message after replacing characters that can't be displayed
+     *
+     * Most log messages contain just printable ASCII characters and are appended
+     * without checking each code point.
+     *
+     * @param       sb                  String builder
+     * @param       logmsg              Log message
+     */
+    private static void appendMessage(StringBuilder sb, String logmsg) {
+        String msg = logmsg.trim();
+        int length = msg.length();
+        int i;
+        for (i=0; i<length; i++) {
+            char c = msg.charAt(i);
+            if ((c < 0x20 && c != '\t') || c > 0x7e)
+                break;
+        }
+        sb.append(msg, 0, i);
+        for (; i<length; i++) {
+            int ch = msg.codePointAt(i);
+            if (Character.isValidCodePoint(ch)) {
+                if (Character.isWhitespace(ch)) {
+                    sb.appendCodePoint(ch);
+                } else {
+                    Character.UnicodeBlock block = Character.UnicodeBlock.of(ch);
+                    if (!Character.isISOControl(ch) && block!=null && block!=Character.UnicodeBlock.SPECIALS)
+                        sb.appendCodePoint(ch);
+                    else
+                        sb.append('!');
+                }
+                if (Character.isSupplementaryCodePoint(ch))
+                    i++;
+            } else {
+                sb.append('!');
+            }
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * Get the server log messages in the background
+     *
+     * The result is the text for the messages that have not been displayed yet.
+     */
+    private class LogLoader extends SwingWorker<String, Void> {
+
+        /** Request priority */
+        private final RequestScheduler.Priority priority;
+
+        /**
+         * Create the log loader
+         *
+         * @param   priority        Request priority
+         */
+        public LogLoader(RequestScheduler.Priority priority) {
+            this.priority = priority;
+        }
+
+        /**
+         * Get the new log messages (background thread)
+         *
+         * @return                  New log messages
+         * @throws  Exception       Unable to get the log messages
+         */
+        @Override
+        protected String doInBackground() throws Exception {
+            List<String> messages = nodeMonitor.issueRequest(priority, client -> client.getLog(FETCH_COUNT));
+            int start = findNewMessages(previousMessages, messages);
+            previousMessages = messages;
+            StringBuilder sb = new StringBuilder((messages.size()-start)*120);
+            for (int i=start; i<messages.size(); i++)
+                appendMessage(sb, messages.get(i));
+            return sb.toString();
+        }
+
+        /**
+         * Add the new log messages (AWT event thread)
+         */
+        @Override
+        protected void done() {
+            if (isCancelled())
+                return;
+            try {
+                String text = get();
+                if (!text.isEmpty())
+                    appendMessages(text);
+                failureReported = false;
+            } catch (ExecutionException exc) {
+                Throwable cause = exc.getCause();
+                Main.log.error("Unable to get server log messages", cause);
+                if (!failureReported) {
+                    failureReported = true;
+                    Main.logException("Unable to get server log messages", cause);
+                }
+            } catch (InterruptedException exc) {
+                // Dialog is closing
+            }
+        }
+    }
 }
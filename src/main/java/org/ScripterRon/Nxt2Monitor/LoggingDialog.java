@@ -15,10 +15,6 @@
  */
 package org.ScripterRon.Nxt2Monitor;
 
-import org.ScripterRon.Nxt2API.Nxt;
-
-import java.io.IOException;
-
 import java.awt.Dialog;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -37,6 +33,9 @@ import javax.swing.WindowConstants;
  */
 public class LoggingDialog extends JDialog implements ActionListener {
 
+    /** Node monitor */
+    private final NodeMonitor nodeMonitor;
+
     /** Log level field */
     private final JComboBox<String> levelField;
 
@@ -44,10 +43,12 @@ public class LoggingDialog extends JDialog implements ActionListener {
      * Create the dialog
      *
      * @param       parent          Parent frame
+     * @param       nodeMonitor     Node monitor for the server
      */
-    public LoggingDialog(JFrame parent) {
+    public LoggingDialog(JFrame parent, NodeMonitor nodeMonitor) {
         super(parent, "Set Server Logging", Dialog.ModalityType.DOCUMENT_MODAL);
         setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        this.nodeMonitor = nodeMonitor;
         //
         // Create the log level field
         //
@@ -80,10 +81,11 @@ public class LoggingDialog extends JDialog implements ActionListener {
      * Show the server logging dialog
      *
      * @param       parent              Parent frame
+     * @param       nodeMonitor         Node monitor for the server
      */
-    public static void showDialog(JFrame parent) {
+    public static void showDialog(JFrame parent, NodeMonitor nodeMonitor) {
         try {
-            LoggingDialog dialog = new LoggingDialog(parent);
+            LoggingDialog dialog = new LoggingDialog(parent, nodeMonitor);
             dialog.pack();
             dialog.setLocationRelativeTo(parent);
             dialog.setVisible(true);
@@ -127,11 +129,9 @@ public class LoggingDialog extends JDialog implements ActionListener {
      */
     private void setLogging() {
         String level = (String)levelField.getSelectedItem();
-        try {
-            Nxt.setLogging(level, Main.adminPW);
-        } catch (IOException exc) {
-            Main.log.error("Unable to set server logging", exc);
-            Main.logException("Unable to set server logging", exc);
-        }
+        RequestWorker.execute(nodeMonitor, client -> {
+            client.setLogging(level);
+            return null;
+        }, "Unable to set server logging", null);
     }
 }
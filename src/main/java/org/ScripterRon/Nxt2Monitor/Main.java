@@ -33,6 +33,10 @@ import java.nio.channels.FileLock;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.LogManager;
 
 import javax.swing.JFrame;
@@ -85,7 +89,10 @@ public class Main {
     public static List<Connection> connections = new ArrayList<>();
 
     /** Current server connection */
-    public static Connection serverConnection;
+    public static volatile Connection serverConnection;
+
+    /** Server node monitors */
+    public static List<NodeMonitor> nodeMonitors = new CopyOnWriteArrayList<>();
 
     /** Default API port */
     public static int apiPort = 7876;
@@ -96,6 +103,69 @@ public class Main {
     /** Use HTTPS connections */
     public static boolean useSSL = true;
 
+    /** Number of blocks retained in the block table */
+    public static int blockHistory = 5000;
+
+    /** Inactive peer retention time (seconds) */
+    public static int peerRetention = 300;
+
+    /** Peer request cache time-to-live (milliseconds) */
+    public static int peerCacheTTL = 2000;
+
+    /** Maximum interactive requests per second for each server */
+    public static int interactiveRequestRate = 50;
+
+    /** Maximum background requests per second for each server */
+    public static int backgroundRequestRate = 10;
+
+    /** Switch to the healthiest server when the displayed server is not healthy */
+    public static boolean failover = false;
+
+    /** Health score below which the displayed server is replaced */
+    public static int failoverThreshold = 50;
+
+    /** Send slow read-only requests to a second server */
+    public static boolean hedgeRequests = false;
+
+    /** Request time percentile used for the hedge delay */
+    public static int hedgePercentile = 95;
+
+    /** Chain reorganization depth which raises an alert */
+    public static int reorgAlertDepth = 3;
+
+    /** Snapshot save interval (seconds) */
+    public static int snapshotInterval = 300;
+
+    /** Number of transactions kept in the transaction cache */
+    public static int txCacheSize = 10000;
+
+    /** Write cached transactions to the transaction spill file */
+    public static boolean txCacheSpill = false;
+
+    /** Transaction cache */
+    public static TransactionCache transactionCache;
+
+    /** Running without a display */
+    public static boolean headless = false;
+
+    /** Metrics server address */
+    public static String metricsAddress = "127.0.0.1";
+
+    /** Metrics server port */
+    public static int metricsPort = 9877;
+
+    /** Metrics server */
+    private static MetricsServer metricsServer;
+
+    /** Snapshot timer */
+    private static ScheduledExecutorService snapshotTimer;
+
+    /** Fork detector or null if there is only one server */
+    static ForkDetector forkDetector;
+
+    /** Health monitor or null if failover is not enabled */
+    static HealthMonitor healthMonitor;
+
     /** Application lock file */
     private static RandomAccessFile lockFile;
 
@@ -122,6 +192,9 @@ public class Main {
             //
             // Process command-line options
             //
+            headless = Boolean.getBoolean("nxt2monitor.headless");
+            if (headless)
+                System.setProperty("java.awt.headless", "true");
             dataPath = System.getProperty("nxt.datadir");
             if (dataPath == null) {
                 if (osName.startsWith("win"))
@@ -145,7 +218,10 @@ public class Main {
             lockFile = new RandomAccessFile(dataPath+fileSeparator+".lock", "rw");
             fileLock = lockFile.getChannel().tryLock();
             if (fileLock == null) {
-                JOptionPane.showMessageDialog(null, "Nxt2Monitor is already running", "Error", JOptionPane.ERROR_MESSAGE);
+                if (headless)
+                    System.err.println("Nxt2Monitor is already running");
+                else
+                    JOptionPane.showMessageDialog(null, "Nxt2Monitor is already running", "Error", JOptionPane.ERROR_MESSAGE);
                 System.exit(0);
             }
             //
@@ -204,14 +280,92 @@ public class Main {
             }
             serverConnection = connections.get(0);
             //
-            // Initialize the Nxt API library
+            // Keep enough idle connections for the parallel requests to each server.
+            // This must be set before the first HTTP request.
+            //
+            if (System.getProperty("http.maxConnections") == null)
+                System.setProperty("http.maxConnections", Integer.toString(HttpNodeClient.MAX_CONNECTIONS));
+            //
+            // Initialize the Nxt API library.  This loads the chain definitions, which
+            // are the same for all of the servers.  When failover is enabled, each
+            // server is tried in turn and the first server that responds is displayed.
+            //
+            for (int i=0; ; i++) {
+                Connection connection = connections.get(i);
+                try {
+                    Nxt.init(connection.getHost(), connection.getPort(), useSSL);
+                    serverConnection = connection;
+                    break;
+                } catch (IOException exc) {
+                    if (!failover || i == connections.size()-1)
+                        throw exc;
+                    log.warn(String.format("Unable to initialize using %s, trying the next server: %s",
+                                           connection.getHost(), exc));
+                }
+            }
+            //
+            // Create the transaction cache
+            //
+            transactionCache = new TransactionCache(txCacheSize,
+                    txCacheSpill ? dataPath+fileSeparator+"TransactionCache.dat" : null);
+            //
+            // Start monitoring all of the servers
+            //
+            for (Connection connection : connections) {
+                NodeMonitor monitor = new NodeMonitor(connection);
+                nodeMonitors.add(monitor);
+                monitor.start();
+            }
+            //
+            // Compare the server chains when there is more than one server
+            //
+            if (nodeMonitors.size() > 1) {
+                forkDetector = new ForkDetector(nodeMonitors);
+                forkDetector.start();
+            }
+            //
+            // Check the server health when failover is enabled
             //
-            Nxt.init(serverConnection.getHost(), serverConnection.getPort(), useSSL);
+            if (failover) {
+                healthMonitor = new HealthMonitor(nodeMonitors, failoverThreshold);
+                healthMonitor.start();
+            }
+            //
+            // Save the server snapshots at regular intervals
+            //
+            if (snapshotInterval > 0) {
+                snapshotTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "Nxt Snapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                snapshotTimer.scheduleWithFixedDelay(() -> nodeMonitors.forEach(monitor -> monitor.saveSnapshot()),
+                        snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+            }
             //
-            // Start the GUI
+            // Start the metrics server when running without a display.  Otherwise,
+            // start the GUI.
             //
-            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-            javax.swing.SwingUtilities.invokeLater(() -> createAndShowGUI());
+            if (headless) {
+                metricsServer = new MetricsServer(metricsAddress, metricsPort);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    metricsServer.stop();
+                    if (snapshotTimer != null)
+                        snapshotTimer.shutdownNow();
+                    if (forkDetector != null)
+                        forkDetector.shutdown();
+                    if (healthMonitor != null)
+                        healthMonitor.shutdown();
+                    nodeMonitors.forEach(monitor -> {
+                        monitor.shutdown();
+                        monitor.saveSnapshot();
+                    });
+                }, "Nxt2Monitor Shutdown"));
+                metricsServer.start();
+            } else {
+                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+                javax.swing.SwingUtilities.invokeLater(() -> createAndShowGUI());
+            }
         } catch (Exception exc) {
             logException("Exception during program initialization", exc);
         }
@@ -240,11 +394,73 @@ public class Main {
         mainWindow.setVisible(true);
     }
 
+    /**
+     * Return the node monitor for a server connection, starting a new monitor
+     * if the server is not already being monitored (AWT event thread)
+     *
+     * The administrator password for a server that is already being monitored is
+     * replaced by the password in the supplied connection.
+     *
+     * @param       connection      Server connection
+     * @return                      Node monitor
+     * @throws      IOException     Invalid server address
+     */
+    public static NodeMonitor getNodeMonitor(Connection connection) throws IOException {
+        for (NodeMonitor monitor : nodeMonitors) {
+            if (monitor.getConnection().equals(connection)) {
+                monitor.getConnection().setAdminPW(connection.getAdminPW());
+                return monitor;
+            }
+        }
+        NodeMonitor monitor = new NodeMonitor(connection);
+        nodeMonitors.add(monitor);
+        monitor.start();
+        return monitor;
+    }
+
+    /**
+     * Return a server data file in the application data directory
+     *
+     * @param       prefix          File name prefix
+     * @param       connection      Server connection
+     * @return                      Data file
+     */
+    static File getDataFile(String prefix, Connection connection) {
+        String host = connection.getHost().replaceAll("[^A-Za-z0-9.-]", "_");
+        return new File(String.format("%s%s%s-%s-%d.dat",
+                dataPath, fileSeparator, prefix, host, connection.getPort()));
+    }
+
     /**
      * Shutdown and exit
      */
     public static void shutdown() {
         //
+        // Stop monitoring the servers and save the server snapshots
+        //
+        if (snapshotTimer != null)
+            snapshotTimer.shutdownNow();
+        if (forkDetector != null)
+            forkDetector.shutdown();
+        if (healthMonitor != null)
+            healthMonitor.shutdown();
+        nodeMonitors.forEach(monitor -> {
+            monitor.shutdown();
+            monitor.saveSnapshot();
+            PeerCache peerCache = monitor.getPeerCache();
+            log.info(String.format("Peer cache for %s: %d hits, %d misses, %d merged",
+                    monitor.getConnection().getHost(), peerCache.getHitCount(),
+                    peerCache.getMissCount(), peerCache.getMergeCount()));
+        });
+        if (RequestHedger.getRequestCount() != 0)
+            log.info(String.format("Hedged requests: %d of %d requests hedged, %d answered by the second server, %,d ms saved",
+                    RequestHedger.getHedgeCount(), RequestHedger.getRequestCount(),
+                    RequestHedger.getHedgeWins(), RequestHedger.getSavedTime()/1000000));
+        if (transactionCache != null)
+            log.info(String.format("Transaction cache: %d hits (%d from spill file), %d misses",
+                    transactionCache.getHitCount(), transactionCache.getSpillHitCount(),
+                    transactionCache.getMissCount()));
+        //
         // Save the application properties
         //
         saveProperties();
@@ -315,6 +531,73 @@ public class Main {
                     case "usessl":
                         useSSL = Boolean.valueOf(value);
                         break;
+                    case "blockhistory":
+                        blockHistory = Integer.valueOf(value);
+                        if (blockHistory < 25)
+                            throw new IllegalArgumentException(String.format("Block history must be at least 25: %s", line));
+                        break;
+                    case "peerretention":
+                        peerRetention = Integer.valueOf(value);
+                        if (peerRetention < 0)
+                            throw new IllegalArgumentException(String.format("Invalid peer retention time: %s", line));
+                        break;
+                    case "peercachettl":
+                        peerCacheTTL = Integer.valueOf(value);
+                        if (peerCacheTTL < 0)
+                            throw new IllegalArgumentException(String.format("Invalid peer cache time-to-live: %s", line));
+                        break;
+                    case "snapshotinterval":
+                        snapshotInterval = Integer.valueOf(value);
+                        if (snapshotInterval < 0)
+                            throw new IllegalArgumentException(String.format("Invalid snapshot interval: %s", line));
+                        break;
+                    case "failover":
+                        failover = Boolean.valueOf(value);
+                        break;
+                    case "failoverthreshold":
+                        failoverThreshold = Integer.valueOf(value);
+                        if (failoverThreshold < 1 || failoverThreshold > 100)
+                            throw new IllegalArgumentException(String.format("Invalid failover threshold: %s", line));
+                        break;
+                    case "hedgerequests":
+                        hedgeRequests = Boolean.valueOf(value);
+                        break;
+                    case "hedgepercentile":
+                        hedgePercentile = Integer.valueOf(value);
+                        if (hedgePercentile < 1 || hedgePercentile > 99)
+                            throw new IllegalArgumentException(String.format("Invalid hedge percentile: %s", line));
+                        break;
+                    case "reorgalertdepth":
+                        reorgAlertDepth = Integer.valueOf(value);
+                        if (reorgAlertDepth < 1)
+                            throw new IllegalArgumentException(String.format("Invalid reorganization alert depth: %s", line));
+                        break;
+                    case "interactiverequestrate":
+                        interactiveRequestRate = Integer.valueOf(value);
+                        if (interactiveRequestRate < 0)
+                            throw new IllegalArgumentException(String.format("Invalid interactive request rate: %s", line));
+                        break;
+                    case "backgroundrequestrate":
+                        backgroundRequestRate = Integer.valueOf(value);
+                        if (backgroundRequestRate < 0)
+                            throw new IllegalArgumentException(String.format("Invalid background request rate: %s", line));
+                        break;
+                    case "txcachesize":
+                        txCacheSize = Integer.valueOf(value);
+                        if (txCacheSize < 1)
+                            throw new IllegalArgumentException(String.format("Invalid transaction cache size: %s", line));
+                        break;
+                    case "txcachespill":
+                        txCacheSpill = Boolean.valueOf(value);
+                        break;
+                    case "metricsaddress":
+                        metricsAddress = value;
+                        break;
+                    case "metricsport":
+                        metricsPort = Integer.valueOf(value);
+                        if (metricsPort < 1 || metricsPort > 65535)
+                            throw new IllegalArgumentException(String.format("Invalid metrics port: %s", line));
+                        break;
                     default:
                         throw new IllegalArgumentException(String.format("Invalid configuration option: %s", line));
                 }
@@ -323,13 +606,16 @@ public class Main {
     }
 
     /**
-     * Display a dialog when an exception occurs.
+     * Display a dialog when an exception occurs.  The exception is just logged
+     * when running without a display.
      *
      * @param       text        Text message describing the cause of the exception
      * @param       exc         The Java exception object
      */
     public static void logException(String text, Throwable exc) {
-        if (SwingUtilities.isEventDispatchThread()) {
+        if (headless) {
+            log.error(text, exc);
+        } else if (SwingUtilities.isEventDispatchThread()) {
             StringBuilder string = new StringBuilder(512);
             //
             // Display our error message
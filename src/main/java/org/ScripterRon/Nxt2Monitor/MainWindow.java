@@ -21,7 +21,7 @@ import org.ScripterRon.Nxt2API.Response;
 import org.ScripterRon.Nxt2API.Utils;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.function.Consumer;
 
 import java.awt.Color;
 import java.awt.Dimension;
@@ -33,7 +33,6 @@ import java.awt.event.WindowEvent;
 import javax.swing.JFrame;
 import javax.swing.JMenuBar;
 import javax.swing.JOptionPane;
-import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 
 /**
@@ -124,16 +123,19 @@ public final class MainWindow extends JFrame implements ActionListener {
         //
         // Set up the status pane
         //
-        statusPanel = new StatusPanel();
+        NodeMonitor displayedMonitor = Main.nodeMonitors.get(0);
+        for (NodeMonitor monitor : Main.nodeMonitors) {
+            if (monitor.getConnection().equals(Main.serverConnection)) {
+                displayedMonitor = monitor;
+                break;
+            }
+        }
+        statusPanel = new StatusPanel(displayedMonitor);
         setContentPane(statusPanel);
         //
         // Receive WindowListener events
         //
         addWindowListener(new ApplicationWindowListener());
-        //
-        // Start the Nxt event handler
-        //
-        statusPanel.startEventHandler();
     }
 
     /**
@@ -167,7 +169,7 @@ public final class MainWindow extends JFrame implements ActionListener {
                     connectServer();
                     break;
                 case "set logging":
-                    LoggingDialog.showDialog(this);
+                    LoggingDialog.showDialog(this, Main.getNodeMonitor(Main.serverConnection));
                     break;
                 case "view bundlers":
                     viewBundlers();
@@ -176,7 +178,7 @@ public final class MainWindow extends JFrame implements ActionListener {
                     viewForging();
                     break;
                 case "view log":
-                    LogDialog.showDialog(this);
+                    LogDialog.showDialog(this, Main.getNodeMonitor(Main.serverConnection));
                     break;
                 case "exit":
                     exitProgram();
@@ -193,28 +195,50 @@ public final class MainWindow extends JFrame implements ActionListener {
 
     /**
      * Connect to a different server
+     *
+     * A new server is added to the monitored servers.  The status for a server that
+     * is already being monitored is displayed immediately.
      */
     private void connectServer() {
         Connection connection = ConnectDialog.showDialog(Main.mainWindow);
         if (connection != null) {
-            statusPanel.shutdown();
-            SwingUtilities.invokeLater(() -> {
-                Main.serverConnection = connection;
-                try {
-                    Nxt.init(Main.serverConnection.getHost(), Main.serverConnection.getPort(), Main.useSSL);
-                } catch (IOException exc) {
-                    Main.log.error("Unable to switch to new server", exc);
-                    Main.logException("Unable to switch to new server", exc);
-                    exitProgram();
-                }
-                statusPanel = new StatusPanel();
-                setContentPane(statusPanel);
-                revalidate();
-                statusPanel.startEventHandler();
-            });
+            try {
+                int count = Main.nodeMonitors.size();
+                NodeMonitor monitor = Main.getNodeMonitor(connection);
+                if (Main.nodeMonitors.size() != count)
+                    statusPanel.monitorAdded(monitor);
+                statusPanel.selectMonitor(monitor);
+            } catch (IOException exc) {
+                Main.log.error("Unable to switch to new server", exc);
+                Main.logException("Unable to switch to new server", exc);
+            }
         }
     }
 
+    /**
+     * Display the status for a different server
+     *
+     * @param       monitor         Node monitor
+     */
+    public void selectMonitor(NodeMonitor monitor) {
+        statusPanel.selectMonitor(monitor);
+    }
+
+    /**
+     * Issue an interactive request to the server being displayed
+     *
+     * The request is issued in the background and the handler is called on the
+     * AWT event thread when the request completes
+     *
+     * @param       <T>             Request result type
+     * @param       request         Request
+     * @param       errorText       Error message if the request fails
+     * @param       handler         Completion handler or null
+     */
+    private <T> void issueRequest(NodeClient.Request<T> request, String errorText, Consumer<T> handler) {
+        RequestWorker.execute(Main.getNodeMonitor(Main.serverConnection), request, errorText, handler);
+    }
+
     /**
      * Connect a peer
      */
@@ -222,12 +246,10 @@ public final class MainWindow extends JFrame implements ActionListener {
         String address = JOptionPane.showInputDialog(this, "Enter the announced address for the peer",
                                                      "Announced Address", JOptionPane.QUESTION_MESSAGE);
         if (address != null && address.length() > 0) {
-            try {
-                Nxt.addPeer(address, Main.adminPW);
-            } catch (IOException exc) {
-                Main.log.error("Unable to connect peer", exc);
-                Main.logException("Unable to connect peer", exc);
-            }
+            issueRequest(client -> {
+                client.addPeer(address);
+                return null;
+            }, "Unable to connect peer", null);
         }
     }
 
@@ -238,12 +260,10 @@ public final class MainWindow extends JFrame implements ActionListener {
         String address = JOptionPane.showInputDialog(this, "Enter the announced address for the peer",
                                                      "Announced Address", JOptionPane.QUESTION_MESSAGE);
         if (address != null && address.length() > 0) {
-            try {
-                Nxt.blacklistPeer(address, Main.adminPW);
-            } catch (IOException exc) {
-                Main.log.error("Unable to blacklist peer", exc);
-                Main.logException("Unable to blacklist peer", exc);
-            }
+            issueRequest(client -> {
+                client.blacklistPeer(address);
+                return null;
+            }, "Unable to blacklist peer", null);
         }
     }
 
@@ -251,8 +271,7 @@ public final class MainWindow extends JFrame implements ActionListener {
      * View the server forging status
      */
     private void viewForging() {
-        try {
-            List<Response> generators = Nxt.getForging(Main.adminPW);
+        issueRequest(client -> client.getForging(), "Unable to get forging status", generators -> {
             StringBuilder sb = new StringBuilder(1000);
             int count = 0;
             for (Response generator : generators) {
@@ -272,18 +291,14 @@ public final class MainWindow extends JFrame implements ActionListener {
                                               "Generators", JOptionPane.INFORMATION_MESSAGE);
             else
                 JOptionPane.showMessageDialog(this, sb.toString(), "Generators", JOptionPane.INFORMATION_MESSAGE);
-        } catch (IOException exc) {
-            Main.log.error("Unable to get forging status", exc);
-            Main.logException("Unable to get forging status", exc);
-        }
+        });
     }
 
     /**
      * View server bundler status
      */
     private void viewBundlers() {
-        try {
-            List<Response> bundlers = Nxt.getBundlers(Main.adminPW);
+        issueRequest(client -> client.getBundlers(), "Unable to get bundler status", bundlers -> {
             StringBuilder sb = new StringBuilder(1000);
             int count = 0;
             for (Response bundler : bundlers) {
@@ -307,20 +322,13 @@ public final class MainWindow extends JFrame implements ActionListener {
                                               "Bundlers", JOptionPane.INFORMATION_MESSAGE);
             else
                 JOptionPane.showMessageDialog(this, sb.toString(), "Bundlers", JOptionPane.INFORMATION_MESSAGE);
-        } catch (IOException exc) {
-            Main.log.error("Unable to get bundler status", exc);
-            Main.logException("Unable to get bundler status", exc);
-        }
+        });
     }
 
     /**
      * Exit the application
      */
     private void exitProgram() {
-        //
-        // Stop status updates
-        //
-        statusPanel.shutdown();
         //
         // Remember the current window position and size unless the window
         // is minimized
@@ -0,0 +1,773 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MetricStore is an append-only time-series store for the chain and network metrics
+ * of a single server.  The samples are aggregated into one-minute buckets, which are
+ * then rolled up into one-hour and one-day buckets.  Each bucket records the sample
+ * count, minimum, maximum and sum for every series.
+ *
+ * Each tier is a ring of fixed-size pages in a memory-mapped file.  A page header
+ * contains the first and last bucket in the page so a range scan skips the pages
+ * outside the range without decoding them.  The records in a page are encoded as
+ * variable-length integers relative to the previous record in the page, so a
+ * one-minute record for all of the series normally takes less than 40 bytes.  The
+ * oldest page in a tier is reused when the ring is full, which limits the retention
+ * time for the tier.
+ *
+ * A range scan copies the pages in the range and the buckets that are still being
+ * filled while holding the store lock.  The copies are decoded after the lock is
+ * released, so reading a long history does not delay adding new samples.
+ *
+ * The buckets that are still being filled are written when the store is closed.
+ * Records for the same bucket are combined when the store is read, so samples
+ * added after the store is reopened are added to the existing bucket.
+ */
+class MetricStore {
+
+    /** Metric series */
+    enum Series {
+        /** Chain height */
+        CHAIN_HEIGHT("Chain height"),
+        /** Time between blocks (seconds) */
+        BLOCK_INTERVAL("Block interval"),
+        /** Transactions per block */
+        TRANSACTIONS("Transactions per block"),
+        /** Connected peers */
+        PEERS("Peer connections");
+
+        /** Display name */
+        private final String name;
+
+        /**
+         * Create the series
+         *
+         * @param       name            Display name
+         */
+        private Series(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Return the display name
+         *
+         * @return                      Display name
+         */
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /** Aggregation tiers from the shortest interval to the longest interval */
+    enum Tier {
+        /** One-minute buckets kept for 7 days */
+        MINUTE(60L*1000, 7),
+        /** One-hour buckets kept for 180 days */
+        HOUR(60L*60*1000, 180),
+        /** One-day buckets kept for 10 years */
+        DAY(24L*60*60*1000, 3650);
+
+        /** Bucket interval (milliseconds) */
+        private final long interval;
+
+        /** Retention time (days) */
+        private final int retention;
+
+        /**
+         * Create the tier
+         *
+         * @param       interval        Bucket interval (milliseconds)
+         * @param       retention       Retention time (days)
+         */
+        private Tier(long interval, int retention) {
+            this.interval = interval;
+            this.retention = retention;
+        }
+
+        /**
+         * Return the bucket interval
+         *
+         * @return                      Bucket interval (milliseconds)
+         */
+        long getInterval() {
+            return interval;
+        }
+
+        /**
+         * Return the retention time
+         *
+         * @return                      Retention time (milliseconds)
+         */
+        long getRetention() {
+            return retention*24L*60*60*1000;
+        }
+
+        /**
+         * Return the number of pages needed for the retention time
+         *
+         * @return                      Page count
+         */
+        private int getPageCount() {
+            long records = getRetention()/interval;
+            return (int)((records*RECORD_SIZE + PAGE_SIZE - PAGE_HEADER - 1) / (PAGE_SIZE - PAGE_HEADER)) + 2;
+        }
+    }
+
+    /** Store file identifier */
+    private static final int MAGIC = 0x4E584D54;
+
+    /** Store file version */
+    private static final int VERSION = 1;
+
+    /** File header size */
+    private static final int FILE_HEADER = 64;
+
+    /** Page size */
+    private static final int PAGE_SIZE = 4096;
+
+    /** Page header size */
+    private static final int PAGE_HEADER = 12;
+
+    /** Expected encoded record size used to size the page rings */
+    private static final int RECORD_SIZE = 48;
+
+    /** Maximum encoded record size */
+    private static final int MAX_RECORD_SIZE = 5 + Series.values().length*4*10;
+
+    /** Series count */
+    private static final int SERIES_COUNT = Series.values().length;
+
+    /** Tiers */
+    private static final Tier[] tiers = Tier.values();
+
+    /** Store file */
+    private final RandomAccessFile file;
+
+    /** Memory-mapped store file */
+    private final MappedByteBuffer buffer;
+
+    /** Offset of the first page for each tier */
+    private final long[] tierOffset = new long[tiers.length];
+
+    /** Page count for each tier */
+    private final int[] pageCount = new int[tiers.length];
+
+    /** Page currently being written for each tier */
+    private final int[] headPage = new int[tiers.length];
+
+    /** Previous bucket in the head page for each tier */
+    private final int[] prevBucket = new int[tiers.length];
+
+    /** Previous minimum value for each series in the head page for each tier */
+    private final long[][] prevMin = new long[tiers.length][SERIES_COUNT];
+
+    /** Bucket being filled for each tier */
+    private final Aggregate[] current = new Aggregate[tiers.length];
+
+    /** Record encoding buffer */
+    private final byte[] scratch = new byte[MAX_RECORD_SIZE];
+
+    /** Store has been closed */
+    private boolean closed;
+
+    /**
+     * Open the metric store, creating a new store if the file does not exist or
+     * has a different layout
+     *
+     * @param       storeFile       Store file
+     * @throws      IOException     Unable to open the store file
+     */
+    MetricStore(File storeFile) throws IOException {
+        long size = FILE_HEADER;
+        for (int t=0; t<tiers.length; t++) {
+            tierOffset[t] = size;
+            pageCount[t] = tiers[t].getPageCount();
+            size += (long)pageCount[t]*PAGE_SIZE;
+            current[t] = new Aggregate();
+        }
+        file = new RandomAccessFile(storeFile, "rw");
+        try {
+            long length = file.length();
+            boolean valid = (length == size);
+            if (!valid)
+                file.setLength(size);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (valid && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION &&
+                         buffer.getInt(8) == SERIES_COUNT) {
+                for (int t=0; t<tiers.length; t++) {
+                    headPage[t] = buffer.getInt(12+t*4);
+                    if (headPage[t] < 0 || headPage[t] >= pageCount[t])
+                        throw new IOException("Metric store head page is not valid");
+                    decodePage(t, headPage[t], null);
+                }
+            } else {
+                if (length != 0)
+                    Main.log.warn(String.format("Creating new metric store %s", storeFile.getPath()));
+                for (int t=0; t<tiers.length; t++) {
+                    for (int page=0; page<pageCount[t]; page++)
+                        clearPage(t, page);
+                    buffer.putInt(12+t*4, 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, SERIES_COUNT);
+                buffer.force();
+            }
+        } catch (IOException | RuntimeException exc) {
+            file.close();
+            throw exc;
+        }
+    }
+
+    /**
+     * Add a sample
+     *
+     * @param       series          Metric series
+     * @param       time            Sample time (milliseconds since the epoch)
+     * @param       value           Sample value
+     */
+    synchronized void record(Series series, long time, long value) {
+        if (closed)
+            return;
+        int bucket = (int)(time/tiers[0].interval);
+        Aggregate minute = current[0];
+        if (minute.bucket != bucket) {
+            if (!minute.isEmpty()) {
+                writeRecord(0, minute);
+                rollUp(1, minute);
+            }
+            minute.reset(bucket);
+        }
+        minute.add(series.ordinal(), value);
+    }
+
+    /**
+     * Return the samples for a series.  The buckets that are being filled are included.
+     *
+     * @param       series          Metric series
+     * @param       tier            Aggregation tier
+     * @param       startTime       Start time (milliseconds since the epoch)
+     * @param       endTime         End time (milliseconds since the epoch)
+     * @return                      Samples ordered by time
+     */
+    List<Sample> getSamples(Series series, Tier tier, long startTime, long endTime) {
+        List<Sample> samples = new ArrayList<>();
+        int t = tier.ordinal();
+        long oldestTime = System.currentTimeMillis() - tier.getRetention();
+        int startBucket = (int)(Math.max(startTime, oldestTime)/tier.interval);
+        int endBucket = (int)Math.min(endTime/tier.interval, Integer.MAX_VALUE);
+        //
+        // Copy the pages in the range and the buckets being filled
+        //
+        List<ByteBuffer> pages = new ArrayList<>();
+        List<Aggregate> pending = new ArrayList<>();
+        synchronized(this) {
+            if (closed)
+                return samples;
+            for (int i=1; i<=pageCount[t]; i++) {
+                int page = (headPage[t]+i)%pageCount[t];
+                int offset = (int)pageOffset(t, page);
+                if (buffer.getShort(offset+8) == 0)
+                    continue;
+                if (buffer.getInt(offset+4) < startBucket || buffer.getInt(offset) > endBucket)
+                    continue;
+                byte[] bytes = new byte[buffer.getShort(offset+10)];
+                ByteBuffer source = buffer.duplicate();
+                source.position(offset);
+                source.get(bytes);
+                pages.add(ByteBuffer.wrap(bytes));
+            }
+            for (int i=t; i>=0; i--) {
+                int bucket = (int)(current[i].bucket*tiers[i].interval/tier.interval);
+                if (current[i].bucket >= 0 && bucket >= startBucket && bucket <= endBucket)
+                    pending.add(current[i].copy(bucket));
+            }
+        }
+        //
+        // Decode the copies
+        //
+        RecordVisitor visitor = (bucket, aggregate) -> {
+            if (bucket >= startBucket && bucket <= endBucket)
+                addSample(samples, tier, bucket, aggregate, series.ordinal());
+        };
+        long[] mins = new long[SERIES_COUNT];
+        for (ByteBuffer page : pages)
+            decodeRecords(page, 0, mins, visitor);
+        for (Aggregate aggregate : pending)
+            addSample(samples, tier, aggregate.bucket, aggregate, series.ordinal());
+        return samples;
+    }
+
+    /**
+     * Write the buckets that are being filled and close the store
+     */
+    synchronized void close() {
+        if (closed)
+            return;
+        for (int t=0; t<tiers.length; t++) {
+            if (!current[t].isEmpty()) {
+                writeRecord(t, current[t]);
+                if (t+1 < tiers.length)
+                    rollUp(t+1, current[t]);
+            }
+        }
+        closed = true;
+        try {
+            buffer.force();
+            file.close();
+        } catch (IOException exc) {
+            Main.log.error("Unable to close metric store", exc);
+        }
+    }
+
+    /**
+     * Add a completed bucket to the next tier
+     *
+     * @param       t               Tier index
+     * @param       lower           Completed bucket from the previous tier
+     */
+    private void rollUp(int t, Aggregate lower) {
+        int bucket = (int)(lower.bucket*tiers[t-1].interval/tiers[t].interval);
+        Aggregate aggregate = current[t];
+        if (aggregate.bucket != bucket) {
+            if (!aggregate.isEmpty()) {
+                writeRecord(t, aggregate);
+                if (t+1 < tiers.length)
+                    rollUp(t+1, aggregate);
+                buffer.force();
+            }
+            aggregate.reset(bucket);
+        }
+        aggregate.merge(lower);
+    }
+
+    /**
+     * Add a bucket to a sample list, combining it with the last sample if the
+     * bucket is the same
+     *
+     * @param       samples         Sample list
+     * @param       tier            Aggregation tier
+     * @param       bucket          Bucket
+     * @param       aggregate       Bucket values
+     * @param       s               Series index
+     */
+    private static void addSample(List<Sample> samples, Tier tier, int bucket, Aggregate aggregate, int s) {
+        if (aggregate.count[s] == 0)
+            return;
+        long time = bucket*tier.interval;
+        Sample last = (samples.isEmpty() ? null : samples.get(samples.size()-1));
+        if (last != null && last.time == time) {
+            last.count += aggregate.count[s];
+            last.sum += aggregate.sum[s];
+            last.min = Math.min(last.min, aggregate.min[s]);
+            last.max = Math.max(last.max, aggregate.max[s]);
+        } else {
+            samples.add(new Sample(time, aggregate.count[s], aggregate.min[s], aggregate.max[s], aggregate.sum[s]));
+        }
+    }
+
+    /**
+     * Write a record to the head page for a tier, starting a new page if the
+     * record does not fit in the head page
+     *
+     * @param       t               Tier index
+     * @param       aggregate       Bucket values
+     */
+    private void writeRecord(int t, Aggregate aggregate) {
+        int offset = (int)pageOffset(t, headPage[t]);
+        int used = buffer.getShort(offset+10);
+        int length = encodeRecord(t, aggregate);
+        if (used + length > PAGE_SIZE) {
+            headPage[t] = (headPage[t]+1)%pageCount[t];
+            buffer.putInt(12+t*4, headPage[t]);
+            clearPage(t, headPage[t]);
+            prevBucket[t] = 0;
+            for (int s=0; s<SERIES_COUNT; s++)
+                prevMin[t][s] = 0;
+            offset = (int)pageOffset(t, headPage[t]);
+            used = PAGE_HEADER;
+            length = encodeRecord(t, aggregate);
+        }
+        for (int i=0; i<length; i++)
+            buffer.put(offset+used+i, scratch[i]);
+        int count = buffer.getShort(offset+8);
+        if (count == 0)
+            buffer.putInt(offset, aggregate.bucket);
+        buffer.putInt(offset+4, aggregate.bucket);
+        buffer.putShort(offset+8, (short)(count+1));
+        buffer.putShort(offset+10, (short)(used+length));
+        prevBucket[t] = aggregate.bucket;
+        for (int s=0; s<SERIES_COUNT; s++) {
+            if (aggregate.count[s] != 0)
+                prevMin[t][s] = aggregate.min[s];
+        }
+    }
+
+    /**
+     * Encode a record relative to the previous record in the head page
+     *
+     * @param       t               Tier index
+     * @param       aggregate       Bucket values
+     * @return                      Encoded length
+     */
+    private int encodeRecord(int t, Aggregate aggregate) {
+        int pos = putVarint(0, zigzag(aggregate.bucket - prevBucket[t]));
+        for (int s=0; s<SERIES_COUNT; s++) {
+            long count = aggregate.count[s];
+            pos = putVarint(pos, count);
+            if (count != 0) {
+                pos = putVarint(pos, zigzag(aggregate.min[s] - prevMin[t][s]));
+                pos = putVarint(pos, aggregate.max[s] - aggregate.min[s]);
+                pos = putVarint(pos, aggregate.sum[s] - count*aggregate.min[s]);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Decode the records in a page.  The encoding state for the tier is set to the
+     * last record in the page when decoding the head page.
+     *
+     * @param       t               Tier index
+     * @param       page            Page index
+     * @param       visitor         Record visitor or null
+     */
+    private void decodePage(int t, int page, RecordVisitor visitor) {
+        long[] mins = new long[SERIES_COUNT];
+        int bucket = decodeRecords(buffer, (int)pageOffset(t, page), mins, visitor);
+        if (page == headPage[t]) {
+            prevBucket[t] = bucket;
+            System.arraycopy(mins, 0, prevMin[t], 0, SERIES_COUNT);
+        }
+    }
+
+    /**
+     * Decode the records in a page
+     *
+     * @param       source          Buffer containing the page
+     * @param       offset          Page offset in the buffer
+     * @param       mins            Minimum values for the last record (updated)
+     * @param       visitor         Record visitor or null
+     * @return                      Bucket for the last record
+     */
+    private static int decodeRecords(ByteBuffer source, int offset, long[] mins, RecordVisitor visitor) {
+        int count = source.getShort(offset+8);
+        int[] pos = new int[] {offset+PAGE_HEADER};
+        int bucket = 0;
+        for (int s=0; s<SERIES_COUNT; s++)
+            mins[s] = 0;
+        Aggregate aggregate = new Aggregate();
+        for (int i=0; i<count; i++) {
+            bucket += (int)unzigzag(getVarint(source, pos));
+            aggregate.reset(bucket);
+            for (int s=0; s<SERIES_COUNT; s++) {
+                long sampleCount = getVarint(source, pos);
+                if (sampleCount != 0) {
+                    mins[s] += unzigzag(getVarint(source, pos));
+                    aggregate.count[s] = sampleCount;
+                    aggregate.min[s] = mins[s];
+                    aggregate.max[s] = mins[s] + getVarint(source, pos);
+                    aggregate.sum[s] = sampleCount*mins[s] + getVarint(source, pos);
+                }
+            }
+            if (visitor != null)
+                visitor.visit(bucket, aggregate);
+        }
+        return bucket;
+    }
+
+    /**
+     * Clear a page
+     *
+     * @param       t               Tier index
+     * @param       page            Page index
+     */
+    private void clearPage(int t, int page) {
+        int offset = (int)pageOffset(t, page);
+        buffer.putInt(offset, 0);
+        buffer.putInt(offset+4, 0);
+        buffer.putShort(offset+8, (short)0);
+        buffer.putShort(offset+10, (short)PAGE_HEADER);
+    }
+
+    /**
+     * Return the file offset of a page
+     *
+     * @param       t               Tier index
+     * @param       page            Page index
+     * @return                      File offset
+     */
+    private long pageOffset(int t, int page) {
+        return tierOffset[t] + (long)page*PAGE_SIZE;
+    }
+
+    /**
+     * Write an unsigned variable-length integer to the encoding buffer
+     *
+     * @param       pos             Buffer position
+     * @param       value           Value
+     * @return                      Updated buffer position
+     */
+    private int putVarint(int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            scratch[pos++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        scratch[pos++] = (byte)value;
+        return pos;
+    }
+
+    /**
+     * Read an unsigned variable-length integer from a page
+     *
+     * @param       source          Buffer containing the page
+     * @param       pos             Buffer position (updated)
+     * @return                      Value
+     */
+    private static long getVarint(ByteBuffer source, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = source.get(pos[0]++);
+            value |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Map a signed value to an unsigned value so small negative values encode in a few bytes
+     *
+     * @param       value           Signed value
+     * @return                      Unsigned value
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Map an unsigned value back to the signed value
+     *
+     * @param       value           Unsigned value
+     * @return                      Signed value
+     */
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Decoded record visitor
+     */
+    private interface RecordVisitor {
+
+        /**
+         * Process a decoded record
+         *
+         * @param       bucket          Bucket
+         * @param       aggregate       Bucket values
+         */
+        void visit(int bucket, Aggregate aggregate);
+    }
+
+    /**
+     * Values for a single bucket
+     */
+    private static class Aggregate {
+
+        /** Bucket or -1 if no bucket has been started */
+        private int bucket = -1;
+
+        /** Sample count for each series */
+        private final long[] count = new long[SERIES_COUNT];
+
+        /** Minimum value for each series */
+        private final long[] min = new long[SERIES_COUNT];
+
+        /** Maximum value for each series */
+        private final long[] max = new long[SERIES_COUNT];
+
+        /** Sum of the values for each series */
+        private final long[] sum = new long[SERIES_COUNT];
+
+        /**
+         * Check if the bucket has any samples
+         *
+         * @return                      TRUE if there are no samples
+         */
+        private boolean isEmpty() {
+            for (long c : count) {
+                if (c != 0)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Start a new bucket
+         *
+         * @param       bucket          Bucket
+         */
+        private void reset(int bucket) {
+            this.bucket = bucket;
+            for (int s=0; s<SERIES_COUNT; s++) {
+                count[s] = 0;
+                min[s] = 0;
+                max[s] = 0;
+                sum[s] = 0;
+            }
+        }
+
+        /**
+         * Return a copy of the bucket
+         *
+         * @param       bucket          Bucket for the copy
+         * @return                      Bucket values
+         */
+        private Aggregate copy(int bucket) {
+            Aggregate aggregate = new Aggregate();
+            aggregate.bucket = bucket;
+            System.arraycopy(count, 0, aggregate.count, 0, SERIES_COUNT);
+            System.arraycopy(min, 0, aggregate.min, 0, SERIES_COUNT);
+            System.arraycopy(max, 0, aggregate.max, 0, SERIES_COUNT);
+            System.arraycopy(sum, 0, aggregate.sum, 0, SERIES_COUNT);
+            return aggregate;
+        }
+
+        /**
+         * Add a sample
+         *
+         * @param       s               Series index
+         * @param       value           Sample value
+         */
+        private void add(int s, long value) {
+            min[s] = (count[s] == 0 ? value : Math.min(min[s], value));
+            max[s] = (count[s] == 0 ? value : Math.max(max[s], value));
+            sum[s] += value;
+            count[s]++;
+        }
+
+        /**
+         * Add the values from another bucket
+         *
+         * @param       other           Bucket values
+         */
+        private void merge(Aggregate other) {
+            for (int s=0; s<SERIES_COUNT; s++) {
+                if (other.count[s] == 0)
+                    continue;
+                min[s] = (count[s] == 0 ? other.min[s] : Math.min(min[s], other.min[s]));
+                max[s] = (count[s] == 0 ? other.max[s] : Math.max(max[s], other.max[s]));
+                sum[s] += other.sum[s];
+                count[s] += other.count[s];
+            }
+        }
+    }
+
+    /**
+     * Aggregated values for a series in a single bucket
+     */
+    static class Sample {
+
+        /** Bucket start time (milliseconds since the epoch) */
+        private final long time;
+
+        /** Sample count */
+        private long count;
+
+        /** Minimum value */
+        private long min;
+
+        /** Maximum value */
+        private long max;
+
+        /** Sum of the values */
+        private long sum;
+
+        /**
+         * Create a sample
+         *
+         * @param       time            Bucket start time (milliseconds since the epoch)
+         * @param       count           Sample count
+         * @param       min             Minimum value
+         * @param       max             Maximum value
+         * @param       sum             Sum of the values
+         */
+        Sample(long time, long count, long min, long max, long sum) {
+            this.time = time;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+        }
+
+        /**
+         * Return the bucket start time
+         *
+         * @return                      Time (milliseconds since the epoch)
+         */
+        long getTime() {
+            return time;
+        }
+
+        /**
+         * Return the number of samples in the bucket
+         *
+         * @return                      Sample count
+         */
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * Return the minimum value
+         *
+         * @return                      Minimum value
+         */
+        long getMin() {
+            return min;
+        }
+
+        /**
+         * Return the maximum value
+         *
+         * @return                      Maximum value
+         */
+        long getMax() {
+            return max;
+        }
+
+        /**
+         * Return the average value
+         *
+         * @return                      Average value
+         */
+        double getAverage() {
+            return (double)sum/count;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2Monitor.RequestScheduler.Priority;
+import org.ScripterRon.Nxt2Monitor.StatusPanel.State;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MetricsServer serves the node monitor metrics in the Prometheus text exposition
+ * format.  The metrics are available at http://address:port/metrics.
+ *
+ * Requests are handled by the HTTP server dispatcher thread, so the text buffer
+ * and the output buffer are reused for each request.  The label text for each
+ * node is built once and the metric values are appended without creating any
+ * intermediate strings.
+ */
+class MetricsServer implements HttpHandler {
+
+    /** Response content type */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Peer state label values indexed by connection state ordinal followed by blacklisted */
+    private static final String[] peerStateNames = {"not_connected", "connected", "disconnected", "blacklisted"};
+
+    /** Request priority label values indexed by priority ordinal */
+    private static final String[] priorityNames = {"event", "interactive", "background"};
+
+    /** Index of the first request priority label */
+    private static final int PRIORITY_LABELS = peerStateNames.length + 1;
+
+    /** HTTP server */
+    private final HttpServer server;
+
+    /** Metrics text */
+    private final StringBuilder sb = new StringBuilder(8192);
+
+    /** Response bytes */
+    private byte[] responseBytes = new byte[8192];
+
+    /** Node labels */
+    private final Map<NodeMonitor, String[]> labelMap = new IdentityHashMap<>();
+
+    /** Request type labels */
+    private final Map<NodeClient.RequestStats, String> requestLabelMap = new IdentityHashMap<>();
+
+    /**
+     * Create the metrics server
+     *
+     * @param       address         Local address
+     * @param       port            Local port
+     * @throws      IOException     Unable to create the HTTP server
+     */
+    MetricsServer(String address, int port) throws IOException {
+        if (peerStateNames.length != State.values().length+1)
+            throw new IllegalStateException("Peer state names do not match the connection states");
+        if (priorityNames.length != Priority.values().length)
+            throw new IllegalStateException("Priority names do not match the request priorities");
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/metrics", this);
+        server.setExecutor(null);
+    }
+
+    /**
+     * Start the metrics server
+     */
+    void start() {
+        server.start();
+        Main.log.info(String.format("Metrics available at http://%s:%d/metrics",
+                server.getAddress().getHostString(), server.getAddress().getPort()));
+    }
+
+    /**
+     * Stop the metrics server
+     */
+    void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * Handle a metrics request (HttpHandler interface)
+     *
+     * @param       exchange        HTTP exchange
+     * @throws      IOException     Unable to send the response
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            int length = renderMetrics();
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(200, length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(responseBytes, 0, length);
+                }
+            }
+        } catch (Exception exc) {
+            Main.log.error("Unable to process metrics request", exc);
+            throw exc;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Render the metrics into the response buffer
+     *
+     * @return                      Response length
+     */
+    private int renderMetrics() {
+        sb.setLength(0);
+        List<NodeMonitor> monitors = Main.nodeMonitors;
+        header("nxt2monitor_up", "gauge", "1 if the node monitor is receiving server events");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_up", labels(monitor)[0], monitor.getStatus() == NodeMonitor.Status.ACTIVE ? 1 : 0);
+        header("nxt2monitor_stale", "gauge", "1 if the tables are showing a saved snapshot");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_stale", labels(monitor)[0], monitor.isStale() ? 1 : 0);
+        header("nxt2monitor_startup_first_render_seconds", "gauge", "Time from startup until the tables were first displayed");
+        for (NodeMonitor monitor : monitors) {
+            sb.append("nxt2monitor_startup_first_render_seconds").append(labels(monitor)[0]).append(' ');
+            appendSeconds(monitor.getFirstRenderTime()*1000);
+            sb.append('\n');
+        }
+        header("nxt2monitor_startup_live_seconds", "gauge", "Time from startup until the server state was loaded");
+        for (NodeMonitor monitor : monitors) {
+            sb.append("nxt2monitor_startup_live_seconds").append(labels(monitor)[0]).append(' ');
+            appendSeconds(monitor.getLiveTime()*1000);
+            sb.append('\n');
+        }
+        header("nxt2monitor_chain_height", "gauge", "Height of the last block received from the server");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_chain_height", labels(monitor)[0], monitor.getChainHeight());
+        header("nxt2monitor_peers", "gauge", "Peers in the connection table by state");
+        for (NodeMonitor monitor : monitors) {
+            String[] labels = labels(monitor);
+            int[] counts = monitor.getPeerCounts();
+            for (int i=0; i<counts.length; i++)
+                sample("nxt2monitor_peers", labels[i+1], counts[i]);
+        }
+        header("nxt2monitor_block_interval_seconds", "gauge", "Time between the last two blocks");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_block_interval_seconds", labels(monitor)[0], monitor.getBlockInterval());
+        header("nxt2monitor_blocks_pushed_total", "counter", "Block pushed events");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_blocks_pushed_total", labels(monitor)[0], monitor.getBlocksPushed());
+        header("nxt2monitor_blocks_popped_total", "counter", "Block popped events");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_blocks_popped_total", labels(monitor)[0], monitor.getBlocksPopped());
+        header("nxt2monitor_reorgs_total", "counter", "Completed chain reorganizations");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_reorgs_total", labels(monitor)[0], monitor.getReorgTracker().getEpisodeCount());
+        header("nxt2monitor_reorg_max_depth", "gauge", "Depth of the deepest chain reorganization");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_reorg_max_depth", labels(monitor)[0], monitor.getReorgTracker().getMaxDepth());
+        header("nxt2monitor_reorg_alerts_total", "counter", "Chain reorganizations reaching the alert depth");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_reorg_alerts_total", labels(monitor)[0], monitor.getReorgTracker().getAlertCount());
+        ForkDetector forkDetector = Main.forkDetector;
+        if (forkDetector != null) {
+            header("nxt2monitor_fork_depth", "gauge", "Blocks since the last block common to two servers");
+            for (ForkDetector.Divergence divergence : forkDetector.getDivergences()) {
+                Connection connection = divergence.getMonitor().getConnection();
+                Connection otherConnection = divergence.getOtherMonitor().getConnection();
+                sample("nxt2monitor_fork_depth",
+                       "{node=\""+escape(connection.getHost()+":"+connection.getPort())+
+                       "\",other=\""+escape(otherConnection.getHost()+":"+otherConnection.getPort())+"\"}",
+                       divergence.getDepth());
+            }
+        }
+        HealthMonitor healthMonitor = Main.healthMonitor;
+        if (healthMonitor != null) {
+            header("nxt2monitor_health_score", "gauge", "Server health score used for failover");
+            for (NodeMonitor monitor : monitors)
+                sample("nxt2monitor_health_score", labels(monitor)[0], healthMonitor.getScore(monitor));
+            header("nxt2monitor_failovers_total", "counter", "Switches to a healthier server");
+            sb.append("nxt2monitor_failovers_total ").append(healthMonitor.getFailoverCount()).append('\n');
+        }
+        header("nxt2monitor_hedge_requests_total", "counter", "Read-only interactive requests");
+        sb.append("nxt2monitor_hedge_requests_total ").append(RequestHedger.getRequestCount()).append('\n');
+        header("nxt2monitor_hedged_total", "counter", "Requests sent to a second server");
+        sb.append("nxt2monitor_hedged_total ").append(RequestHedger.getHedgeCount()).append('\n');
+        header("nxt2monitor_hedge_wins_total", "counter", "Requests answered first by the second server");
+        sb.append("nxt2monitor_hedge_wins_total ").append(RequestHedger.getHedgeWins()).append('\n');
+        header("nxt2monitor_hedge_saved_seconds_total", "counter", "Request time saved by the second server");
+        sb.append("nxt2monitor_hedge_saved_seconds_total ");
+        appendSeconds(RequestHedger.getSavedTime()/1000);
+        sb.append('\n');
+        header("nxt2monitor_events_total", "counter", "Server events received");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_events_total", labels(monitor)[0], monitor.getEventCount());
+        header("nxt2monitor_api_request_duration_seconds", "summary", "API request time excluding event waits");
+        for (NodeMonitor monitor : monitors) {
+            NodeClient nodeClient = monitor.getNodeClient();
+            String label = labels(monitor)[0];
+            sb.append("nxt2monitor_api_request_duration_seconds_sum").append(label).append(' ');
+            appendSeconds(nodeClient.getRequestTime()/1000);
+            sb.append('\n');
+            sample("nxt2monitor_api_request_duration_seconds_count", label, nodeClient.getRequestCount());
+        }
+        header("nxt2monitor_api_errors_total", "counter", "Failed API requests");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_api_errors_total", labels(monitor)[0], monitor.getNodeClient().getErrorCount());
+        header("nxt2monitor_api_sent_bytes_total", "counter", "API request bytes sent");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_api_sent_bytes_total", labels(monitor)[0], monitor.getNodeClient().getBytesSent());
+        header("nxt2monitor_api_received_bytes_total", "counter", "API response bytes received");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_api_received_bytes_total", labels(monitor)[0],
+                   monitor.getNodeClient().getBytesReceived());
+        header("nxt2monitor_api_request_type_duration_seconds", "summary", "API request time by request type");
+        for (NodeMonitor monitor : monitors) {
+            for (NodeClient.RequestStats stats : monitor.getNodeClient().getRequestStats()) {
+                String label = requestLabel(monitor, stats);
+                sb.append("nxt2monitor_api_request_type_duration_seconds_sum").append(label).append(' ');
+                appendSeconds(stats.getTime()/1000);
+                sb.append('\n');
+                sample("nxt2monitor_api_request_type_duration_seconds_count", label, stats.getCount());
+            }
+        }
+        header("nxt2monitor_request_queue_depth", "gauge", "Requests waiting to be run by priority");
+        for (NodeMonitor monitor : monitors) {
+            String[] labels = labels(monitor);
+            for (Priority priority : Priority.values())
+                sample("nxt2monitor_request_queue_depth", labels[PRIORITY_LABELS+priority.ordinal()],
+                       monitor.getScheduler().getQueueDepth(priority));
+        }
+        header("nxt2monitor_request_wait_seconds", "summary", "Time requests waited to be run by priority");
+        for (NodeMonitor monitor : monitors) {
+            String[] labels = labels(monitor);
+            RequestScheduler scheduler = monitor.getScheduler();
+            for (Priority priority : Priority.values()) {
+                String label = labels[PRIORITY_LABELS+priority.ordinal()];
+                sb.append("nxt2monitor_request_wait_seconds_sum").append(label).append(' ');
+                appendSeconds(scheduler.getWaitTime(priority)/1000);
+                sb.append('\n');
+                sample("nxt2monitor_request_wait_seconds_count", label, scheduler.getStartedCount(priority));
+            }
+        }
+        header("nxt2monitor_reconnects_total", "counter", "Reconnects after a server failure");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_reconnects_total", labels(monitor)[0], monitor.getReconnectCount());
+        header("nxt2monitor_missed_blocks_total", "counter", "Blocks added after reconnecting to the server");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_missed_blocks_total", labels(monitor)[0], monitor.getMissedBlockCount());
+        header("nxt2monitor_block_gaps_total", "counter", "Gaps in the block heights received from the server");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_block_gaps_total", labels(monitor)[0], monitor.getGapCount());
+        header("nxt2monitor_backfilled_blocks_total", "counter", "Missing blocks added after a block gap");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_backfilled_blocks_total", labels(monitor)[0], monitor.getBackfilledBlocks());
+        header("nxt2monitor_peer_corrections_total", "counter", "Peer table corrections made by reconciling with the server");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_peer_corrections_total", labels(monitor)[0], monitor.getPeerCorrections());
+        header("nxt2monitor_recovery_seconds", "gauge", "Time to recover from the last server failure");
+        for (NodeMonitor monitor : monitors) {
+            sb.append("nxt2monitor_recovery_seconds").append(labels(monitor)[0]).append(' ');
+            appendSeconds(monitor.getLastRecoveryTime()*1000);
+            sb.append('\n');
+        }
+        header("nxt2monitor_peer_cache_hits_total", "counter", "Peer requests satisfied from the peer cache");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_peer_cache_hits_total", labels(monitor)[0], monitor.getPeerCache().getHitCount());
+        header("nxt2monitor_peer_cache_misses_total", "counter", "Peer requests sent to the server");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_peer_cache_misses_total", labels(monitor)[0], monitor.getPeerCache().getMissCount());
+        header("nxt2monitor_peer_cache_merges_total", "counter", "Peer requests merged with a request in progress");
+        for (NodeMonitor monitor : monitors)
+            sample("nxt2monitor_peer_cache_merges_total", labels(monitor)[0], monitor.getPeerCache().getMergeCount());
+        TransactionCache txCache = Main.transactionCache;
+        if (txCache != null) {
+            header("nxt2monitor_transaction_cache_hits_total", "counter", "Transaction cache hits");
+            sample("nxt2monitor_transaction_cache_hits_total", "", txCache.getHitCount());
+            header("nxt2monitor_transaction_cache_misses_total", "counter", "Transaction cache misses");
+            sample("nxt2monitor_transaction_cache_misses_total", "", txCache.getMissCount());
+        }
+        //
+        // Convert the metrics text to bytes.  The text is normally ASCII, so the
+        // characters are copied directly to the response buffer.
+        //
+        int length = sb.length();
+        if (responseBytes.length < length)
+            responseBytes = new byte[length + length/2];
+        for (int i=0; i<length; i++) {
+            char c = sb.charAt(i);
+            if (c > 0x7f) {
+                responseBytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+                return responseBytes.length;
+            }
+            responseBytes[i] = (byte)c;
+        }
+        return length;
+    }
+
+    /**
+     * Return the labels for a node monitor
+     *
+     * @param       monitor         Node monitor
+     * @return                      Node label followed by the node and peer state labels and
+     *                              the node and request priority labels
+     */
+    private String[] labels(NodeMonitor monitor) {
+        String[] labels = labelMap.get(monitor);
+        if (labels == null) {
+            Connection connection = monitor.getConnection();
+            String node = escape(connection.getHost()+":"+connection.getPort());
+            labels = new String[PRIORITY_LABELS+priorityNames.length];
+            labels[0] = "{node=\""+node+"\"}";
+            for (int i=0; i<peerStateNames.length; i++)
+                labels[i+1] = "{node=\""+node+"\",state=\""+peerStateNames[i]+"\"}";
+            for (int i=0; i<priorityNames.length; i++)
+                labels[PRIORITY_LABELS+i] = "{node=\""+node+"\",priority=\""+priorityNames[i]+"\"}";
+            labelMap.put(monitor, labels);
+        }
+        return labels;
+    }
+
+    /**
+     * Return the label for a request type
+     *
+     * @param       monitor         Node monitor
+     * @param       stats           Request statistics
+     * @return                      Node and request type label
+     */
+    private String requestLabel(NodeMonitor monitor, NodeClient.RequestStats stats) {
+        String label = requestLabelMap.get(stats);
+        if (label == null) {
+            String nodeLabel = labels(monitor)[0];
+            label = nodeLabel.substring(0, nodeLabel.length()-1) +
+                    ",request=\""+escape(stats.getRequestType())+"\"}";
+            requestLabelMap.put(stats, label);
+        }
+        return label;
+    }
+
+    /**
+     * Append the metric header
+     *
+     * @param       name            Metric name
+     * @param       type            Metric type
+     * @param       help            Metric description
+     */
+    private void header(String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Append a metric sample
+     *
+     * @param       name            Metric name
+     * @param       label           Label text
+     * @param       value           Sample value
+     */
+    private void sample(String name, String label, long value) {
+        sb.append(name).append(label).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Append a time in seconds with six decimal places
+     *
+     * @param       micros          Time in microseconds
+     */
+    private void appendSeconds(long micros) {
+        sb.append(micros/1000000).append('.');
+        long fraction = micros%1000000;
+        for (long divisor=100000; divisor>0; divisor/=10)
+            sb.append((char)('0' + (fraction/divisor)%10));
+    }
+
+    /**
+     * Escape a label value
+     *
+     * @param       value           Label value
+     * @return                      Escaped value
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Response;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MonitorSnapshot is a copy of the block and connection tables for a server.  The
+ * snapshot is saved in the application data directory and is displayed when the
+ * program is started until the current server state has been loaded.
+ *
+ * The snapshot file contains a header followed by the block records ordered from
+ * the newest block to the oldest block and then the peer records.  Only the fields
+ * displayed by the table models are saved.  The file is written to a temporary file
+ * which then replaces the previous snapshot, so a failure while writing the snapshot
+ * does not destroy the previous snapshot.
+ */
+class MonitorSnapshot {
+
+    /** Snapshot file identifier */
+    private static final int MAGIC = 0x4E584D53;
+
+    /** Snapshot file version */
+    private static final int VERSION = 1;
+
+    /** Time the snapshot was taken (milliseconds since the epoch) */
+    private final long snapshotTime;
+
+    /** Blocks ordered from the newest block to the oldest block */
+    private final List<Response> blocks;
+
+    /** Peers */
+    private final List<Response> peers;
+
+    /**
+     * Create a snapshot
+     *
+     * @param       snapshotTime    Time the snapshot was taken (milliseconds since the epoch)
+     * @param       blocks          Blocks ordered from the newest block to the oldest block
+     * @param       peers           Peers
+     */
+    MonitorSnapshot(long snapshotTime, List<Response> blocks, List<Response> peers) {
+        this.snapshotTime = snapshotTime;
+        this.blocks = blocks;
+        this.peers = peers;
+    }
+
+    /**
+     * Return the time the snapshot was taken
+     *
+     * @return                      Snapshot time (milliseconds since the epoch)
+     */
+    long getSnapshotTime() {
+        return snapshotTime;
+    }
+
+    /**
+     * Return the blocks
+     *
+     * @return                      Blocks ordered from the newest block to the oldest block
+     */
+    List<Response> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Return the peers
+     *
+     * @return                      Peers
+     */
+    List<Response> getPeers() {
+        return peers;
+    }
+
+    /**
+     * Return the chain height for the snapshot
+     *
+     * @return                      Chain height or 0 if there are no blocks
+     */
+    int getChainHeight() {
+        return (blocks.isEmpty() ? 0 : blocks.get(0).getInt("height"));
+    }
+
+    /**
+     * Check if a block list ending at the server chain head includes a block in the snapshot
+     *
+     * @param       blockList       Block list
+     * @return                      TRUE if a block is in both lists
+     */
+    boolean overlaps(List<Response> blockList) {
+        Map<Integer, String> heightMap = new HashMap<>(blocks.size()*4/3+1);
+        blocks.forEach(block -> heightMap.put(block.getInt("height"), block.getString("block")));
+        for (Response block : blockList) {
+            if (block.getString("block").equals(heightMap.get(block.getInt("height"))))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return the snapshot file for a server
+     *
+     * @param       connection      Server connection
+     * @return                      Snapshot file
+     */
+    static File getFile(Connection connection) {
+        return Main.getDataFile("Snapshot", connection);
+    }
+
+    /**
+     * Load the snapshot for a server
+     *
+     * @param       connection      Server connection
+     * @return                      Snapshot or null if there is no valid snapshot
+     */
+    static MonitorSnapshot load(Connection connection) {
+        File file = getFile(connection);
+        if (!file.exists())
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Main.log.warn(String.format("Snapshot file %s is not supported", file.getPath()));
+                return null;
+            }
+            long snapshotTime = in.readLong();
+            int blockCount = in.readInt();
+            List<Response> blocks = new ArrayList<>(blockCount);
+            for (int i=0; i<blockCount; i++) {
+                Map<String, Object> map = new HashMap<>();
+                map.put("block", Long.toUnsignedString(in.readLong()));
+                map.put("height", (long)in.readInt());
+                map.put("timestamp", (long)in.readInt());
+                map.put("version", (long)in.readInt());
+                map.put("numberOfTransactions", (long)in.readInt());
+                map.put("generatorRS", in.readUTF());
+                blocks.add(new Response(map));
+            }
+            int peerCount = in.readInt();
+            List<Response> peers = new ArrayList<>(peerCount);
+            for (int i=0; i<peerCount; i++) {
+                Map<String, Object> map = new HashMap<>();
+                map.put("address", in.readUTF());
+                map.put("announcedAddress", in.readUTF());
+                map.put("application", in.readUTF());
+                map.put("version", in.readUTF());
+                map.put("platform", in.readUTF());
+                int serviceCount = in.readUnsignedByte();
+                List<String> services = new ArrayList<>(serviceCount);
+                for (int j=0; j<serviceCount; j++)
+                    services.add(in.readUTF());
+                map.put("services", services);
+                map.put("state", (long)in.readUnsignedByte());
+                map.put("blacklisted", in.readBoolean());
+                peers.add(new Response(map));
+            }
+            return new MonitorSnapshot(snapshotTime, blocks, peers);
+        } catch (IOException | RuntimeException exc) {
+            Main.log.error(String.format("Unable to load snapshot file %s", file.getPath()), exc);
+            return null;
+        }
+    }
+
+    /**
+     * Save the snapshot for a server
+     *
+     * @param       connection      Server connection
+     * @throws      IOException     Unable to write the snapshot file
+     */
+    void save(Connection connection) throws IOException {
+        File file = getFile(connection);
+        File tempFile = new File(file.getPath()+".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(snapshotTime);
+            out.writeInt(blocks.size());
+            for (Response block : blocks) {
+                out.writeLong(Long.parseUnsignedLong(block.getString("block")));
+                out.writeInt(block.getInt("height"));
+                out.writeInt((int)block.getLong("timestamp"));
+                out.writeInt(block.getInt("version"));
+                out.writeInt(block.getInt("numberOfTransactions"));
+                out.writeUTF(block.getString("generatorRS"));
+            }
+            out.writeInt(peers.size());
+            for (Response peer : peers) {
+                out.writeUTF(peer.getString("address"));
+                out.writeUTF(peer.getString("announcedAddress"));
+                out.writeUTF(peer.getString("application"));
+                out.writeUTF(peer.getString("version"));
+                out.writeUTF(peer.getString("platform"));
+                List<String> services = peer.getStringList("services");
+                int serviceCount = Math.min(services.size(), 255);
+                out.writeByte(serviceCount);
+                for (int i=0; i<serviceCount; i++)
+                    out.writeUTF(services.get(i));
+                out.writeByte(peer.getInt("state"));
+                out.writeBoolean(peer.getBoolean("blacklisted"));
+            }
+        }
+        try {
+            Files.move(tempFile.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException exc) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Event;
+import org.ScripterRon.Nxt2API.Response;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NodeClient issues NRS API requests to a single server.  Each server connection has
+ * its own client and all requests for the server go through that client, so any number
+ * of servers can be monitored at the same time.
+ *
+ * A client can be used by multiple threads at the same time.  Independent requests
+ * issued from different threads are sent to the server in parallel.
+ */
+interface NodeClient {
+
+    /**
+     * Return the server connection
+     *
+     * @return                      Server connection
+     */
+    Connection getConnection();
+
+    /**
+     * Get blocks ordered from the newest block to the oldest block
+     *
+     * @param       firstIndex              Index of the first block (0 is the chain head)
+     * @param       lastIndex               Index of the last block
+     * @param       includeTransactions     TRUE to include the block transactions
+     * @return                              Block list
+     * @throws      IOException             Unable to issue the request
+     */
+    List<Response> getBlocks(int firstIndex, int lastIndex, boolean includeTransactions) throws IOException;
+
+    /**
+     * Get a block
+     *
+     * @param       blockId                 Block identifier
+     * @param       includeTransactions     TRUE to include the block transactions
+     * @return                              Block
+     * @throws      IOException             Unable to issue the request
+     */
+    Response getBlock(String blockId, boolean includeTransactions) throws IOException;
+
+    /**
+     * Get a transaction
+     *
+     * @param       fullHash                Transaction full hash (hex string)
+     * @param       chain                   Chain name
+     * @return                              Transaction
+     * @throws      IOException             Unable to issue the request
+     */
+    Response getTransaction(String fullHash, String chain) throws IOException;
+
+    /**
+     * Get the peers in the specified state
+     *
+     * @param       state                   Peer state (NON_CONNECTED, CONNECTED or DISCONNECTED)
+     * @return                              Peer list
+     * @throws      IOException             Unable to issue the request
+     */
+    List<Response> getPeers(String state) throws IOException;
+
+    /**
+     * Get a peer
+     *
+     * @param       address                 Peer network address
+     * @return                              Peer
+     * @throws      IOException             Unable to issue the request
+     */
+    Response getPeer(String address) throws IOException;
+
+    /**
+     * Connect a peer
+     *
+     * @param       address                 Peer announced address
+     * @throws      IOException             Unable to issue the request
+     */
+    void addPeer(String address) throws IOException;
+
+    /**
+     * Blacklist a peer
+     *
+     * @param       address                 Peer address
+     * @throws      IOException             Unable to issue the request
+     */
+    void blacklistPeer(String address) throws IOException;
+
+    /**
+     * Get the accounts that are forging on the server
+     *
+     * @return                              Generator list
+     * @throws      IOException             Unable to issue the request
+     */
+    List<Response> getForging() throws IOException;
+
+    /**
+     * Get the bundlers that are running on the server
+     *
+     * @return                              Bundler list
+     * @throws      IOException             Unable to issue the request
+     */
+    List<Response> getBundlers() throws IOException;
+
+    /**
+     * Get the most recent server log messages
+     *
+     * @param       count                   Number of messages to return
+     * @return                              Log messages ordered from the oldest message to the newest message
+     * @throws      IOException             Unable to issue the request
+     */
+    List<String> getLog(int count) throws IOException;
+
+    /**
+     * Set the server log level
+     *
+     * @param       level                   Log level (DEBUG, INFO, WARN or ERROR)
+     * @throws      IOException             Unable to issue the request
+     */
+    void setLogging(String level) throws IOException;
+
+    /**
+     * Register server events
+     *
+     * @param       events                  Event names
+     * @param       token                   Event token or 0 for a new registration
+     * @param       add                     TRUE to add events to an existing registration
+     * @param       remove                  TRUE to remove events from an existing registration
+     * @return                              Registration response
+     * @throws      IOException             Unable to issue the request
+     */
+    Response eventRegister(List<String> events, long token, boolean add, boolean remove) throws IOException;
+
+    /**
+     * Wait for server events
+     *
+     * @param       token                   Event token
+     * @param       timeout                 Wait timeout (seconds)
+     * @return                              Event list
+     * @throws      IOException             Unable to issue the request
+     */
+    List<Event> eventWait(long token, int timeout) throws IOException;
+
+    /**
+     * Return the number of completed requests.  Event waits are not included.
+     *
+     * @return                      Request count
+     */
+    long getRequestCount();
+
+    /**
+     * Return the total time for the completed requests.  Event waits are not included.
+     *
+     * @return                      Request time (nanoseconds)
+     */
+    long getRequestTime();
+
+    /**
+     * Return the number of failed requests
+     *
+     * @return                      Error count
+     */
+    long getErrorCount();
+
+    /**
+     * Return the number of request bytes sent to the server
+     *
+     * @return                      Byte count
+     */
+    long getBytesSent();
+
+    /**
+     * Return the number of response bytes received from the server
+     *
+     * @return                      Byte count
+     */
+    long getBytesReceived();
+
+    /**
+     * Return the statistics for each request type that has been issued
+     *
+     * @return                      Request statistics
+     */
+    Collection<RequestStats> getRequestStats();
+
+    /**
+     * Request issued using a node client
+     *
+     * @param       <T>             Request result type
+     */
+    interface Request<T> {
+
+        /**
+         * Issue the request
+         *
+         * @param       nodeClient      Server client
+         * @return                      Request result
+         * @throws      IOException     Unable to issue the request
+         */
+        T issue(NodeClient nodeClient) throws IOException;
+    }
+
+    /**
+     * Request statistics for a single request type
+     */
+    class RequestStats {
+
+        /** Request type */
+        private final String requestType;
+
+        /** Number of completed requests */
+        private final AtomicLong count = new AtomicLong();
+
+        /** Total request time (nanoseconds) */
+        private final AtomicLong time = new AtomicLong();
+
+        /** Number of failed requests */
+        private final AtomicLong errors = new AtomicLong();
+
+        /** Number of request bytes sent */
+        private final AtomicLong bytesSent = new AtomicLong();
+
+        /** Number of response bytes received */
+        private final AtomicLong bytesReceived = new AtomicLong();
+
+        /**
+         * Create the request statistics
+         *
+         * @param       requestType     Request type
+         */
+        RequestStats(String requestType) {
+            this.requestType = requestType;
+        }
+
+        /**
+         * Record a completed request
+         *
+         * @param       elapsed         Request time (nanoseconds)
+         * @param       sent            Request bytes sent
+         * @param       received        Response bytes received
+         */
+        void recordRequest(long elapsed, long sent, long received) {
+            count.incrementAndGet();
+            time.addAndGet(elapsed);
+            bytesSent.addAndGet(sent);
+            bytesReceived.addAndGet(received);
+        }
+
+        /**
+         * Record a failed request
+         */
+        void recordError() {
+            errors.incrementAndGet();
+        }
+
+        /**
+         * Return the request type
+         *
+         * @return                      Request type
+         */
+        String getRequestType() {
+            return requestType;
+        }
+
+        /**
+         * Return the number of completed requests
+         *
+         * @return                      Request count
+         */
+        long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Return the total request time
+         *
+         * @return                      Request time (nanoseconds)
+         */
+        long getTime() {
+            return time.get();
+        }
+
+        /**
+         * Return the number of failed requests
+         *
+         * @return                      Error count
+         */
+        long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * Return the number of request bytes sent
+         *
+         * @return                      Byte count
+         */
+        long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        /**
+         * Return the number of response bytes received
+         *
+         * @return                      Byte count
+         */
+        long getBytesReceived() {
+            return bytesReceived.get();
+        }
+    }
+
+    /**
+     * RequestException is thrown when the server returns an error response.  The
+     * server is reachable but was not able to process the request.
+     */
+    class RequestException extends IOException {
+
+        /** Server error code */
+        private final int errorCode;
+
+        /**
+         * Create the exception
+         *
+         * @param       message         Exception message
+         * @param       errorCode       Server error code
+         */
+        RequestException(String message, int errorCode) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+
+        /**
+         * Return the server error code
+         *
+         * @return                      Error code
+         */
+        int getErrorCode() {
+            return errorCode;
+        }
+    }
+}
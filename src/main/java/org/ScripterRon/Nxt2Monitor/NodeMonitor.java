@@ -0,0 +1,1464 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Event;
+import org.ScripterRon.Nxt2API.IdentifierException;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Utils;
+import org.ScripterRon.Nxt2Monitor.RequestScheduler.Priority;
+import org.ScripterRon.Nxt2Monitor.StatusPanel.State;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * NodeMonitor tracks the status of a single NRS server.  Each server has its own
+ * event registration, event handler thread, worker pool and table models so the
+ * status of every configured server is kept current at the same time.
+ */
+class NodeMonitor implements Runnable {
+
+    /** Maximum number of concurrent requests for each request priority */
+    private static final int[] REQUEST_LIMITS = {4, 4, 2};
+
+    /** Maximum number of queued requests for each request priority */
+    private static final int[] REQUEST_QUEUE_LIMITS = {256, 0, 0};
+
+    /** Initial reconnect delay (milliseconds) */
+    private static final long MIN_RECONNECT_DELAY = 1000;
+
+    /** Maximum reconnect delay (milliseconds) */
+    private static final long MAX_RECONNECT_DELAY = 60000;
+
+    /** Number of blocks before the last received block that are checked after reconnecting */
+    private static final int RECOVERY_OVERLAP = 10;
+
+    /** Maximum number of blocks returned by a single getBlocks request */
+    private static final int BLOCKS_PER_REQUEST = 100;
+
+    /** Missing height ranges closer than this are fetched with a single request */
+    private static final int GAP_MERGE = 10;
+
+    /** Number of times a missing height range is requested */
+    private static final int BACKFILL_ATTEMPTS = 3;
+
+    /** Time between peer table reconciliations (seconds) */
+    private static final int PEER_RECONCILE_INTERVAL = 5*60;
+
+    /** Number of chain reorganizations kept in the reorganization history */
+    private static final int REORG_HISTORY = 100;
+
+    /** Server events */
+    private static final List<String> EVENT_LIST = Collections.unmodifiableList(Arrays.asList(
+            "Peer.ADD_ACTIVE_PEER", "Peer.CHANGE_ACTIVE_PEER", "Peer.CHANGE_ANNOUNCED_ADDRESS",
+            "Peer.BLACKLIST", "Peer.UNBLACKLIST", "Block.BLOCK_PUSHED", "Block.BLOCK_POPPED"));
+
+    /** Monitor status */
+    enum Status {
+        CONNECTING("Connecting"),
+        ACTIVE("Active"),
+        RECONNECTING("Reconnecting");
+
+        private final String text;
+
+        private Status(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /** Monitor listener */
+    interface Listener {
+
+        /**
+         * The monitor tables or status have been updated (update thread)
+         *
+         * @param   monitor         Node monitor
+         */
+        void monitorUpdated(NodeMonitor monitor);
+    }
+
+    /** Table model update thread when running in headless mode */
+    private static final ExecutorService headlessExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Nxt Model Update");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Peer table reconciliation timer */
+    private static final ScheduledExecutorService reconcileTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Nxt Peer Reconciler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Server connection */
+    private final Connection connection;
+
+    /** Server client */
+    private final NodeClient nodeClient;
+
+    /** Block table model */
+    private final BlockTableModel blockTableModel;
+
+    /** Connection table model */
+    private final ConnectionTableModel connectionTableModel;
+
+    /** Request scheduler */
+    private final RequestScheduler scheduler;
+
+    /** Peer request cache */
+    private final PeerCache peerCache;
+
+    /** Chain reorganization tracker */
+    private final ReorgTracker reorgTracker;
+
+    /** Monitor listeners */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Event batches waiting to be applied */
+    private final Queue<EventBatch> batchQueue = new ConcurrentLinkedQueue<>();
+
+    /** Event batch update has been scheduled */
+    private final AtomicBoolean batchScheduled = new AtomicBoolean();
+
+    /** Monitor status */
+    private volatile Status status = Status.CONNECTING;
+
+    /** Status update shutdown */
+    private volatile boolean shutdown = false;
+
+    /** Event registration token */
+    private volatile long eventToken;
+
+    /** Chain height for the last block event */
+    private volatile int chainHeight;
+
+    /** Timestamp of the last pushed block (event handler thread) */
+    private long lastBlockTimestamp;
+
+    /** Time between the last two pushed blocks (seconds) */
+    private volatile long blockInterval;
+
+    /** Number of server events received */
+    private final AtomicLong eventCount = new AtomicLong();
+
+    /** Number of blocks pushed */
+    private final AtomicLong blocksPushed = new AtomicLong();
+
+    /** Number of blocks popped */
+    private final AtomicLong blocksPopped = new AtomicLong();
+
+    /** Peer counts by connection state followed by the blacklisted peer count */
+    private volatile int[] peerCounts = new int[State.values().length+1];
+
+    /** Number of times the monitor has reconnected to the server */
+    private final AtomicLong reconnectCount = new AtomicLong();
+
+    /** Number of missed blocks added after reconnecting */
+    private final AtomicLong missedBlockCount = new AtomicLong();
+
+    /** Number of block gaps detected */
+    private final AtomicLong gapCount = new AtomicLong();
+
+    /** Number of missing blocks added after a block gap */
+    private final AtomicLong backfilledBlocks = new AtomicLong();
+
+    /** Number of peer table corrections */
+    private final AtomicLong peerCorrections = new AtomicLong();
+
+    /** Sequence number of the last queued event batch */
+    private final AtomicLong batchSequence = new AtomicLong();
+
+    /** Peer table reconciliation is in progress */
+    private final AtomicBoolean reconcilePending = new AtomicBoolean();
+
+    /** Sequence number of the last batch that changed each peer during a reconciliation (update thread) */
+    private final Map<String, Long> reconcileChanges = new HashMap<>();
+
+    /** Peer table reconciliation task */
+    private volatile ScheduledFuture<?> reconcileTask;
+
+    /** Total recovery time (milliseconds) */
+    private final AtomicLong totalRecoveryTime = new AtomicLong();
+
+    /** Last recovery time (milliseconds) */
+    private volatile long lastRecoveryTime;
+
+    /** Snapshot displayed until the server state has been loaded (event handler thread) */
+    private MonitorSnapshot snapshot;
+
+    /** Time of the displayed snapshot or 0 if the tables are not showing a snapshot */
+    private volatile long snapshotTime;
+
+    /** Metric history or null if the history is not available */
+    private volatile MetricStore metricStore;
+
+    /** Server state has been loaded */
+    private volatile boolean loaded;
+
+    /** Maximum divergence from the chains of the other servers (blocks) */
+    private volatile int forkDepth;
+
+    /** Time the monitor was started (nanoseconds) */
+    private long startTime;
+
+    /** Time from starting the monitor until the tables were first displayed (milliseconds) */
+    private volatile long firstRenderTime;
+
+    /** Time from starting the monitor until the server state was loaded (milliseconds) */
+    private volatile long liveTime;
+
+    /**
+     * Create a node monitor
+     *
+     * @param       connection      Server connection
+     * @throws      IOException     Invalid server address
+     */
+    NodeMonitor(Connection connection) throws IOException {
+        this(new HttpNodeClient(connection, Main.useSSL));
+    }
+
+    /**
+     * Create a node monitor using the supplied server client
+     *
+     * @param       nodeClient      Server client
+     */
+    NodeMonitor(NodeClient nodeClient) {
+        this.connection = nodeClient.getConnection();
+        this.nodeClient = nodeClient;
+        this.blockTableModel = new BlockTableModel(Main.blockHistory);
+        this.connectionTableModel = new ConnectionTableModel(Main.peerRetention);
+        this.scheduler = new RequestScheduler(
+                String.format("Nxt Request [%s]:%d", connection.getHost(), connection.getPort()),
+                REQUEST_LIMITS, new int[] {0, Main.interactiveRequestRate, Main.backgroundRequestRate},
+                REQUEST_QUEUE_LIMITS);
+        this.peerCache = new PeerCache(nodeClient, scheduler, Main.peerCacheTTL);
+        this.reorgTracker = new ReorgTracker(REORG_HISTORY, Main.reorgAlertDepth);
+    }
+
+    /**
+     * Return the server connection
+     *
+     * @return                      Server connection
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Return the server client
+     *
+     * @return                      Server client
+     */
+    NodeClient getNodeClient() {
+        return nodeClient;
+    }
+
+    /**
+     * Return the request scheduler.  Requests for this server should be run by the
+     * scheduler using the priority for the request.
+     *
+     * @return                      Request scheduler
+     */
+    RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Issue a request to the server using the request scheduler and wait for the result
+     *
+     * @param       <T>             Request result type
+     * @param       priority        Request priority
+     * @param       request         Request
+     * @return                      Request result
+     * @throws      IOException     The request failed
+     */
+    <T> T issueRequest(Priority priority, NodeClient.Request<T> request) throws IOException {
+        return scheduler.call(priority, () -> request.issue(nodeClient));
+    }
+
+    /**
+     * Return the peer request cache
+     *
+     * @return                      Peer request cache
+     */
+    PeerCache getPeerCache() {
+        return peerCache;
+    }
+
+    /**
+     * Return the chain reorganization tracker
+     *
+     * @return                      Reorganization tracker
+     */
+    ReorgTracker getReorgTracker() {
+        return reorgTracker;
+    }
+
+    /**
+     * Return the metric history
+     *
+     * @return                      Metric store or null if the history is not available
+     */
+    MetricStore getMetricStore() {
+        return metricStore;
+    }
+
+    /**
+     * Return the block table model
+     *
+     * @return                      Block table model
+     */
+    BlockTableModel getBlockTableModel() {
+        return blockTableModel;
+    }
+
+    /**
+     * Return the connection table model
+     *
+     * @return                      Connection table model
+     */
+    ConnectionTableModel getConnectionTableModel() {
+        return connectionTableModel;
+    }
+
+    /**
+     * Return the current chain height
+     *
+     * @return                      Chain height or 0 if no blocks have been received
+     */
+    int getChainHeight() {
+        return chainHeight;
+    }
+
+    /**
+     * Return the time between the last two blocks
+     *
+     * @return                      Block interval (seconds) or 0 if not known
+     */
+    long getBlockInterval() {
+        return blockInterval;
+    }
+
+    /**
+     * Return the number of server events received
+     *
+     * @return                      Event count
+     */
+    long getEventCount() {
+        return eventCount.get();
+    }
+
+    /**
+     * Return the number of blocks pushed
+     *
+     * @return                      Pushed block count
+     */
+    long getBlocksPushed() {
+        return blocksPushed.get();
+    }
+
+    /**
+     * Return the number of blocks popped
+     *
+     * @return                      Popped block count
+     */
+    long getBlocksPopped() {
+        return blocksPopped.get();
+    }
+
+    /**
+     * Return the peer counts.  The returned array must not be modified.
+     *
+     * @return                      Peer counts indexed by connection state ordinal
+     *                              followed by the blacklisted peer count
+     */
+    int[] getPeerCounts() {
+        return peerCounts;
+    }
+
+    /**
+     * Return the number of connected peers (update thread)
+     *
+     * @return                      Connected peer count
+     */
+    int getPeerCount() {
+        return connectionTableModel.getActiveCount();
+    }
+
+    /**
+     * Return the monitor status
+     *
+     * @return                      Monitor status
+     */
+    Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Return the number of times the monitor has reconnected to the server
+     *
+     * @return                      Reconnect count
+     */
+    long getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    /**
+     * Return the number of missed blocks that were added after reconnecting
+     *
+     * @return                      Missed block count
+     */
+    long getMissedBlockCount() {
+        return missedBlockCount.get();
+    }
+
+    /**
+     * Return the number of block gaps detected
+     *
+     * @return                      Gap count
+     */
+    long getGapCount() {
+        return gapCount.get();
+    }
+
+    /**
+     * Return the number of missing blocks added after a block gap
+     *
+     * @return                      Block count
+     */
+    long getBackfilledBlocks() {
+        return backfilledBlocks.get();
+    }
+
+    /**
+     * Return the number of peer table corrections
+     *
+     * @return                      Correction count
+     */
+    long getPeerCorrections() {
+        return peerCorrections.get();
+    }
+
+    /**
+     * Return the time needed to recover from the last connection failure
+     *
+     * @return                      Recovery time (milliseconds)
+     */
+    long getLastRecoveryTime() {
+        return lastRecoveryTime;
+    }
+
+    /**
+     * Return the total time needed to recover from connection failures
+     *
+     * @return                      Recovery time (milliseconds)
+     */
+    long getTotalRecoveryTime() {
+        return totalRecoveryTime.get();
+    }
+
+    /**
+     * Return the time from starting the monitor until the tables were first displayed.
+     * The tables are first displayed using the saved snapshot if there is one.
+     *
+     * @return                      Time to first render (milliseconds) or 0 if the
+     *                              tables have not been displayed yet
+     */
+    long getFirstRenderTime() {
+        return firstRenderTime;
+    }
+
+    /**
+     * Return the time from starting the monitor until the server state was loaded
+     *
+     * @return                      Time to live (milliseconds) or 0 if the server
+     *                              state has not been loaded yet
+     */
+    long getLiveTime() {
+        return liveTime;
+    }
+
+    /**
+     * Return the maximum divergence from the chains of the other servers
+     *
+     * @return                      Number of blocks since the last common block or 0 if
+     *                              the server is on the same chain as the other servers
+     */
+    int getForkDepth() {
+        return forkDepth;
+    }
+
+    /**
+     * Set the maximum divergence from the chains of the other servers
+     *
+     * The monitor listeners are notified if the divergence has changed
+     *
+     * @param       depth           Number of blocks since the last common block
+     */
+    void setForkDepth(int depth) {
+        if (depth != forkDepth) {
+            forkDepth = depth;
+            runLater(() -> listeners.forEach(listener -> listener.monitorUpdated(this)));
+        }
+    }
+
+    /**
+     * Check if the tables are showing a saved snapshot instead of the current server state
+     *
+     * @return                      TRUE if the tables are showing a snapshot
+     */
+    boolean isStale() {
+        return (snapshotTime != 0);
+    }
+
+    /**
+     * Return the time of the saved snapshot shown in the tables
+     *
+     * @return                      Snapshot time (milliseconds since the epoch) or 0
+     *                              if the tables are not showing a snapshot
+     */
+    long getSnapshotTime() {
+        return snapshotTime;
+    }
+
+    /**
+     * Save a snapshot of the block and connection tables
+     *
+     * Nothing is saved until the server state has been loaded, so the previous
+     * snapshot is kept if we were never able to connect to the server.
+     */
+    void saveSnapshot() {
+        if (!loaded)
+            return;
+        try {
+            MonitorSnapshot[] saved = new MonitorSnapshot[1];
+            runAndWait(() -> {
+                List<Response> peers = new ArrayList<>();
+                connectionTableModel.getPeers().forEach(peer ->
+                        peers.add(new Response(new HashMap<>(peer.getObjectMap()))));
+                saved[0] = new MonitorSnapshot(System.currentTimeMillis(),
+                                               blockTableModel.getBlocks(), peers);
+            });
+            saved[0].save(connection);
+        } catch (IOException | InvocationTargetException exc) {
+            Main.log.error(String.format("Unable to save snapshot for %s", connection.getHost()), exc);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Add a monitor listener
+     *
+     * @param       listener        Monitor listener
+     */
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Start the event handler
+     */
+    void start() {
+        startTime = System.nanoTime();
+        Thread eventThread = new Thread(this,
+                String.format("Nxt Event Handler [%s]:%d", connection.getHost(), connection.getPort()));
+        eventThread.setDaemon(true);
+        eventThread.start();
+        reconcileTask = reconcileTimer.scheduleWithFixedDelay(() -> reconcilePeers(),
+                PEER_RECONCILE_INTERVAL, PEER_RECONCILE_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Shutdown server status updates
+     */
+    void shutdown() {
+        shutdown = true;
+        ScheduledFuture<?> task = reconcileTask;
+        if (task != null)
+            task.cancel(false);
+        scheduler.shutdownNow();
+        if (metricStore != null)
+            metricStore.close();
+        //
+        // Cancel our event listener (this will cause the event wait to complete)
+        //
+        if (eventToken != 0) {
+            try {
+                nodeClient.eventRegister(Collections.emptyList(), eventToken, false, true);
+            } catch (IOException exc) {
+                Main.log.error(String.format("Unable to cancel event listener for %s", connection.getHost()), exc);
+            }
+        }
+    }
+
+    /**
+     * Process server events
+     *
+     * The table model changes for each event wait are collected in an event batch
+     * which is then queued for the update thread.  The event handler thread does
+     * not wait for the batch to be applied.  The peers and blocks referenced by the
+     * events are fetched in parallel using the worker pool.
+     *
+     * The monitor reconnects to the server when a request fails.  The delay between
+     * reconnect attempts is doubled after each failure up to the maximum delay.
+     */
+    @Override
+    public void run() {
+        List<String> pendingConnections = new ArrayList<>();
+        long reconnectDelay = MIN_RECONNECT_DELAY;
+        long failureTime = 0;
+        boolean failureReported = false;
+        try {
+            metricStore = new MetricStore(Main.getDataFile("Metrics", connection));
+        } catch (IOException exc) {
+            Main.log.error(String.format("Unable to open metric store for %s", connection.getHost()), exc);
+        }
+        loadSnapshot();
+        while (!shutdown) {
+            try {
+                //
+                // Connect to the server
+                //
+                if (status == Status.CONNECTING) {
+                    connect();
+                } else if (status == Status.RECONNECTING) {
+                    reconnect(failureTime, pendingConnections);
+                    reconnectDelay = MIN_RECONNECT_DELAY;
+                }
+                //
+                // Wait for an event
+                //
+                List<Event> eventList = nodeClient.eventWait(eventToken, 60);
+                if (shutdown)
+                    break;
+                processEvents(eventList, pendingConnections);
+                continue;
+            } catch (IOException exc) {
+                if (shutdown)
+                    break;
+                if (status == Status.ACTIVE) {
+                    failureTime = System.currentTimeMillis();
+                    status = Status.RECONNECTING;
+                    Main.log.error(String.format("Connection to %s lost, reconnecting", connection.getHost()), exc);
+                    runLater(() -> listeners.forEach(listener -> listener.monitorUpdated(this)));
+                } else if (status == Status.CONNECTING && !failureReported) {
+                    failureReported = true;
+                    String text = String.format("Unable to get server state for %s", connection.getHost());
+                    Main.log.error(text, exc);
+                    Main.logException(text, exc);
+                } else {
+                    Main.log.debug(String.format("Unable to connect to %s: %s", connection.getHost(), exc.getMessage()));
+                }
+            } catch (InterruptedException exc) {
+                break;
+            } catch (Exception exc) {
+                if (shutdown)
+                    break;
+                Main.log.error("Exception while processing server event", exc);
+                Main.logException("Exception while processing server event", exc);
+                if (status == Status.ACTIVE)
+                    continue;
+            }
+            //
+            // Wait before trying to connect again
+            //
+            try {
+                Thread.sleep(reconnectDelay);
+            } catch (InterruptedException exc) {
+                break;
+            }
+            reconnectDelay = Math.min(reconnectDelay*2, MAX_RECONNECT_DELAY);
+        }
+    }
+
+    /**
+     * Show the saved snapshot until the server state has been loaded
+     */
+    private void loadSnapshot() {
+        long startTime = System.nanoTime();
+        MonitorSnapshot loadedSnapshot = MonitorSnapshot.load(connection);
+        if (loadedSnapshot == null)
+            return;
+        Main.log.info(String.format("Loaded snapshot for %s: %d blocks, %d peers in %.1f ms",
+                connection.getHost(), loadedSnapshot.getBlocks().size(), loadedSnapshot.getPeers().size(),
+                (System.nanoTime()-startTime)/1.0e6));
+        snapshot = loadedSnapshot;
+        snapshotTime = loadedSnapshot.getSnapshotTime();
+        chainHeight = loadedSnapshot.getChainHeight();
+        runLater(() -> {
+            blockTableModel.blocksAdded(loadedSnapshot.getBlocks());
+            connectionTableModel.peersAdded(loadedSnapshot.getPeers());
+            peerCounts = connectionTableModel.getPeerCounts();
+            if (firstRenderTime == 0)
+                firstRenderTime = getElapsedTime();
+            listeners.forEach(listener -> listener.monitorUpdated(this));
+        });
+    }
+
+    /**
+     * Get the initial server status and register our events
+     *
+     * We register our events before getting the server state so we don't miss any
+     * changes.  The blocks and the connected peers are then requested at the same
+     * time.  Events that occur while the server state is being loaded are held by
+     * the server until the next event wait, which is not done until the tables have
+     * been loaded.  Duplicate blocks and peers are ignored by the table models.
+     *
+     * The tables are rebuilt if they are showing a saved snapshot.  The blocks added
+     * since the snapshot was taken are fetched so there is no gap in the block table.
+     * The snapshot blocks are discarded if the server chain does not include them.
+     *
+     * @throws  IOException         Unable to get the server status
+     * @throws  InterruptedException The event handler was interrupted
+     * @throws  InvocationTargetException Unable to update the table models
+     */
+    private void connect() throws IOException, InterruptedException, InvocationTargetException {
+        //
+        // Register our events, discarding the registration from a failed attempt
+        //
+        if (eventToken != 0) {
+            try {
+                nodeClient.eventRegister(Collections.emptyList(), eventToken, false, true);
+            } catch (IOException exc) {
+                // Ignore the failure since the server will discard the registration
+            }
+            eventToken = 0;
+        }
+        eventToken = nodeClient.eventRegister(EVENT_LIST, 0, false, false).getLong("token");
+        //
+        // Get the connected peers and the last 25 blocks or the blocks added since the snapshot
+        //
+        Future<List<Response>> peerRequest =
+                scheduler.submit(Priority.EVENT, () -> nodeClient.getPeers(State.CONNECTED.name()));
+        MonitorSnapshot staleSnapshot = snapshot;
+        List<Response> blockList = getRecentBlocks(staleSnapshot != null ? staleSnapshot.getChainHeight() : 0);
+        List<Response> peerList = getResult(peerRequest);
+        reorgTracker.blocksLoaded(blockList);
+        chainHeight = (blockList.isEmpty() ? 0 : blockList.get(0).getInt("height"));
+        if (!blockList.isEmpty())
+            lastBlockTimestamp = blockList.get(0).getLong("timestamp");
+        if (blockList.size() > 1)
+            blockInterval = lastBlockTimestamp - blockList.get(1).getLong("timestamp");
+        //
+        // Update the status panel.  We wait for the update to complete so that
+        // the first event batch is applied to the loaded tables.
+        //
+        status = Status.ACTIVE;
+        snapshot = null;
+        boolean overlaps = (staleSnapshot != null && staleSnapshot.overlaps(blockList));
+        runAndWait(() -> {
+            if (staleSnapshot == null) {
+                blockTableModel.blocksAdded(blockList);
+                connectionTableModel.peersAdded(peerList);
+            } else {
+                if (overlaps)
+                    blockTableModel.blocksRecovered(blockList);
+                else
+                    blockTableModel.blocksReplaced(blockList);
+                connectionTableModel.peersRecovered(peerList);
+            }
+            peerCounts = connectionTableModel.getPeerCounts();
+            snapshotTime = 0;
+            loaded = true;
+            liveTime = getElapsedTime();
+            if (firstRenderTime == 0)
+                firstRenderTime = liveTime;
+            listeners.forEach(listener -> listener.monitorUpdated(this));
+        });
+        Main.log.info(String.format("Startup for %s: time to first render %,d ms, time to live %,d ms",
+                connection.getHost(), firstRenderTime, liveTime));
+    }
+
+    /**
+     * Reconnect to the server after a failure
+     *
+     * The existing event registration is used if the server still has it, since no
+     * events have been lost in that case.  Otherwise, we register our events again and
+     * then rebuild the block and connection tables.  The blocks added while we were
+     * disconnected are fetched as a single block range.  The range includes blocks we
+     * already have so that blocks replaced by a chain reorganization are detected.
+     *
+     * @param   failureTime         Time of the connection failure
+     * @param   pendingConnections  List of pending connections
+     * @throws  IOException         Unable to reconnect to the server
+     * @throws  InterruptedException The event handler was interrupted
+     * @throws  InvocationTargetException Unable to update the table models
+     */
+    private void reconnect(long failureTime, List<String> pendingConnections)
+                                throws IOException, InterruptedException, InvocationTargetException {
+        //
+        // Resume the existing event registration
+        //
+        if (eventToken != 0) {
+            try {
+                List<Event> eventList = nodeClient.eventWait(eventToken, 0);
+                status = Status.ACTIVE;
+                recovered(failureTime, 0, true);
+                processEvents(eventList, pendingConnections);
+                return;
+            } catch (NodeClient.RequestException exc) {
+                Main.log.info(String.format("Event registration for %s is no longer valid", connection.getHost()));
+                eventToken = 0;
+            }
+        }
+        //
+        // Register our events before getting the server state so we don't miss
+        // any changes.  Duplicate blocks and peers are ignored by the table models.
+        //
+        eventToken = nodeClient.eventRegister(EVENT_LIST, 0, false, false).getLong("token");
+        pendingConnections.clear();
+        //
+        // Get the connected peers and the blocks added since the last block we received
+        //
+        Future<List<Response>> peerRequest =
+                scheduler.submit(Priority.EVENT, () -> nodeClient.getPeers(State.CONNECTED.name()));
+        List<Response> blockList = getRecentBlocks(chainHeight);
+        List<Response> peerList = getResult(peerRequest);
+        reorgTracker.blocksLoaded(blockList);
+        if (!blockList.isEmpty()) {
+            chainHeight = blockList.get(0).getInt("height");
+            lastBlockTimestamp = blockList.get(0).getLong("timestamp");
+        }
+        //
+        // Rebuild the table models.  We wait for the update to complete so that
+        // later event batches are applied to the rebuilt tables.
+        //
+        status = Status.ACTIVE;
+        int[] addedCount = new int[1];
+        runAndWait(() -> {
+            addedCount[0] = blockTableModel.blocksRecovered(blockList);
+            connectionTableModel.peersRecovered(peerList);
+            peerCounts = connectionTableModel.getPeerCounts();
+            listeners.forEach(listener -> listener.monitorUpdated(this));
+        });
+        recovered(failureTime, addedCount[0], false);
+    }
+
+    /**
+     * Get the blocks added since the specified height
+     *
+     * The blocks are fetched as a single block range ending at the server chain head.
+     * The range includes blocks we already have so that blocks replaced by a chain
+     * reorganization are detected.  The first request returns the chain head and
+     * the rest of the range is then requested at the same time.
+     *
+     * @param   height              Chain height or 0 to get the last 25 blocks
+     * @return                      Block list ordered from the newest block to the oldest block
+     * @throws  IOException         Unable to get the blocks
+     * @throws  InterruptedException The event handler was interrupted
+     */
+    private List<Response> getRecentBlocks(int height) throws IOException, InterruptedException {
+        List<Response> blockList = new ArrayList<>(nodeClient.getBlocks(0,
+                (height != 0 ? BLOCKS_PER_REQUEST : 25)-1, false));
+        if (blockList.isEmpty())
+            return blockList;
+        int headHeight = blockList.get(0).getInt("height");
+        int blockCount = (height != 0 ? headHeight-height+RECOVERY_OVERLAP : 25);
+        blockCount = Math.max(1, Math.min(blockCount, Main.blockHistory));
+        List<Future<List<Response>>> chunkRequests = new ArrayList<>();
+        for (int index=blockList.size(); index<blockCount; index+=BLOCKS_PER_REQUEST) {
+            int firstIndex = index;
+            chunkRequests.add(scheduler.submit(Priority.EVENT,
+                    () -> nodeClient.getBlocks(firstIndex, firstIndex+BLOCKS_PER_REQUEST-1, false)));
+        }
+        for (Future<List<Response>> chunkRequest : chunkRequests)
+            blockList.addAll(getResult(chunkRequest));
+        if (blockList.size() > blockCount)
+            blockList.subList(blockCount, blockList.size()).clear();
+        return blockList;
+    }
+
+    /**
+     * Return the time since the monitor was started
+     *
+     * @return                      Elapsed time (milliseconds)
+     */
+    private long getElapsedTime() {
+        return Math.max((System.nanoTime()-startTime)/1000000, 1);
+    }
+
+    /**
+     * Record the recovery metrics after reconnecting to the server
+     *
+     * @param   failureTime         Time of the connection failure
+     * @param   missedCount         Number of blocks added after reconnecting
+     * @param   resumed             TRUE if the existing event registration was used
+     */
+    private void recovered(long failureTime, int missedCount, boolean resumed) {
+        long recoveryTime = System.currentTimeMillis() - failureTime;
+        lastRecoveryTime = recoveryTime;
+        totalRecoveryTime.addAndGet(recoveryTime);
+        missedBlockCount.addAndGet(missedCount);
+        reconnectCount.incrementAndGet();
+        Main.log.info(String.format("Reconnected to %s after %,d ms: %s, %d missed blocks",
+                connection.getHost(), recoveryTime,
+                (resumed ? "event registration resumed" : "server state reloaded"), missedCount));
+        if (resumed)
+            runLater(() -> listeners.forEach(listener -> listener.monitorUpdated(this)));
+    }
+
+    /**
+     * Process the events returned by an event wait
+     *
+     * @param   eventList           Event list
+     * @param   pendingConnections  List of pending connections
+     * @throws  IOException         Unable to get a peer
+     * @throws  InterruptedException The event handler was interrupted
+     */
+    private void processEvents(List<Event> eventList, List<String> pendingConnections)
+                                throws IOException, InterruptedException {
+        eventCount.addAndGet(eventList.size());
+        //
+        // Add pending connections to the event list
+        //
+        if (!pendingConnections.isEmpty()) {
+            pendingConnections.forEach(address ->
+                eventList.add(new Event("Peer.ADD_ACTIVE_PEER", address)));
+            pendingConnections.clear();
+        }
+        //
+        // Start fetching the peers and blocks for the events
+        //
+        Map<String, Future<Response>> peerRequests = new HashMap<>();
+        Map<String, Future<Response>> blockRequests = new HashMap<>();
+        for (Event event : eventList) {
+            String eventId = event.getIds().get(0);
+            switch (event.getName()) {
+                case "Peer.ADD_ACTIVE_PEER":
+                    peerRequests.computeIfAbsent(peerRequestKey(eventId, true),
+                            key -> peerCache.getPeer(eventId, true));
+                    break;
+                case "Peer.CHANGE_ANNOUNCED_ADDRESS":
+                case "Peer.CHANGE_ACTIVE_PEER":
+                    //
+                    // The state of a known peer is updated from the event, so the peer
+                    // is fetched only if it might need to be added to the connection table
+                    //
+                    if (!peerRequests.containsKey(peerRequestKey(eventId, true))
+                            && getPeerChange(null, eventId) == null) {
+                        peerRequests.computeIfAbsent(peerRequestKey(eventId, false), key -> {
+                            peerCache.invalidate(eventId);
+                            return peerCache.getPeer(eventId, false);
+                        });
+                    }
+                    break;
+                case "Peer.BLACKLIST":
+                case "Peer.UNBLACKLIST":
+                    peerCache.invalidate(eventId);
+                    break;
+                case "Block.BLOCK_PUSHED":
+                    blockRequests.computeIfAbsent(eventId,
+                            blockId -> scheduler.submit(Priority.EVENT, () -> nodeClient.getBlock(blockId, false)));
+                    break;
+            }
+        }
+        publishBatch(buildBatch(eventList, peerRequests, blockRequests, pendingConnections));
+    }
+
+    /**
+     * Build the event batch for an event list
+     *
+     * @param   eventList           Event list
+     * @param   peerRequests        Peer requests for the events
+     * @param   blockRequests       Block requests for the events
+     * @param   pendingConnections  List of pending connections
+     * @return                      Event batch
+     * @throws  IOException         Unable to get a peer
+     * @throws  InterruptedException The event handler was interrupted
+     */
+    EventBatch buildBatch(List<Event> eventList, Map<String, Future<Response>> peerRequests,
+                          Map<String, Future<Response>> blockRequests, List<String> pendingConnections)
+                                throws IOException, InterruptedException {
+        EventBatch batch = new EventBatch();
+        for (Event event : eventList) {
+            String eventId = event.getIds().get(0);
+            Response peer;
+            EventBatch.PeerChange change;
+            switch (event.getName()) {
+                case "Peer.ADD_ACTIVE_PEER":
+                    peer = getPeer(peerRequests.get(peerRequestKey(eventId, true)), eventId);
+                    if (peer != null && State.fromCode(peer.getInt("state")) == State.CONNECTED)
+                        addPeer(batch, peer, pendingConnections);
+                    break;
+                case "Peer.CHANGE_ACTIVE_PEER":
+                case "Peer.CHANGE_ANNOUNCED_ADDRESS":
+                    change = getPeerChange(batch, eventId);
+                    if (change != null) {
+                        batch.peerUpdated(change.getAddress(),
+                                change.getState() == State.CONNECTED ? State.DISCONNECTED : State.CONNECTED,
+                                false);
+                    } else {
+                        Future<Response> peerRequest = peerRequests.computeIfAbsent(peerRequestKey(eventId, false),
+                                key -> peerCache.getPeer(eventId, false));
+                        peer = getPeer(peerRequest, eventId);
+                        if (peer != null && State.fromCode(peer.getInt("state")) == State.CONNECTED)
+                            addPeer(batch, peer, pendingConnections);
+                    }
+                    break;
+                case "Peer.BLACKLIST":
+                    change = getPeerChange(batch, eventId);
+                    if (change != null)
+                        batch.peerUpdated(change.getAddress(), State.DISCONNECTED, true);
+                    break;
+                case "Peer.UNBLACKLIST":
+                    change = getPeerChange(batch, eventId);
+                    if (change != null)
+                        batch.peerUpdated(change.getAddress(), change.getState(), false);
+                    break;
+                case "Block.BLOCK_PUSHED":
+                    try {
+                        Response block = getResult(blockRequests.get(eventId));
+                        batch.blockPushed(block.getId("block"), block);
+                        chainHeight = block.getInt("height");
+                        long timestamp = block.getLong("timestamp");
+                        boolean intervalKnown = (lastBlockTimestamp != 0 && timestamp > lastBlockTimestamp);
+                        if (intervalKnown)
+                            blockInterval = timestamp - lastBlockTimestamp;
+                        lastBlockTimestamp = timestamp;
+                        blocksPushed.incrementAndGet();
+                        ReorgTracker.Episode episode = reorgTracker.blockPushed(block);
+                        if (episode != null)
+                            Main.log.info(String.format(
+                                    "Chain reorganization on %s at height %d: depth %d, %d blocks popped, "
+                                    + "%d blocks pushed, %,d ms, orphaned generators %s",
+                                    connection.getHost(), episode.getStartHeight(), episode.getDepth(),
+                                    episode.getPoppedBlocks().size(), episode.getPushedBlocks().size(),
+                                    episode.getDuration(), episode.getOrphanedGenerators()));
+                        MetricStore store = metricStore;
+                        if (store != null) {
+                            long now = System.currentTimeMillis();
+                            store.record(MetricStore.Series.CHAIN_HEIGHT, now, chainHeight);
+                            store.record(MetricStore.Series.TRANSACTIONS, now, block.getInt("numberOfTransactions"));
+                            if (intervalKnown)
+                                store.record(MetricStore.Series.BLOCK_INTERVAL, now, blockInterval);
+                        }
+                    } catch (IOException exc) {
+                        Main.log.error("Unable to get block", exc);
+                    } catch (IdentifierException exc) {
+                        // Ignore the block
+                    }
+                    break;
+                case "Block.BLOCK_POPPED":
+                    batch.blockPopped(Utils.stringToId(eventId));
+                    if (reorgTracker.blockPopped(eventId, chainHeight))
+                        Main.log.warn(String.format(
+                                "Chain reorganization on %s has reached depth %d below height %d",
+                                connection.getHost(), reorgTracker.getAlertDepth(),
+                                reorgTracker.getCurrentEpisode().getStartHeight()));
+                    chainHeight = Math.max(chainHeight-1, 0);
+                    blocksPopped.incrementAndGet();
+                    break;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Return the result of a worker request
+     *
+     * @param   <T>                 Request result type
+     * @param   future              Worker request
+     * @return                      Request result
+     * @throws  IOException         Unable to complete the request
+     * @throws  InterruptedException The request was interrupted
+     */
+    private static <T> T getResult(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException exc) {
+            Throwable cause = exc.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            throw new IOException("Unable to complete server request", cause);
+        }
+    }
+
+    /**
+     * Wait for a peer request to complete
+     *
+     * The server returns an error if the peer was removed after the event was
+     * generated.  The peer is skipped in this case since the server is still
+     * reachable.
+     *
+     * @param   future              Peer request
+     * @param   address             Peer network address
+     * @return                      Peer or null if the server did not return the peer
+     * @throws  IOException         Unable to communicate with the server
+     * @throws  InterruptedException The event handler was interrupted
+     */
+    private Response getPeer(Future<Response> future, String address) throws IOException, InterruptedException {
+        try {
+            return getResult(future);
+        } catch (NodeClient.RequestException exc) {
+            Main.log.debug(String.format("Unable to get peer %s from %s: %s",
+                                         address, connection.getHost(), exc.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Return the key for a peer request in the event list
+     *
+     * A peer is requested separately for a new active peer since a cached peer
+     * must be connected in that case
+     *
+     * @param   address             Peer network address
+     * @param   requireActive       TRUE if a cached peer must be connected
+     * @return                      Request key
+     */
+    static String peerRequestKey(String address, boolean requireActive) {
+        return (requireActive ? "active:" : "") + address;
+    }
+
+    /**
+     * Add a new peer to the event batch
+     *
+     * A peer without a version is still completing its handshake and will be
+     * retried after the next event wait.
+     *
+     * @param   batch               Event batch
+     * @param   peer                Peer
+     * @param   pendingConnections  List of pending connections
+     */
+    private void addPeer(EventBatch batch, Response peer, List<String> pendingConnections) {
+        String address = peer.getString("address");
+        if (peer.getString("version").isEmpty()) {
+            if (!pendingConnections.contains(address))
+                pendingConnections.add(address);
+        } else {
+            batch.peerAdded(peer);
+        }
+    }
+
+    /**
+     * Return the current state of a peer, including changes that are in the current batch
+     * or in queued batches that have not been applied to the connection table yet
+     *
+     * @param   batch               Event batch or null if there is no current batch
+     * @param   address             Peer network address
+     * @return                      Peer state or null if the peer is not in the connection table
+     */
+    private EventBatch.PeerChange getPeerChange(EventBatch batch, String address) {
+        EventBatch.PeerChange change = (batch != null ? batch.getPeerChange(address) : null);
+        if (change == null) {
+            for (EventBatch queuedBatch : batchQueue) {
+                EventBatch.PeerChange queuedChange = queuedBatch.getPeerChange(address);
+                if (queuedChange != null)
+                    change = queuedChange;
+            }
+        }
+        if (change == null) {
+            Response peer = connectionTableModel.getPeer(address);
+            if (peer != null)
+                change = new EventBatch.PeerChange(address, State.fromCode(peer.getInt("state")),
+                                                   peer.getBoolean("blacklisted"));
+        }
+        return change;
+    }
+
+    /**
+     * Queue an event batch for the update thread
+     *
+     * A single update is scheduled no matter how many batches are queued
+     *
+     * @param   batch               Event batch
+     */
+    private void publishBatch(EventBatch batch) {
+        if (!batch.isEmpty()) {
+            batch.setSequence(batchSequence.incrementAndGet());
+            batchQueue.add(batch);
+        }
+        if (batchScheduled.compareAndSet(false, true))
+            runLater(() -> applyBatches());
+    }
+
+    /**
+     * Run a table model update on the update thread
+     *
+     * The update thread is the AWT event thread unless the monitor is running
+     * in headless mode.
+     *
+     * @param   runnable            Table model update
+     */
+    private static void runLater(Runnable runnable) {
+        if (Main.headless)
+            headlessExecutor.execute(runnable);
+        else
+            SwingUtilities.invokeLater(runnable);
+    }
+
+    /**
+     * Run a table model update on the update thread and wait for it to complete
+     *
+     * The update is run immediately if the caller is already running on the update thread.
+     *
+     * @param   runnable            Table model update
+     * @throws  InterruptedException The wait was interrupted
+     * @throws  InvocationTargetException The update failed
+     */
+    static void runAndWait(Runnable runnable) throws InterruptedException, InvocationTargetException {
+        if (Main.headless) {
+            try {
+                headlessExecutor.submit(runnable).get();
+            } catch (ExecutionException exc) {
+                throw new InvocationTargetException(exc.getCause());
+            }
+        } else if (SwingUtilities.isEventDispatchThread()) {
+            runnable.run();
+        } else {
+            SwingUtilities.invokeAndWait(runnable);
+        }
+    }
+
+    /**
+     * Apply the queued event batches to the table models (update thread)
+     *
+     * A batch is not removed from the queue until it has been applied so the
+     * event handler thread always sees the latest peer state.
+     */
+    private void applyBatches() {
+        batchScheduled.set(false);
+        EventBatch batch;
+        while ((batch = batchQueue.peek()) != null) {
+            blockTableModel.blocksChanged(batch);
+            connectionTableModel.peersChanged(batch.getPeerChanges());
+            if (reconcilePending.get()) {
+                long sequence = batch.getSequence();
+                batch.getPeerChanges().forEach(change -> reconcileChanges.put(change.getAddress(), sequence));
+            }
+            batchQueue.remove();
+        }
+        List<int[]> gaps = blockTableModel.getGaps();
+        if (!gaps.isEmpty())
+            backfill(gaps);
+        connectionTableModel.peersExpired();
+        peerCounts = connectionTableModel.getPeerCounts();
+        MetricStore store = metricStore;
+        if (store != null)
+            store.record(MetricStore.Series.PEERS, System.currentTimeMillis(), connectionTableModel.getActiveCount());
+        listeners.forEach(listener -> listener.monitorUpdated(this));
+    }
+
+    /**
+     * Fetch the blocks missing from the block table (update thread)
+     *
+     * Height ranges that are close together are merged and the result is split into
+     * chunks that fit in a single getBlocks request.  Each chunk is fetched at
+     * background priority and inserted into the block table when it is received.
+     *
+     * @param   gaps                Missing height ranges (first height, last height)
+     */
+    private void backfill(List<int[]> gaps) {
+        gapCount.addAndGet(gaps.size());
+        gaps.sort((g1, g2) -> Integer.compare(g1[0], g2[0]));
+        List<int[]> ranges = new ArrayList<>();
+        int[] range = null;
+        for (int[] gap : gaps) {
+            if (range != null && gap[0] <= range[1]+GAP_MERGE) {
+                range[1] = Math.max(range[1], gap[1]);
+            } else {
+                range = new int[] {gap[0], gap[1]};
+                ranges.add(range);
+            }
+        }
+        for (int[] gap : ranges) {
+            Main.log.info(String.format("Blocks %d to %d are missing from %s, fetching them from the server",
+                                        gap[0], gap[1], connection.getHost()));
+            backfillRange(gap[0], gap[1], 1);
+        }
+    }
+
+    /**
+     * Queue the requests for a missing height range
+     *
+     * @param   firstHeight         First missing height
+     * @param   lastHeight          Last missing height
+     * @param   attempt             Request attempt
+     */
+    private void backfillRange(int firstHeight, int lastHeight, int attempt) {
+        for (int first=firstHeight; first<=lastHeight; first+=BLOCKS_PER_REQUEST) {
+            int chunkFirst = first;
+            int chunkLast = Math.min(first+BLOCKS_PER_REQUEST-1, lastHeight);
+            try {
+                scheduler.submit(Priority.BACKGROUND, () -> {
+                    backfillChunk(chunkFirst, chunkLast, attempt);
+                    return null;
+                });
+            } catch (RejectedExecutionException exc) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fetch a chunk of missing blocks (scheduler thread)
+     *
+     * The blocks are inserted into the block table on the update thread.  Any
+     * height that is still missing from the table is requested again until the
+     * request attempts are used up.
+     *
+     * @param   firstHeight         First missing height
+     * @param   lastHeight          Last missing height
+     * @param   attempt             Request attempt
+     */
+    private void backfillChunk(int firstHeight, int lastHeight, int attempt) {
+        List<Response> blocks;
+        try {
+            blocks = getBlockRange(firstHeight, lastHeight);
+        } catch (IOException exc) {
+            Main.log.error(String.format("Unable to get blocks %d to %d from %s",
+                                         firstHeight, lastHeight, connection.getHost()), exc);
+            blocks = Collections.emptyList();
+        }
+        List<Response> received = blocks;
+        runLater(() -> {
+            int added = blockTableModel.blocksInserted(received);
+            if (added != 0) {
+                backfilledBlocks.addAndGet(added);
+                listeners.forEach(listener -> listener.monitorUpdated(this));
+            }
+            List<int[]> missing = blockTableModel.getMissingHeights(firstHeight, lastHeight);
+            if (missing.isEmpty() || shutdown)
+                return;
+            if (attempt < BACKFILL_ATTEMPTS) {
+                missing.forEach(gap -> backfillRange(gap[0], gap[1], attempt+1));
+            } else {
+                missing.forEach(gap -> Main.log.warn(String.format(
+                        "Unable to get blocks %d to %d from %s after %d attempts",
+                        gap[0], gap[1], connection.getHost(), attempt)));
+            }
+        });
+    }
+
+    /**
+     * Get the blocks in a height range (scheduler thread)
+     *
+     * The server returns blocks by index from its chain head.  The indexes are
+     * computed from the current chain height when the request is issued.  The
+     * request is repeated using the chain head of the returned blocks if the
+     * server chain has grown in the meantime.
+     *
+     * @param   firstHeight         First height
+     * @param   lastHeight          Last height
+     * @return                      Blocks in the height range
+     * @throws  IOException         Unable to get the blocks
+     */
+    private List<Response> getBlockRange(int firstHeight, int lastHeight) throws IOException {
+        int headHeight = chainHeight;
+        List<Response> blocks = Collections.emptyList();
+        for (int i=0; i<2; i++) {
+            int firstIndex = Math.max(headHeight-lastHeight, 0);
+            int lastIndex = Math.max(headHeight-firstHeight, firstIndex);
+            blocks = nodeClient.getBlocks(firstIndex, lastIndex, false);
+            if (blocks.isEmpty())
+                break;
+            int responseHead = blocks.get(0).getInt("height") + firstIndex;
+            if (responseHead == headHeight)
+                break;
+            headHeight = responseHead;
+        }
+        List<Response> rangeBlocks = new ArrayList<>(blocks.size());
+        blocks.forEach(block -> {
+            int height = block.getInt("height");
+            if (height >= firstHeight && height <= lastHeight)
+                rangeBlocks.add(block);
+        });
+        return rangeBlocks;
+    }
+
+    /**
+     * Reconcile the connection table with the server (reconciliation timer)
+     *
+     * The connected peers are requested at background priority so the reconciliation
+     * does not delay event processing.  Event batches queued after the request was
+     * issued can be applied before the differences, so the peers changed by those
+     * batches are not corrected since the peer list is older than the table.  The
+     * reconciliation is discarded if the monitor reconnects to the server.
+     */
+    private void reconcilePeers() {
+        if (status != Status.ACTIVE || !loaded || !reconcilePending.compareAndSet(false, true))
+            return;
+        try {
+            scheduler.submit(Priority.BACKGROUND, () -> {
+                long startSequence = batchSequence.get();
+                long startReconnects = reconnectCount.get();
+                List<Response> peerList;
+                try {
+                    peerList = nodeClient.getPeers(State.CONNECTED.name());
+                } catch (IOException exc) {
+                    Main.log.debug(String.format("Unable to reconcile peers for %s: %s", connection.getHost(), exc));
+                    peerList = null;
+                }
+                List<Response> receivedList = peerList;
+                runLater(() -> {
+                    Set<String> changedPeers = new HashSet<>();
+                    reconcileChanges.forEach((address, sequence) -> {
+                        if (sequence > startSequence)
+                            changedPeers.add(address);
+                    });
+                    reconcileChanges.clear();
+                    reconcilePending.set(false);
+                    if (receivedList == null || status != Status.ACTIVE ||
+                            reconnectCount.get() != startReconnects)
+                        return;
+                    int count = connectionTableModel.peersReconciled(receivedList, changedPeers);
+                    if (count == 0)
+                        return;
+                    peerCorrections.addAndGet(count);
+                    peerCounts = connectionTableModel.getPeerCounts();
+                    Main.log.info(String.format("Corrected %d peers in the connection table for %s",
+                                                count, connection.getHost()));
+                    listeners.forEach(listener -> listener.monitorUpdated(this));
+                });
+                return null;
+            });
+        } catch (RejectedExecutionException exc) {
+            // Request queue is full or the monitor is shutting down
+            reconcilePending.set(false);
+        }
+    }
+}
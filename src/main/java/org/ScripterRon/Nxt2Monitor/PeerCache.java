@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2Monitor.StatusPanel.State;
+
+import org.ScripterRon.Nxt2API.Response;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * PeerCache holds the getPeer requests for a server.  A request for a peer that is
+ * already being fetched is merged with the request in progress.  A completed request
+ * is reused until its time-to-live expires.
+ *
+ * The connection table tracks the peer state using the peer events, so the peer
+ * details are only requested for a peer that is not in the connection table.  A
+ * state change for a peer that is already in the table does not send a request.
+ * A cached peer is not used for a new active peer unless the cached peer is
+ * connected and has completed its handshake.  The cached peer is discarded when
+ * the connection state or announced address of a peer that is not in the table
+ * changes, or when the blacklist status of any peer changes.  A request that is
+ * still in progress is kept since it was issued after the change.  Failed requests
+ * are not cached.
+ *
+ * Each caller receives its own copy of the peer, so changes made to the peer by the
+ * event batch or the connection table are not seen by the cache.
+ *
+ * The cache counters are updated while holding the cache lock and can be read
+ * without the lock.
+ */
+class PeerCache {
+
+    /** Server client */
+    private final NodeClient nodeClient;
+
+    /** Request scheduler */
+    private final RequestScheduler scheduler;
+
+    /** Time-to-live (nanoseconds) */
+    private final long timeToLive;
+
+    /** Peer requests ordered by request time */
+    private final Map<String, Entry> entryMap = new LinkedHashMap<>();
+
+    /** Number of requests satisfied from the cache */
+    private volatile long hitCount;
+
+    /** Number of requests sent to the server */
+    private volatile long missCount;
+
+    /** Number of requests merged with a request in progress */
+    private volatile long mergeCount;
+
+    /**
+     * Create the peer cache
+     *
+     * @param       nodeClient      Server client
+     * @param       scheduler       Request scheduler
+     * @param       timeToLive      Time-to-live (milliseconds)
+     */
+    PeerCache(NodeClient nodeClient, RequestScheduler scheduler, long timeToLive) {
+        this.nodeClient = nodeClient;
+        this.scheduler = scheduler;
+        this.timeToLive = timeToLive * 1000000;
+    }
+
+    /**
+     * Get a peer
+     *
+     * @param       address         Peer network address
+     * @param       requireActive   TRUE if a cached peer must be connected
+     * @return                      Peer request
+     */
+    synchronized Future<Response> getPeer(String address, boolean requireActive) {
+        long now = System.nanoTime();
+        removeExpired(now);
+        Entry entry = entryMap.get(address);
+        if (entry != null) {
+            if (!entry.future.isDone()) {
+                mergeCount++;
+                return new PeerCopy(entry.future);
+            }
+            if (!isFailed(entry.future) && (!requireActive || isActive(entry.future))) {
+                hitCount++;
+                return new PeerCopy(entry.future);
+            }
+            entryMap.remove(address);
+        }
+        missCount++;
+        entry = new Entry(now, scheduler.submit(RequestScheduler.Priority.EVENT, () -> nodeClient.getPeer(address)));
+        entryMap.put(address, entry);
+        return new PeerCopy(entry.future);
+    }
+
+    /**
+     * Discard a cached peer
+     *
+     * A request that is still in progress is not discarded, so it is shared by
+     * the other events for the peer
+     *
+     * @param       address         Peer network address
+     */
+    synchronized void invalidate(String address) {
+        Entry entry = entryMap.get(address);
+        if (entry != null && entry.future.isDone())
+            entryMap.remove(address);
+    }
+
+    /**
+     * Return the number of requests satisfied from the cache
+     *
+     * @return                      Hit count
+     */
+    long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Return the number of requests sent to the server
+     *
+     * @return                      Miss count
+     */
+    long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Return the number of requests merged with a request in progress
+     *
+     * @return                      Merge count
+     */
+    long getMergeCount() {
+        return mergeCount;
+    }
+
+    /**
+     * Remove the completed requests that have expired or failed
+     *
+     * The entries are ordered by request time, so we can stop at the first
+     * entry that has not expired.  Any other failed request is replaced the
+     * next time the peer is requested.
+     *
+     * @param       now             Current time (nanoseconds)
+     */
+    private void removeExpired(long now) {
+        Iterator<Entry> it = entryMap.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (now - entry.requestTime < timeToLive && !isFailed(entry.future))
+                break;
+            if (entry.future.isDone())
+                it.remove();
+        }
+    }
+
+    /**
+     * Check if a completed peer request returned a connected peer that has
+     * completed its handshake
+     *
+     * @param       future          Completed peer request
+     * @return                      TRUE if the peer is active
+     */
+    private static boolean isActive(Future<Response> future) {
+        try {
+            Response peer = future.get();
+            return (State.fromCode(peer.getInt("state")) == State.CONNECTED &&
+                    !peer.getString("version").isEmpty());
+        } catch (InterruptedException | ExecutionException | CancellationException exc) {
+            return false;
+        }
+    }
+
+    /**
+     * Check if a peer request failed
+     *
+     * @param       future          Peer request
+     * @return                      TRUE if the request completed with an exception
+     */
+    private static boolean isFailed(Future<Response> future) {
+        if (!future.isDone())
+            return false;
+        try {
+            future.get();
+            return false;
+        } catch (InterruptedException | ExecutionException | CancellationException exc) {
+            return true;
+        }
+    }
+
+    /**
+     * Cached peer request
+     */
+    private static class Entry {
+
+        /** Request time (nanoseconds) */
+        private final long requestTime;
+
+        /** Peer request */
+        private final Future<Response> future;
+
+        /**
+         * Create a cache entry
+         *
+         * @param       requestTime     Request time (nanoseconds)
+         * @param       future          Peer request
+         */
+        private Entry(long requestTime, Future<Response> future) {
+            this.requestTime = requestTime;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Peer request returned to a caller
+     *
+     * The completed request returns a copy of the cached peer
+     */
+    private static class PeerCopy implements Future<Response> {
+
+        /** Cached peer request */
+        private final Future<Response> future;
+
+        /**
+         * Create the caller request
+         *
+         * @param       future          Cached peer request
+         */
+        private PeerCopy(Future<Response> future) {
+            this.future = future;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        @Override
+        public Response get() throws InterruptedException, ExecutionException {
+            return new Response(new HashMap<>(future.get().getObjectMap()));
+        }
+
+        @Override
+        public Response get(long timeout, TimeUnit unit)
+                                throws InterruptedException, ExecutionException, TimeoutException {
+            return new Response(new HashMap<>(future.get(timeout, unit).getObjectMap()));
+        }
+    }
+}
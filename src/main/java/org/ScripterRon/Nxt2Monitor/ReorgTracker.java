@@ -0,0 +1,411 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Response;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ReorgTracker groups the block popped and block pushed events for a server into
+ * chain reorganization episodes.  An episode starts when a block is popped and ends
+ * when the chain has grown back to the height it had before the first block was
+ * popped.  Blocks popped while the replacement blocks are being pushed are part of
+ * the same episode.  An episode that has not ended after the episode timeout is
+ * ended by the next pushed block.
+ *
+ * The popped blocks are identified using the recent blocks received from the server.
+ * A popped block that is no longer known is recorded without its generator.
+ *
+ * The tracker is updated by the event handler thread and can be read by any thread.
+ */
+class ReorgTracker {
+
+    /** Number of recent blocks used to identify popped blocks */
+    private static final int RECENT_BLOCKS = 1440;
+
+    /** Maximum episode time (milliseconds) */
+    private static final long EPISODE_TIMEOUT = 5*60*1000;
+
+    /** Recent blocks by block identifier */
+    private final Map<String, ReorgBlock> recentBlocks = new LinkedHashMap<String, ReorgBlock>(RECENT_BLOCKS*4/3+1) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ReorgBlock> eldest) {
+            return (size() > RECENT_BLOCKS);
+        }
+    };
+
+    /** Completed episodes ordered from the newest episode to the oldest episode */
+    private final Deque<Episode> history = new ArrayDeque<>();
+
+    /** Maximum number of completed episodes */
+    private final int historySize;
+
+    /** Episode depth which raises an alert */
+    private final int alertDepth;
+
+    /** Current episode or null if the chain is not being reorganized */
+    private Episode episode;
+
+    /** Number of completed episodes */
+    private long episodeCount;
+
+    /** Number of alerts raised */
+    private long alertCount;
+
+    /** Deepest completed episode */
+    private int maxDepth;
+
+    /** Last episode that raised an alert or null if there have been no alerts */
+    private Episode lastAlert;
+
+    /**
+     * Create the reorganization tracker
+     *
+     * @param       historySize     Maximum number of completed episodes
+     * @param       alertDepth      Episode depth which raises an alert
+     */
+    ReorgTracker(int historySize, int alertDepth) {
+        this.historySize = historySize;
+        this.alertDepth = alertDepth;
+    }
+
+    /**
+     * The block list has been loaded from the server
+     *
+     * The current episode is ended since the events for the blocks that were
+     * replaced while the server state was being loaded have not been received.
+     *
+     * @param       blocks          Block list ordered from the newest block to the oldest block
+     */
+    synchronized void blocksLoaded(List<Response> blocks) {
+        for (int i=blocks.size()-1; i>=0; i--) {
+            ReorgBlock block = new ReorgBlock(blocks.get(i));
+            recentBlocks.put(block.getBlockId(), block);
+        }
+        if (episode != null)
+            endEpisode();
+    }
+
+    /**
+     * A block has been pushed
+     *
+     * @param       block           Pushed block
+     * @return                      Completed episode or null if an episode was not completed
+     */
+    synchronized Episode blockPushed(Response block) {
+        ReorgBlock pushed = new ReorgBlock(block);
+        recentBlocks.put(pushed.getBlockId(), pushed);
+        if (episode == null)
+            return null;
+        episode.pushedBlocks.add(pushed);
+        episode.height = pushed.getHeight();
+        if (episode.height < episode.startHeight &&
+                System.currentTimeMillis() - episode.startTime < EPISODE_TIMEOUT)
+            return null;
+        return endEpisode();
+    }
+
+    /**
+     * A block has been popped
+     *
+     * @param       blockId         Popped block identifier
+     * @param       chainHeight     Chain height before the block was popped
+     * @return                      TRUE if the episode depth has reached the alert depth
+     */
+    synchronized boolean blockPopped(String blockId, int chainHeight) {
+        if (episode == null)
+            episode = new Episode(chainHeight);
+        ReorgBlock popped = recentBlocks.remove(blockId);
+        episode.poppedBlocks.add(popped != null ? popped : new ReorgBlock(blockId, chainHeight));
+        episode.height = chainHeight-1;
+        int depth = episode.getDepth();
+        episode.depth = Math.max(episode.depth, depth);
+        if (depth >= alertDepth && !episode.alert) {
+            episode.alert = true;
+            alertCount++;
+            lastAlert = episode;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * End the current episode
+     *
+     * @return                      Completed episode
+     */
+    private Episode endEpisode() {
+        Episode completed = episode;
+        episode = null;
+        completed.endTime = System.currentTimeMillis();
+        history.addFirst(completed);
+        if (history.size() > historySize)
+            history.removeLast();
+        episodeCount++;
+        maxDepth = Math.max(maxDepth, completed.depth);
+        return completed;
+    }
+
+    /**
+     * Return the current episode
+     *
+     * @return                      Current episode or null if the chain is not being reorganized
+     */
+    synchronized Episode getCurrentEpisode() {
+        return episode;
+    }
+
+    /**
+     * Return the completed episodes
+     *
+     * @return                      Episodes ordered from the newest episode to the oldest episode
+     */
+    synchronized List<Episode> getHistory() {
+        return new ArrayList<>(history);
+    }
+
+    /**
+     * Return the number of completed episodes
+     *
+     * @return                      Episode count
+     */
+    synchronized long getEpisodeCount() {
+        return episodeCount;
+    }
+
+    /**
+     * Return the number of alerts raised
+     *
+     * @return                      Alert count
+     */
+    synchronized long getAlertCount() {
+        return alertCount;
+    }
+
+    /**
+     * Return the depth of the deepest completed episode
+     *
+     * @return                      Maximum depth
+     */
+    synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Return the last episode that raised an alert
+     *
+     * @return                      Episode or null if there have been no alerts
+     */
+    synchronized Episode getLastAlert() {
+        return lastAlert;
+    }
+
+    /**
+     * Return the episode depth which raises an alert
+     *
+     * @return                      Alert depth
+     */
+    int getAlertDepth() {
+        return alertDepth;
+    }
+
+    /**
+     * A chain reorganization episode
+     *
+     * The episode is updated by the event handler thread until it is completed
+     */
+    static class Episode {
+
+        /** Time the first block was popped (milliseconds since the epoch) */
+        private final long startTime = System.currentTimeMillis();
+
+        /** Time the episode was completed or 0 if it is still in progress */
+        private volatile long endTime;
+
+        /** Chain height before the first block was popped */
+        private final int startHeight;
+
+        /** Current chain height */
+        private volatile int height;
+
+        /** Maximum number of blocks below the starting height */
+        private volatile int depth;
+
+        /** Episode has raised an alert */
+        private boolean alert;
+
+        /** Popped blocks in the order they were popped */
+        private final List<ReorgBlock> poppedBlocks = Collections.synchronizedList(new ArrayList<>());
+
+        /** Pushed blocks in the order they were pushed */
+        private final List<ReorgBlock> pushedBlocks = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * Create an episode
+         *
+         * @param       startHeight     Chain height before the first block was popped
+         */
+        private Episode(int startHeight) {
+            this.startHeight = startHeight;
+            this.height = startHeight;
+        }
+
+        /**
+         * Return the time the episode started
+         *
+         * @return                      Start time (milliseconds since the epoch)
+         */
+        long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * Return the episode duration
+         *
+         * @return                      Duration (milliseconds)
+         */
+        long getDuration() {
+            return (endTime != 0 ? endTime : System.currentTimeMillis()) - startTime;
+        }
+
+        /**
+         * Return the chain height before the first block was popped
+         *
+         * @return                      Chain height
+         */
+        int getStartHeight() {
+            return startHeight;
+        }
+
+        /**
+         * Return the number of blocks popped below the starting height
+         *
+         * @return                      Episode depth
+         */
+        int getDepth() {
+            return Math.max(depth, startHeight-height);
+        }
+
+        /**
+         * Return the popped blocks
+         *
+         * @return                      Blocks in the order they were popped
+         */
+        List<ReorgBlock> getPoppedBlocks() {
+            synchronized(poppedBlocks) {
+                return new ArrayList<>(poppedBlocks);
+            }
+        }
+
+        /**
+         * Return the pushed blocks
+         *
+         * @return                      Blocks in the order they were pushed
+         */
+        List<ReorgBlock> getPushedBlocks() {
+            synchronized(pushedBlocks) {
+                return new ArrayList<>(pushedBlocks);
+            }
+        }
+
+        /**
+         * Return the generators of the popped blocks
+         *
+         * @return                      Generator account identifiers
+         */
+        List<String> getOrphanedGenerators() {
+            List<String> generators = new ArrayList<>();
+            getPoppedBlocks().forEach(block -> {
+                String generator = (block.getGenerator() != null ? block.getGenerator() : "unknown");
+                if (!generators.contains(generator))
+                    generators.add(generator);
+            });
+            return generators;
+        }
+    }
+
+    /**
+     * A block popped or pushed during a chain reorganization
+     */
+    static class ReorgBlock {
+
+        /** Block identifier */
+        private final String blockId;
+
+        /** Block height */
+        private final int height;
+
+        /** Block generator or null if not known */
+        private final String generator;
+
+        /**
+         * Create a reorganization block from a server block
+         *
+         * @param       block           Block
+         */
+        private ReorgBlock(Response block) {
+            this.blockId = block.getString("block");
+            this.height = block.getInt("height");
+            this.generator = block.getString("generatorRS");
+        }
+
+        /**
+         * Create a reorganization block for a block that is no longer known
+         *
+         * @param       blockId         Block identifier
+         * @param       height          Block height
+         */
+        private ReorgBlock(String blockId, int height) {
+            this.blockId = blockId;
+            this.height = height;
+            this.generator = null;
+        }
+
+        /**
+         * Return the block identifier
+         *
+         * @return                      Block identifier
+         */
+        String getBlockId() {
+            return blockId;
+        }
+
+        /**
+         * Return the block height
+         *
+         * @return                      Block height
+         */
+        int getHeight() {
+            return height;
+        }
+
+        /**
+         * Return the block generator
+         *
+         * @return                      Generator account or null if not known
+         */
+        String getGenerator() {
+            return generator;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2Monitor.RequestScheduler.Priority;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RequestHedger issues read-only requests for the user that can be answered by any
+ * server on the same chain.  The request is sent to the displayed server first.  If
+ * the displayed server has not answered within the hedge delay, the same request is
+ * sent to a second server and the first answer received is used.  The request is
+ * also sent to the second server right away if the displayed server fails.
+ *
+ * The hedge delay is the configured percentile of the recent hedged request
+ * times for the displayed server, so only the slowest requests are hedged.  The
+ * request times do not include the time spent waiting in the request scheduler,
+ * so the hedge delay starts when the request to the displayed server starts.  The
+ * second server must be active, showing the current server state, not on a fork
+ * and at least as high as the displayed server.  The server with the lowest median
+ * request time is used.
+ *
+ * The request to the displayed server is not cancelled when the second server
+ * answers first, so its request time is still recorded and the time saved by the
+ * hedge can be measured.  Requests are sent to the displayed server only when
+ * hedging is disabled.
+ */
+class RequestHedger {
+
+    /** Number of request times kept for each server */
+    private static final int LATENCY_SAMPLES = 200;
+
+    /** Number of request times needed before the percentile is used */
+    private static final int MIN_SAMPLES = 20;
+
+    /** Hedge delay when there are not enough request times (milliseconds) */
+    private static final long DEFAULT_DELAY = 250;
+
+    /** Minimum hedge delay (milliseconds) */
+    private static final long MIN_DELAY = 20;
+
+    /** Hedge timer */
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Nxt Hedge Timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Recent request times by node monitor */
+    private static final Map<NodeMonitor, Latencies> latencyMap = new ConcurrentHashMap<>();
+
+    /** Number of requests */
+    private static final AtomicLong requestCount = new AtomicLong();
+
+    /** Number of requests sent to a second server */
+    private static final AtomicLong hedgeCount = new AtomicLong();
+
+    /** Number of requests answered first by the second server */
+    private static final AtomicLong hedgeWins = new AtomicLong();
+
+    /** Time saved by the second server (nanoseconds) */
+    private static final AtomicLong savedTime = new AtomicLong();
+
+    /**
+     * RequestHedger is not instantiated
+     */
+    private RequestHedger() {
+    }
+
+    /**
+     * Issue a read-only request and wait for the result
+     *
+     * @param       <T>             Request result type
+     * @param       monitor         Node monitor for the displayed server
+     * @param       request         Request
+     * @return                      Request result
+     * @throws      IOException     The request failed
+     * @throws      InterruptedIOException The wait was interrupted
+     */
+    static <T> T call(NodeMonitor monitor, NodeClient.Request<T> request) throws IOException {
+        Future<T> future = submit(monitor, Priority.INTERACTIVE, request, null);
+        try {
+            return future.get();
+        } catch (InterruptedException exc) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Server request interrupted");
+        } catch (CancellationException exc) {
+            throw new InterruptedIOException("Server request cancelled");
+        } catch (ExecutionException exc) {
+            Throwable cause = exc.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            throw new IOException("Unable to complete server request", cause);
+        }
+    }
+
+    /**
+     * Issue a read-only request
+     *
+     * Bulk requests should use the background priority so they do not delay
+     * the requests for user actions.
+     *
+     * @param       <T>             Request result type
+     * @param       monitor         Node monitor for the displayed server
+     * @param       priority        Request priority
+     * @param       request         Request
+     * @param       completionQueue Queue for the completed request or null
+     * @return                      Future for the request result
+     */
+    static <T> Future<T> submit(NodeMonitor monitor, Priority priority, NodeClient.Request<T> request,
+                                BlockingQueue<Future<T>> completionQueue) {
+        HedgedRequest<T> hedged = new HedgedRequest<>(priority, request);
+        if (completionQueue != null)
+            hedged.whenComplete((result, exc) -> completionQueue.add(hedged));
+        requestCount.incrementAndGet();
+        if (!hedged.start(monitor, false) && (!Main.hedgeRequests || !hedged.hedge(monitor))) {
+            hedged.completeExceptionally(new IOException("Server requests are not being accepted"));
+        }
+        return hedged;
+    }
+
+    /**
+     * Return the number of requests
+     *
+     * @return                      Request count
+     */
+    static long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Return the number of requests sent to a second server
+     *
+     * @return                      Hedged request count
+     */
+    static long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * Return the number of requests answered first by the second server
+     *
+     * @return                      Request count
+     */
+    static long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * Return the time saved by requests answered first by the second server
+     *
+     * @return                      Time saved (nanoseconds)
+     */
+    static long getSavedTime() {
+        return savedTime.get();
+    }
+
+    /**
+     * Return the hedge delay for a server
+     *
+     * @param       monitor         Node monitor
+     * @return                      Hedge delay (milliseconds)
+     */
+    private static long getDelay(NodeMonitor monitor) {
+        Latencies latencies = latencyMap.get(monitor);
+        long delay = (latencies != null ? latencies.getPercentile(Main.hedgePercentile) : -1);
+        return (delay < 0 ? DEFAULT_DELAY : Math.max(delay, MIN_DELAY));
+    }
+
+    /**
+     * Select the second server for a request
+     *
+     * @param       primary         Node monitor for the displayed server
+     * @return                      Node monitor or null if there is no server available
+     */
+    private static NodeMonitor selectServer(NodeMonitor primary) {
+        NodeMonitor selected = null;
+        long selectedLatency = Long.MAX_VALUE;
+        for (NodeMonitor monitor : Main.nodeMonitors) {
+            if (monitor == primary || monitor.getStatus() != NodeMonitor.Status.ACTIVE ||
+                    monitor.isStale() || monitor.getForkDepth() != 0 ||
+                    monitor.getChainHeight() < primary.getChainHeight())
+                continue;
+            Latencies latencies = latencyMap.get(monitor);
+            long latency = (latencies != null ? latencies.getPercentile(50) : -1);
+            if (latency < 0)
+                latency = DEFAULT_DELAY;
+            if (latency < selectedLatency) {
+                selected = monitor;
+                selectedLatency = latency;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * A request sent to one or two servers
+     *
+     * @param       <T>             Request result type
+     */
+    private static class HedgedRequest<T> extends CompletableFuture<T> {
+
+        /** Request priority */
+        private final Priority priority;
+
+        /** Request */
+        private final NodeClient.Request<T> request;
+
+        /** Server requests */
+        private final List<Future<?>> attempts = new ArrayList<>(2);
+
+        /** Number of server requests that have not completed */
+        private int pending;
+
+        /** Request has been sent to a second server */
+        private boolean hedged;
+
+        /** Time the second server answered or 0 if the displayed server answered first (request lock) */
+        private long hedgeTime;
+
+        /**
+         * Create the request
+         *
+         * @param       priority        Request priority
+         * @param       request         Request
+         */
+        private HedgedRequest(Priority priority, NodeClient.Request<T> request) {
+            this.priority = priority;
+            this.request = request;
+        }
+
+        /**
+         * Send the request to a second server if it has not completed
+         *
+         * @param       primary         Node monitor for the displayed server
+         * @return                      TRUE if the request is complete or has been sent to a second server
+         */
+        private boolean hedge(NodeMonitor primary) {
+            NodeMonitor monitor = selectServer(primary);
+            synchronized(this) {
+                if (isDone() || hedged)
+                    return true;
+                if (monitor == null)
+                    return false;
+                hedged = true;
+                hedgeCount.incrementAndGet();
+                return start(monitor, true);
+            }
+        }
+
+        /**
+         * Send the request to a server
+         *
+         * @param       monitor         Node monitor
+         * @param       isHedge         TRUE if this is the second server
+         * @return                      TRUE if the request was sent
+         */
+        private synchronized boolean start(NodeMonitor monitor, boolean isHedge) {
+            try {
+                attempts.add(monitor.getScheduler().submit(priority, () -> attempt(monitor, isHedge)));
+                pending++;
+                return true;
+            } catch (RejectedExecutionException exc) {
+                return false;
+            }
+        }
+
+        /**
+         * Issue the request to a server (scheduler thread)
+         *
+         * The hedge timer is started when the request to the displayed server
+         * starts.  A failed request to the displayed server is sent to a second
+         * server right away if it has not been sent already.  The request fails
+         * when there are no server requests left.  A server request is skipped if
+         * the request has already completed while it was queued.
+         *
+         * @param       monitor         Node monitor
+         * @param       isHedge         TRUE if this is the second server
+         * @return                      Null
+         */
+        private Void attempt(NodeMonitor monitor, boolean isHedge) {
+            if (isDone()) {
+                synchronized(this) {
+                    pending--;
+                }
+                return null;
+            }
+            if (!isHedge && Main.hedgeRequests)
+                timer.schedule(() -> hedge(monitor), getDelay(monitor), TimeUnit.MILLISECONDS);
+            long startTime = System.nanoTime();
+            IOException failure = null;
+            try {
+                T result = request.issue(monitor.getNodeClient());
+                long endTime = System.nanoTime();
+                latencyMap.computeIfAbsent(monitor, key -> new Latencies())
+                          .add((endTime-startTime)/1000000);
+                synchronized(this) {
+                    if (complete(result)) {
+                        if (isHedge) {
+                            hedgeTime = endTime;
+                            hedgeWins.incrementAndGet();
+                        }
+                    } else if (!isHedge && hedgeTime != 0) {
+                        savedTime.addAndGet(endTime-hedgeTime);
+                    }
+                }
+            } catch (IOException exc) {
+                failure = exc;
+            } catch (RuntimeException exc) {
+                failure = new IOException("Unable to complete server request", exc);
+            }
+            synchronized(this) {
+                pending--;
+                if (failure == null || isDone())
+                    return null;
+                if (isHedge || hedged || !Main.hedgeRequests) {
+                    if (pending == 0)
+                        completeExceptionally(failure);
+                    return null;
+                }
+            }
+            if (!hedge(monitor))
+                completeExceptionally(failure);
+            return null;
+        }
+
+        /**
+         * Cancel the request
+         *
+         * @param       mayInterruptIfRunning   TRUE to interrupt the server requests
+         * @return                              TRUE if the request was cancelled
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            synchronized(this) {
+                attempts.forEach(attempt -> attempt.cancel(mayInterruptIfRunning));
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Recent request times for a server
+     */
+    private static class Latencies {
+
+        /** Request times (milliseconds) */
+        private final long[] samples = new long[LATENCY_SAMPLES];
+
+        /** Number of request times */
+        private int count;
+
+        /** Next sample position */
+        private int next;
+
+        /**
+         * Add a request time
+         *
+         * @param       latency         Request time (milliseconds)
+         */
+        private synchronized void add(long latency) {
+            samples[next] = latency;
+            next = (next+1) % samples.length;
+            count = Math.min(count+1, samples.length);
+        }
+
+        /**
+         * Return a request time percentile
+         *
+         * @param       percentile      Percentile (1 - 99)
+         * @return                      Request time (milliseconds) or -1 if there are not enough samples
+         */
+        private long getPercentile(int percentile) {
+            long[] sorted;
+            synchronized(this) {
+                if (count < MIN_SAMPLES)
+                    return -1;
+                sorted = Arrays.copyOf(samples, count);
+            }
+            Arrays.sort(sorted);
+            return sorted[Math.min((int)Math.ceil(percentile*count/100.0), count)-1];
+        }
+    }
+}
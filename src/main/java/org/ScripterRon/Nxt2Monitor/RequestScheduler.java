@@ -0,0 +1,437 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * RequestScheduler runs the API requests for a server.  Each request belongs to a
+ * priority class and a waiting request is always started before a waiting request
+ * in a lower priority class.
+ *
+ * Each class has a limit on the number of requests running at the same time.  The
+ * thread count is the sum of the class limits, so the requests for the event loop
+ * always have threads available no matter how many interactive or background
+ * requests are running.  A class can also have a request rate limit, which is
+ * enforced using a token bucket holding up to one second of requests.
+ *
+ * The event loop queue is bounded.  An event loop request is run by the submitting
+ * thread when the queue is full, which slows down the event loop instead of letting
+ * the queue grow without limit.
+ */
+class RequestScheduler {
+
+    /** Request priority classes in priority order */
+    enum Priority {
+        /** Requests for the server events */
+        EVENT("Event loop"),
+        /** Requests for user actions */
+        INTERACTIVE("Interactive"),
+        /** Requests that can be delayed */
+        BACKGROUND("Background");
+
+        /** Display name */
+        private final String name;
+
+        /**
+         * Create the priority
+         *
+         * @param       name            Display name
+         */
+        private Priority(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Return the display name
+         *
+         * @return                      Display name
+         */
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /** Thread name */
+    private final String threadName;
+
+    /** Request classes indexed by priority ordinal */
+    private final RequestClass[] classes = new RequestClass[Priority.values().length];
+
+    /** Maximum number of threads */
+    private final int maxThreads;
+
+    /** Scheduler threads */
+    private final List<Thread> threads = new ArrayList<>();
+
+    /** Number of idle threads */
+    private int idleThreads;
+
+    /** Scheduler has been shut down */
+    private boolean shutdown;
+
+    /**
+     * Create the request scheduler
+     *
+     * @param       threadName      Thread name prefix
+     * @param       limits          Concurrent request limit for each priority class
+     * @param       rates           Requests per second for each priority class (0 for no limit)
+     * @param       queueLimits     Maximum queued requests for each priority class (0 for no limit)
+     */
+    RequestScheduler(String threadName, int[] limits, int[] rates, int[] queueLimits) {
+        this.threadName = threadName;
+        int count = 0;
+        for (Priority priority : Priority.values()) {
+            int ordinal = priority.ordinal();
+            classes[ordinal] = new RequestClass(limits[ordinal], rates[ordinal], queueLimits[ordinal]);
+            count += limits[ordinal];
+        }
+        maxThreads = count;
+    }
+
+    /**
+     * Submit a request
+     *
+     * @param       <T>             Request result type
+     * @param       priority        Request priority
+     * @param       request         Request
+     * @return                      Future for the request result
+     * @throws      RejectedExecutionException The scheduler has been shut down
+     */
+    <T> Future<T> submit(Priority priority, Callable<T> request) {
+        FutureTask<T> task = new FutureTask<>(request);
+        execute(priority, task);
+        return task;
+    }
+
+    /**
+     * Run a request and wait for the result
+     *
+     * @param       <T>             Request result type
+     * @param       priority        Request priority
+     * @param       request         Request
+     * @return                      Request result
+     * @throws      IOException     The request failed
+     * @throws      InterruptedIOException The wait was interrupted
+     */
+    <T> T call(Priority priority, Callable<T> request) throws IOException {
+        Future<T> future;
+        try {
+            future = submit(priority, request);
+        } catch (RejectedExecutionException exc) {
+            throw new IOException("Server requests are not being accepted", exc);
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException exc) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Server request interrupted");
+        } catch (CancellationException exc) {
+            throw new InterruptedIOException("Server request cancelled");
+        } catch (ExecutionException exc) {
+            Throwable cause = exc.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            throw new IOException("Unable to complete server request", cause);
+        }
+    }
+
+    /**
+     * Return an executor that submits tasks with the specified priority
+     *
+     * @param       priority        Request priority
+     * @return                      Executor
+     */
+    Executor getExecutor(Priority priority) {
+        return (runnable) -> execute(priority, runnable);
+    }
+
+    /**
+     * Queue a task
+     *
+     * @param       priority        Request priority
+     * @param       runnable        Task
+     * @throws      RejectedExecutionException The scheduler has been shut down
+     */
+    private void execute(Priority priority, Runnable runnable) {
+        RequestClass requestClass = classes[priority.ordinal()];
+        synchronized(this) {
+            if (shutdown)
+                throw new RejectedExecutionException("Request scheduler has been shut down");
+            if (requestClass.queueLimit == 0 || requestClass.queue.size() < requestClass.queueLimit) {
+                requestClass.queue.add(new QueuedTask(runnable, System.nanoTime()));
+                if (idleThreads == 0 && threads.size() < maxThreads) {
+                    Thread thread = new Thread(() -> runTasks(), threadName+" "+(threads.size()+1));
+                    thread.setDaemon(true);
+                    threads.add(thread);
+                    thread.start();
+                } else {
+                    notifyAll();
+                }
+                return;
+            }
+            requestClass.active++;
+        }
+        //
+        // The queue is full, so run the task on the caller thread
+        //
+        try {
+            runnable.run();
+        } finally {
+            synchronized(this) {
+                requestClass.active--;
+                requestClass.completed++;
+            }
+        }
+    }
+
+    /**
+     * Shut down the scheduler
+     *
+     * The queued requests are cancelled and the running requests are interrupted
+     */
+    void shutdownNow() {
+        synchronized(this) {
+            shutdown = true;
+            for (RequestClass requestClass : classes) {
+                requestClass.queue.forEach(task -> {
+                    if (task.runnable instanceof Future)
+                        ((Future<?>)task.runnable).cancel(false);
+                });
+                requestClass.queue.clear();
+            }
+            threads.forEach(thread -> thread.interrupt());
+            notifyAll();
+        }
+    }
+
+    /**
+     * Return the number of queued requests
+     *
+     * @param       priority        Request priority
+     * @return                      Queue depth
+     */
+    synchronized int getQueueDepth(Priority priority) {
+        return classes[priority.ordinal()].queue.size();
+    }
+
+    /**
+     * Return the number of running requests
+     *
+     * @param       priority        Request priority
+     * @return                      Active request count
+     */
+    synchronized int getActiveCount(Priority priority) {
+        return classes[priority.ordinal()].active;
+    }
+
+    /**
+     * Return the number of requests that have been started.  Requests that were
+     * run by the submitting thread are included.
+     *
+     * @param       priority        Request priority
+     * @return                      Started request count
+     */
+    synchronized long getStartedCount(Priority priority) {
+        RequestClass requestClass = classes[priority.ordinal()];
+        return requestClass.completed + requestClass.active;
+    }
+
+    /**
+     * Return the total time that the started requests waited in the queue
+     *
+     * @param       priority        Request priority
+     * @return                      Wait time (nanoseconds)
+     */
+    synchronized long getWaitTime(Priority priority) {
+        return classes[priority.ordinal()].waitTime;
+    }
+
+    /**
+     * Return the longest time that a started request waited in the queue
+     *
+     * @param       priority        Request priority
+     * @return                      Wait time (nanoseconds)
+     */
+    synchronized long getMaxWaitTime(Priority priority) {
+        return classes[priority.ordinal()].maxWaitTime;
+    }
+
+    /**
+     * Run queued tasks (scheduler thread)
+     */
+    private void runTasks() {
+        while (true) {
+            QueuedTask task;
+            RequestClass requestClass;
+            synchronized(this) {
+                idleThreads++;
+                try {
+                    while (true) {
+                        if (shutdown)
+                            return;
+                        long now = System.nanoTime();
+                        long delay = Long.MAX_VALUE;
+                        requestClass = null;
+                        for (RequestClass candidate : classes) {
+                            if (candidate.queue.isEmpty() || candidate.active >= candidate.limit)
+                                continue;
+                            long tokenDelay = candidate.takeToken(now);
+                            if (tokenDelay == 0) {
+                                requestClass = candidate;
+                                break;
+                            }
+                            delay = Math.min(delay, tokenDelay);
+                        }
+                        if (requestClass != null)
+                            break;
+                        if (delay == Long.MAX_VALUE)
+                            wait();
+                        else
+                            wait(Math.max(delay/1000000, 1));
+                    }
+                } catch (InterruptedException exc) {
+                    if (shutdown)
+                        return;
+                    continue;
+                } finally {
+                    idleThreads--;
+                }
+                task = requestClass.queue.remove();
+                requestClass.active++;
+                long waited = System.nanoTime() - task.queueTime;
+                requestClass.waitTime += waited;
+                requestClass.maxWaitTime = Math.max(requestClass.maxWaitTime, waited);
+            }
+            try {
+                task.runnable.run();
+            } catch (Throwable exc) {
+                Main.log.error("Exception while running server request", exc);
+            } finally {
+                synchronized(this) {
+                    requestClass.active--;
+                    requestClass.completed++;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Request priority class
+     */
+    private static class RequestClass {
+
+        /** Concurrent request limit */
+        private final int limit;
+
+        /** Requests per second (0 for no limit) */
+        private final int rate;
+
+        /** Maximum number of queued requests (0 for no limit) */
+        private final int queueLimit;
+
+        /** Queued requests */
+        private final ArrayDeque<QueuedTask> queue = new ArrayDeque<>();
+
+        /** Available tokens */
+        private double tokens;
+
+        /** Last token refill time (nanoseconds) */
+        private long refillTime = System.nanoTime();
+
+        /** Number of running requests */
+        private int active;
+
+        /** Number of completed requests */
+        private long completed;
+
+        /** Total queue wait time (nanoseconds) */
+        private long waitTime;
+
+        /** Maximum queue wait time (nanoseconds) */
+        private long maxWaitTime;
+
+        /**
+         * Create the request class
+         *
+         * @param       limit           Concurrent request limit
+         * @param       rate            Requests per second (0 for no limit)
+         * @param       queueLimit      Maximum number of queued requests (0 for no limit)
+         */
+        private RequestClass(int limit, int rate, int queueLimit) {
+            this.limit = limit;
+            this.rate = rate;
+            this.queueLimit = queueLimit;
+            this.tokens = rate;
+        }
+
+        /**
+         * Take a token from the token bucket
+         *
+         * @param       now             Current time (nanoseconds)
+         * @return                      0 if a token was taken, otherwise the time until
+         *                              a token is available (nanoseconds)
+         */
+        private long takeToken(long now) {
+            if (rate == 0)
+                return 0;
+            tokens = Math.min(rate, tokens + (now - refillTime) * rate / 1.0e9);
+            refillTime = now;
+            if (tokens >= 1.0) {
+                tokens -= 1.0;
+                return 0;
+            }
+            return (long)Math.ceil((1.0 - tokens) * 1.0e9 / rate);
+        }
+    }
+
+    /**
+     * Queued task
+     */
+    private static class QueuedTask {
+
+        /** Task */
+        private final Runnable runnable;
+
+        /** Time the task was queued (nanoseconds) */
+        private final long queueTime;
+
+        /**
+         * Create a queued task
+         *
+         * @param       runnable        Task
+         * @param       queueTime       Time the task was queued (nanoseconds)
+         */
+        private QueuedTask(Runnable runnable, long queueTime) {
+            this.runnable = runnable;
+            this.queueTime = queueTime;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import javax.swing.SwingWorker;
+
+/**
+ * RequestWorker issues an interactive request for a user action in the background
+ * so the AWT event thread is not blocked while the request waits in the request
+ * scheduler.  The result is passed to the completion handler on the AWT event
+ * thread.  A failed request is logged and reported to the user.
+ *
+ * @param   <T>             Request result type
+ */
+class RequestWorker<T> extends SwingWorker<T, Void> {
+
+    /** Node monitor */
+    private final NodeMonitor nodeMonitor;
+
+    /** Request */
+    private final NodeClient.Request<T> request;
+
+    /** Error message */
+    private final String errorText;
+
+    /** Completion handler or null */
+    private final Consumer<T> handler;
+
+    /**
+     * Issue an interactive request in the background
+     *
+     * @param   <T>             Request result type
+     * @param   nodeMonitor     Node monitor
+     * @param   request         Request
+     * @param   errorText       Error message if the request fails
+     * @param   handler         Completion handler or null
+     */
+    static <T> void execute(NodeMonitor nodeMonitor, NodeClient.Request<T> request,
+                            String errorText, Consumer<T> handler) {
+        new RequestWorker<>(nodeMonitor, request, errorText, handler).execute();
+    }
+
+    /**
+     * Create the request worker
+     *
+     * @param   nodeMonitor     Node monitor
+     * @param   request         Request
+     * @param   errorText       Error message if the request fails
+     * @param   handler         Completion handler or null
+     */
+    private RequestWorker(NodeMonitor nodeMonitor, NodeClient.Request<T> request,
+                          String errorText, Consumer<T> handler) {
+        this.nodeMonitor = nodeMonitor;
+        this.request = request;
+        this.errorText = errorText;
+        this.handler = handler;
+    }
+
+    /**
+     * Issue the request (background thread)
+     *
+     * @return                  Request result
+     * @throws  Exception       The request failed
+     */
+    @Override
+    protected T doInBackground() throws Exception {
+        return nodeMonitor.issueRequest(RequestScheduler.Priority.INTERACTIVE, request);
+    }
+
+    /**
+     * Process the request result (AWT event thread)
+     */
+    @Override
+    protected void done() {
+        if (isCancelled())
+            return;
+        try {
+            T result = get();
+            if (handler != null)
+                handler.accept(result);
+        } catch (ExecutionException exc) {
+            Throwable cause = exc.getCause();
+            Main.log.error(errorText, cause);
+            Main.logException(errorText, cause);
+        } catch (InterruptedException exc) {
+            // Program is ending
+        }
+    }
+}
@@ -15,24 +15,16 @@
  */
 package org.ScripterRon.Nxt2Monitor;
 
-import org.ScripterRon.Nxt2API.Event;
-import org.ScripterRon.Nxt2API.IdentifierException;
-import org.ScripterRon.Nxt2API.Nxt;
 import org.ScripterRon.Nxt2API.Response;
-import org.ScripterRon.Nxt2API.Utils;
 
-import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
@@ -51,13 +43,14 @@ import javax.swing.JPopupMenu;
 import javax.swing.JTable;
 import javax.swing.JScrollPane;
 import javax.swing.ListSelectionModel;
-import javax.swing.SwingUtilities;
+import javax.swing.RowSorter;
 
 /**
- * This is the status panel for the main window.  It displays information about the current
- * block chain and peer connections
+ * This is the status panel for the main window.  It displays a summary of the monitored
+ * servers and information about the block chain and peer connections for the current server,
+ * including the metric history for the server
  */
-public class StatusPanel extends JPanel implements ActionListener, Runnable {
+public class StatusPanel extends JPanel implements ActionListener, NodeMonitor.Listener {
 
     /** Peer connection states */
     enum State {
@@ -88,20 +81,36 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
         }
     }
 
-    /** Block status table column names */
-    private static final String[] blockColumnNames = {
-        "Date", "Height", "Block", "Version", "Tx Count", "Generator"};
+    /** Node table column names */
+    private static final String[] nodeColumnNames = {
+        "Server", "Height", "Peers", "Lag", "Status"};
 
-    /** Block status table column classes */
-    private static final Class<?>[] blockColumnClasses = {
-        Date.class, Integer.class, String.class, Integer.class, Integer.class, String.class};
+    /** Node table column classes */
+    private static final Class<?>[] nodeColumnClasses = {
+        String.class, Integer.class, Integer.class, Integer.class, String.class};
+
+    /** Node table column types */
+    private static final int[] nodeColumnTypes = {
+        SizedTable.ADDRESS, SizedTable.INTEGER, SizedTable.INTEGER, SizedTable.INTEGER, SizedTable.STATUS};
+
+    /** Time a chain reorganization alert is shown (milliseconds) */
+    private static final long REORG_ALERT_TIME = 60*60*1000;
+
+    /** Number of chain reorganizations shown in the chain height tool tip */
+    private static final int REORG_TOOLTIP_COUNT = 10;
+
+    /** Node table model */
+    private final NodeTableModel nodeTableModel;
+
+    /** Node table */
+    private final JTable nodeTable;
 
     /** Block status table column types */
     private static final int[] blockColumnTypes = {
         SizedTable.DATE, SizedTable.INTEGER, SizedTable.ID, SizedTable.INTEGER, SizedTable.INTEGER, SizedTable.ID};
 
     /** Block status table model */
-    private final BlockTableModel blockTableModel;
+    private BlockTableModel blockTableModel;
 
     /** Block table pop-up menu */
     private final JPopupMenu blockTablePopup;
@@ -112,20 +121,12 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
     /** Block status scroll pane */
     private final JScrollPane blockScrollPane;
 
-    /** Connection table column names */
-    private static final String[] connectionColumnNames = {
-        "Address", "Version", "Platform", "Services", "Status"};
-
-    /** Connection table column classes */
-    private static final Class<?>[] connectionColumnClasses = {
-        String.class, String.class, String.class, String.class, String.class};
-
     /** Connection table column types */
     private static final int[] connectionColumnTypes = {
         SizedTable.ADDRESS, SizedTable.APPLICATION, SizedTable.APPLICATION, SizedTable.SERVICES, SizedTable.STATUS};
 
     /** Connection table model */
-    private final ConnectionTableModel connectionTableModel;
+    private ConnectionTableModel connectionTableModel;
 
     /** Connection table pop-up menu */
     private final JPopupMenu connectionTablePopup;
@@ -145,26 +146,23 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
     /** Connections field */
     private final JLabel connectionsField;
 
-    /** Status update shutdown */
-    private boolean shutdown = false;
-
-    /** Status update peer */
-    private Response statusPeer;
-
-    /** Status update block */
-    private Response statusBlock;
+    /** Block statistics field */
+    private final JLabel blockStatsField;
 
-    /** Status update identifier */
-    private long statusId;
+    /** Metric history chart */
+    private final ChartPanel chartPanel;
 
-    /** Event registration token */
-    private long eventToken;
+    /** Current node monitor */
+    private NodeMonitor nodeMonitor;
 
     /**
      * Create the status panel
+     *
+     * @param       nodeMonitor     Node monitor for the current server
      */
-    public StatusPanel() {
+    public StatusPanel(NodeMonitor nodeMonitor) {
         super(new BorderLayout());
+        this.nodeMonitor = nodeMonitor;
         setOpaque(true);
         setBackground(Color.WHITE);
         setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
@@ -173,12 +171,33 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
         tablePane.setBackground(Color.WHITE);
         TableMouseListener mouseListener = new TableMouseListener();
         //
+        // Create the node table.  Selecting a server displays the status for that server.
+        //
+        nodeTableModel = new NodeTableModel(nodeColumnNames, nodeColumnClasses);
+        nodeTable = new SizedTable(nodeTableModel, nodeColumnTypes);
+        nodeTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        nodeTable.setPreferredScrollableViewportSize(new Dimension(
+                nodeTable.getPreferredScrollableViewportSize().width,
+                nodeTable.getRowHeight()*Math.min(Math.max(Main.nodeMonitors.size(), 1), 6)));
+        nodeTable.getSelectionModel().addListSelectionListener((event) -> {
+            int row = nodeTable.getSelectedRow();
+            if (!event.getValueIsAdjusting() && row >= 0) {
+                NodeMonitor monitor = Main.nodeMonitors.get(row);
+                if (monitor != this.nodeMonitor)
+                    selectMonitor(monitor);
+            }
+        });
+        tablePane.add(Box.createGlue());
+        tablePane.add(new JLabel("<html><h3>Servers</h3></html>"));
+        tablePane.add(new JScrollPane(nodeTable));
+        //
         // Create the connection table
         //
         connectionTablePopup = new PopupMenu(this, new String[] {"Copy Address", "copy address"},
                                                    new String[] {"Blacklist Peer", "blacklist peer"});
-        connectionTableModel = new ConnectionTableModel(connectionColumnNames, connectionColumnClasses);
+        connectionTableModel = nodeMonitor.getConnectionTableModel();
         connectionTable = new SizedTable(connectionTableModel, connectionColumnTypes);
+        connectionTable.setAutoCreateColumnsFromModel(false);
         connectionTable.setRowSorter(new TableRowSorter<>(connectionTableModel));
         connectionTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         connectionTable.addMouseListener(mouseListener);
@@ -192,8 +211,9 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
         blockTablePopup = new PopupMenu(this, new String[] {"Copy Block ID", "copy block id"},
                                               new String[] {"Copy Generator ID", "copy generator id"},
                                               new String[] {"Show Transactions", "show transactions"});
-        blockTableModel = new BlockTableModel(blockColumnNames, blockColumnClasses);
+        blockTableModel = nodeMonitor.getBlockTableModel();
         blockTable = new SizedTable(blockTableModel, blockColumnTypes);
+        blockTable.setAutoCreateColumnsFromModel(false);
         blockTable.setRowSorter(new TableRowSorter<>(blockTableModel));
         blockTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         blockTable.addMouseListener(mouseListener);
@@ -203,12 +223,13 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
         tablePane.add(blockScrollPane);
         tablePane.add(Box.createGlue());
         //
-        // Create the status pane containing the NRS node, chain height
-        // and number of peer connections
+        // Create the status pane containing the NRS node, chain height,
+        // number of peer connections and block statistics
         //
         nodeField = new JLabel("", JLabel.CENTER);
         chainHeightField = new JLabel("", JLabel.CENTER);
         connectionsField = new JLabel("", JLabel.CENTER);
+        blockStatsField = new JLabel("", JLabel.CENTER);
 
         JPanel statusPane = new JPanel();
         statusPane.setLayout(new BoxLayout(statusPane, BoxLayout.Y_AXIS));
@@ -217,12 +238,23 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
         statusPane.add(nodeField);
         statusPane.add(chainHeightField);
         statusPane.add(connectionsField);
+        statusPane.add(blockStatsField);
+        statusPane.add(Box.createVerticalStrut(10));
+        chartPanel = new ChartPanel(nodeMonitor);
+        statusPane.add(chartPanel);
         statusPane.add(Box.createVerticalStrut(20));
         //
         // Set up the content pane
         //
         add(statusPane, BorderLayout.NORTH);
         add(tablePane, BorderLayout.CENTER);
+        //
+        // Listen for status updates from all of the servers
+        //
+        Main.nodeMonitors.forEach(monitor -> monitor.addListener(this));
+        int row = Main.nodeMonitors.indexOf(nodeMonitor);
+        nodeTable.getSelectionModel().setSelectionInterval(row, row);
+        updateStatus();
     }
 
     /**
@@ -250,7 +282,10 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
                     if (row >= 0) {
                         row = connectionTable.convertRowIndexToModel(row);
                         String address = (String)connectionTableModel.getValueAt(row, 0);
-                        Nxt.blacklistPeer(address, Main.adminPW);
+                        RequestWorker.execute(nodeMonitor, client -> {
+                            client.blacklistPeer(address);
+                            return null;
+                        }, "Unable to blacklist peer", null);
                     }
                     break;
                 case "copy address":
@@ -285,12 +320,10 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
                     if (row >= 0) {
                         row = blockTable.convertRowIndexToModel(row);
                         String blockId = (String)blockTableModel.getValueAt(row, 2);
-                        TransactionDialog.showDialog(Main.mainWindow, blockId);
+                        TransactionDialog.showDialog(Main.mainWindow, nodeMonitor, blockId);
                     }
                     break;
             }
-        } catch (IOException exc) {
-            Main.logException("I/O exception while processing Nxt API request",exc);
         } catch (Exception exc) {
             Main.log.error("Exception while processing action event", exc);
             Main.logException("Exception while processing action event", exc);
@@ -298,192 +331,139 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
     }
 
     /**
-     * Update the node status
+     * A node monitor has been updated (NodeMonitor.Listener interface)
+     *
+     * @param       monitor         Node monitor
      */
-    private void updateStatus() {
-        Response block = blockTableModel.getChainHead();
-        int height = (block != null ? block.getInt("height") : 0);
-        nodeField.setText(String.format("<html><b>NRS node: [%s]:%d</b></html>",
-                                        Main.serverConnection.getHost(),
-                                        Main.serverConnection.getPort()));
-        chainHeightField.setText(String.format("<html><b>Chain height: %d</b></html>",
-                                        height));
-        connectionsField.setText(String.format("<html><b>Peer connections: %d</b></html>",
-                                        connectionTableModel.getActiveCount()));
+    @Override
+    public void monitorUpdated(NodeMonitor monitor) {
+        nodeTableModel.fireTableRowsUpdated(0, nodeTableModel.getRowCount()-1);
+        if (monitor == nodeMonitor) {
+            updateStatus();
+            chartPanel.monitorUpdated();
+        }
     }
 
     /**
-     * Shutdown server status updates
+     * A new node monitor has been added
+     *
+     * @param       monitor         Node monitor
      */
-    public void shutdown() {
-        shutdown = true;
-        //
-        // Cancel our event listener (this will cause the event wait to complete)
-        //
-        try {
-            List<String> eventList = new ArrayList<>();
-            Nxt.eventRegister(eventList, eventToken, false, true);
-        } catch (IOException exc) {
-            Main.log.error("Unable to cancel event listener", exc);
-            Main.logException("Unable to cancel event listener", exc);
-        }
+    public void monitorAdded(NodeMonitor monitor) {
+        int row = Main.nodeMonitors.indexOf(monitor);
+        nodeTableModel.fireTableRowsInserted(row, row);
+        monitor.addListener(this);
     }
 
     /**
-     * Start the Nxt event handler
+     * Display the status for a different server
+     *
+     * The server status is already being tracked by its node monitor, so the tables
+     * just need to be switched to the table models for the new server.  Requests for
+     * the new server are issued using the client for its node monitor.
+     *
+     * @param       monitor         Node monitor
      */
-    public void startEventHandler() {
-        Thread eventThread = new Thread(this, "Nxt Event Handler");
-        eventThread.setDaemon(true);
-        eventThread.start();
+    public void selectMonitor(NodeMonitor monitor) {
+        Main.serverConnection = monitor.getConnection();
+        nodeMonitor = monitor;
+        connectionTableModel = monitor.getConnectionTableModel();
+        setTableModel(connectionTable, connectionTableModel);
+        blockTableModel = monitor.getBlockTableModel();
+        setTableModel(blockTable, blockTableModel);
+        chartPanel.setMonitor(monitor);
+        int row = Main.nodeMonitors.indexOf(monitor);
+        if (nodeTable.getSelectedRow() != row)
+            nodeTable.getSelectionModel().setSelectionInterval(row, row);
+        updateStatus();
     }
 
     /**
-     * Process server events
+     * Set a new table model while keeping the current column layout and sort order
+     *
+     * @param       table           Table
+     * @param       tableModel      New table model
      */
-    @SuppressWarnings("unchecked")
-    @Override
-    public void run() {
+    private void setTableModel(JTable table, AbstractTableModel tableModel) {
+        List<? extends RowSorter.SortKey> sortKeys = table.getRowSorter().getSortKeys();
+        table.setModel(tableModel);
+        TableRowSorter<AbstractTableModel> sorter = new TableRowSorter<>(tableModel);
+        sorter.setSortKeys(sortKeys);
+        table.setRowSorter(sorter);
+    }
+
+    /**
+     * Update the node status
+     */
+    private void updateStatus() {
+        Connection connection = nodeMonitor.getConnection();
+        nodeField.setText(String.format("<html><b>NRS node: [%s]:%d</b></html>",
+                                        connection.getHost(), connection.getPort()));
+        ReorgTracker reorgTracker = nodeMonitor.getReorgTracker();
+        ReorgTracker.Episode reorg = reorgTracker.getCurrentEpisode();
+        ReorgTracker.Episode lastAlert = reorgTracker.getLastAlert();
+        String reorgText;
+        if (reorg != null)
+            reorgText = String.format(" <font color=red>(reorganizing, depth %d)</font>", reorg.getDepth());
+        else if (lastAlert != null && System.currentTimeMillis()-lastAlert.getStartTime() < REORG_ALERT_TIME)
+            reorgText = String.format(" <font color=red>(reorganization depth %d at %tT)</font>",
+                                        lastAlert.getDepth(), new Date(lastAlert.getStartTime()));
+        else
+            reorgText = "";
+        if (nodeMonitor.isStale())
+            chainHeightField.setText(String.format("<html><b>Chain height: %d</b> (saved %tF %<tT, updating)%s</html>",
+                                        nodeMonitor.getChainHeight(), new Date(nodeMonitor.getSnapshotTime()),
+                                        reorgText));
+        else
+            chainHeightField.setText(String.format("<html><b>Chain height: %d</b>%s</html>",
+                                        nodeMonitor.getChainHeight(), reorgText));
         //
-        // Get the initial server status
+        // Show the recent chain reorganizations when the mouse is over the chain height
         //
-        try {
-            //
-            // Add the last 25 blocks to the block table
-            //
-            List<Response> blockList = Nxt.getBlocks(0, 24, false);
-            //
-            // Add connected peers to the connection table
-            //
-            List<Response> peerList = Nxt.getPeers(State.CONNECTED.name());
-            //
-            // Update the status panel
-            //
-            SwingUtilities.invokeAndWait(() -> {
-                blockTableModel.blocksAdded(blockList);
-                connectionTableModel.peersAdded(peerList);
-                updateStatus();
-            });
-            //
-            // Register our events
-            //
-            List<String> eventList = new ArrayList<>();
-            eventList.add("Peer.ADD_ACTIVE_PEER");
-            eventList.add("Peer.CHANGE_ACTIVE_PEER");
-            eventList.add("Peer.CHANGE_ANNOUNCED_ADDRESS");
-            eventList.add("Peer.BLACKLIST");
-            eventList.add("Peer.UNBLACKLIST");
-            eventList.add("Block.BLOCK_PUSHED");
-            eventList.add("Block.BLOCK_POPPED");
-            Response eventResponse = Nxt.eventRegister(eventList, 0, false, false);
-            eventToken = eventResponse.getLong("token");
-        } catch (InterruptedException | InvocationTargetException exc) {
-            Main.logException("Unable to perform status update", exc);
-            Main.log.error("Unable to perform status update", exc);
-            shutdown = true;
-        } catch (IOException exc) {
-            Main.log.error("Unable to get server state", exc);
-            Main.logException("Unable to get server state", exc);
-            shutdown = true;
-        } catch (Exception exc) {
-            Main.log.error("Exception while getting server state", exc);
-            Main.logException("Exception while getting server state", exc);
-            shutdown = true;
+        List<ReorgTracker.Episode> reorgHistory = reorgTracker.getHistory();
+        if (reorgHistory.isEmpty()) {
+            chainHeightField.setToolTipText(null);
+        } else {
+            StringBuilder reorgBuilder = new StringBuilder(256);
+            reorgBuilder.append("<html>");
+            reorgHistory.stream().limit(REORG_TOOLTIP_COUNT).forEach(episode ->
+                reorgBuilder.append(String.format("%tF %<tT: height %d, depth %d, %d blocks replaced in %,d ms, "
+                                                  + "orphaned generators %s<br>",
+                        new Date(episode.getStartTime()), episode.getStartHeight(), episode.getDepth(),
+                        episode.getPoppedBlocks().size(), episode.getDuration(),
+                        String.join(", ", episode.getOrphanedGenerators()))));
+            reorgBuilder.append("</html>");
+            chainHeightField.setToolTipText(reorgBuilder.toString());
         }
+        connectionsField.setText(String.format("<html><b>Peer connections: %d</b></html>",
+                                        nodeMonitor.getPeerCount()));
+        BlockStatistics stats = blockTableModel.getStatistics();
+        if (stats.getCount() != 0)
+            blockStatsField.setText(String.format("<html><b>Block interval: %.1f s</b> "
+                                        + "(median %d s, 90%% %d s, 99%% %d s) <b>%.2f tx/s</b></html>",
+                                        stats.getAverageInterval(), stats.getInterval(50),
+                                        stats.getInterval(90), stats.getInterval(99),
+                                        stats.getTransactionRate()));
+        else
+            blockStatsField.setText("<html><b>Block interval: not available</b></html>");
         //
-        // Process server events
+        // Show the request queues for the server when the mouse is over the server name
         //
-        Response peer;
-        List<String> pendingConnections = new ArrayList<>();
-        while (!shutdown) {
-            try {
-                //
-                // Wait for an event
-                //
-                List<Event> eventList = Nxt.eventWait(eventToken, 60);
-                if (shutdown)
-                    break;
-                //
-                // Add pending connections to the event list
-                //
-                if (!pendingConnections.isEmpty()) {
-                    pendingConnections.forEach(address ->
-                        eventList.add(new Event("Peer.ADD_ACTIVE_PEER", address)));
-                    pendingConnections.clear();
-                }
-                //
-                // Process the events
-                //
-                for (Event event : eventList) {
-                    String eventId = event.getIds().get(0);
-                    switch (event.getName()) {
-                        case "Peer.ADD_ACTIVE_PEER":
-                            statusPeer = Nxt.getPeer(eventId);
-                            if (State.fromCode(statusPeer.getInt("state")) == State.CONNECTED) {
-                                SwingUtilities.invokeAndWait(() ->
-                                        connectionTableModel.peerAdded(statusPeer, pendingConnections));
-                            }
-                            break;
-                        case "Peer.CHANGE_ACTIVE_PEER":
-                        case "Peer.CHANGE_ANNOUNCED_ADDRESS":
-                            peer = Nxt.getPeer(eventId);
-                            statusPeer = connectionTableModel.getPeer(eventId);
-                            if (statusPeer != null) {
-                                SwingUtilities.invokeAndWait(() -> connectionTableModel.peerUpdated(
-                                            statusPeer.getString("address"),
-                                            State.fromCode(statusPeer.getInt("state")) == State.CONNECTED ?
-                                                    State.DISCONNECTED : State.CONNECTED,
-                                            false));
-                            } else {
-                                statusPeer = peer;
-                                if (State.fromCode(statusPeer.getInt("state")) == State.CONNECTED)
-                                    SwingUtilities.invokeAndWait(() ->
-                                            connectionTableModel.peerAdded(statusPeer, pendingConnections));
-                            }
-                            break;
-                        case "Peer.BLACKLIST":
-                            statusPeer = connectionTableModel.getPeer(eventId);
-                            if (statusPeer != null) {
-                                SwingUtilities.invokeAndWait(() -> connectionTableModel.peerUpdated(
-                                            statusPeer.getString("address"), State.DISCONNECTED, true));
-                            }
-                            break;
-                        case "Peer.UNBLACKLIST":
-                            statusPeer = connectionTableModel.getPeer(eventId);
-                            if (statusPeer != null) {
-                                SwingUtilities.invokeAndWait(() -> connectionTableModel.peerUpdated(
-                                            statusPeer.getString("address"),
-                                            State.fromCode(statusPeer.getInt("state")), false));
-                            }
-                            break;
-                        case "Block.BLOCK_PUSHED":
-                            try {
-                                statusBlock = Nxt.getBlock(eventId, false);
-                                SwingUtilities.invokeAndWait(() -> blockTableModel.blockAdded(statusBlock));
-                            } catch (IOException exc) {
-                                Main.log.error("Unable to get block", exc);
-                            }
-                            break;
-                        case "Block.BLOCK_POPPED":
-                            statusId = Utils.stringToId(eventId);
-                            SwingUtilities.invokeAndWait(() -> blockTableModel.blockRemoved(statusId));
-                            break;
-                    }
-                }
-                SwingUtilities.invokeAndWait(() -> updateStatus());
-            } catch (InterruptedException | InvocationTargetException exc) {
-                Main.log.error("Unable to perform status update", exc);
-                Main.logException("Unable to perform status update", exc);
-                shutdown = true;
-            } catch (IOException exc) {
-                Main.log.error("Unable to process server event", exc);
-                Main.logException("Unable to process server event", exc);
-                shutdown = true;
-            } catch (Exception exc) {
-                Main.log.error("Exception while processing server event", exc);
-                Main.logException("Exception while processing server event", exc);
-            }
+        RequestScheduler scheduler = nodeMonitor.getScheduler();
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("<html>");
+        for (RequestScheduler.Priority priority : RequestScheduler.Priority.values()) {
+            long started = scheduler.getStartedCount(priority);
+            sb.append(String.format("%s: %d queued, %d running, average wait %.1f ms, maximum wait %.1f ms<br>",
+                    priority, scheduler.getQueueDepth(priority), scheduler.getActiveCount(priority),
+                    started != 0 ? scheduler.getWaitTime(priority)/started/1.0e6 : 0.0,
+                    scheduler.getMaxWaitTime(priority)/1.0e6));
         }
+        HealthMonitor healthMonitor = Main.healthMonitor;
+        if (healthMonitor != null && healthMonitor.getScore(nodeMonitor) >= 0)
+            sb.append(String.format("Health score: %d<br>", healthMonitor.getScore(nodeMonitor)));
+        sb.append("</html>");
+        nodeField.setToolTipText(sb.toString());
     }
 
     /**
@@ -516,9 +496,9 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
     }
 
     /**
-     * Table model for the block status table
+     * Table model for the node table
      */
-    private class BlockTableModel extends AbstractTableModel {
+    private class NodeTableModel extends AbstractTableModel {
 
         /** Column names */
         private final String[] columnNames;
@@ -526,19 +506,13 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
         /** Column classes */
         private final Class<?>[] columnClasses;
 
-        /** Block list */
-        private final List<Response> blockList = new LinkedList<>();
-
-        /** Block map */
-        private final Map<Long, Response> blockMap = new ConcurrentHashMap<>();
-
         /**
          * Create the table model
          *
          * @param       columnName          Column names
          * @param       columnClasses       Column classes
          */
-        public BlockTableModel(String[] columnNames, Class<?>[] columnClasses) {
+        public NodeTableModel(String[] columnNames, Class<?>[] columnClasses) {
             super();
             this.columnNames = columnNames;
             this.columnClasses = columnClasses;
@@ -583,340 +557,50 @@ public class StatusPanel extends JPanel implements ActionListener, Runnable {
          */
         @Override
         public int getRowCount() {
-            return blockList.size();
+            return Main.nodeMonitors.size();
         }
 
         /**
          * Get the value for a cell
          *
+         * The lag is the number of blocks between the server chain height and the
+         * highest chain height reported by any of the servers.
+         *
          * @param       row         Row number
          * @param       column      Column number
          * @return                  Returns the object associated with the cell
          */
         @Override
         public Object getValueAt(int row, int column) {
-            if (row >= blockList.size())
+            if (row >= Main.nodeMonitors.size())
                 return null;
             Object value;
-            Response block = blockList.get(row);
-            //
-            // Get the value for the requested cell
-            //
+            NodeMonitor monitor = Main.nodeMonitors.get(row);
             switch (column) {
-                case 0:                             // Date
-                    value = new Date(block.getLong("timestamp") * 1000 + Nxt.getEpoch());
+                case 0:                             // Server
+                    Connection connection = monitor.getConnection();
+                    value = String.format("[%s]:%d", connection.getHost(), connection.getPort());
                     break;
                 case 1:                             // Height
-                    value = block.getInt("height");
-                    break;
-                case 2:                             // Block identifier
-                    value = block.getString("block");
+                    value = monitor.getChainHeight();
                     break;
-                case 3:                             // Block version
-                    value = block.getInt("version");
+                case 2:                             // Peers
+                    value = monitor.getPeerCount();
                     break;
-                case 4:                             // Block transaction count
-                    value = block.getInt("numberOfTransactions");
+                case 3:                             // Lag
+                    int bestHeight = 0;
+                    for (NodeMonitor nodeMonitor : Main.nodeMonitors)
+                        bestHeight = Math.max(bestHeight, nodeMonitor.getChainHeight());
+                    value = bestHeight - monitor.getChainHeight();
                     break;
-                case 5:                             // Block generator
-                    value = block.getString("generatorRS");
+                case 4:                             // Status
+                    value = monitor.getStatus().toString() + (monitor.isStale() ? " (saved)" : "") +
+                            (monitor.getForkDepth() != 0 ? String.format(" (fork %d)", monitor.getForkDepth()) : "");
                     break;
                 default:
                     throw new IndexOutOfBoundsException("Table column "+column+" is not valid");
             }
             return value;
         }
-
-        /**
-         * New blocks have been added to the block chain
-         *
-         * @param   blocks          Block list
-         */
-        public void blocksAdded(List<Response> blocks) {
-            for (Response block : blocks) {
-                try {
-                    long id = block.getId("block");
-                    blockList.add(block);
-                    blockMap.put(id, block);
-                } catch (IdentifierException exc) {
-                    // Ignore the block
-                }
-            }
-            fireTableDataChanged();
-        }
-
-        /**
-        * A new block has been added to the block chain
-        *
-        * @param    block                   New block
-        */
-        public void blockAdded(Response block) {
-            try {
-                long id = block.getId("block");
-                blockList.add(0, block);
-                blockMap.put(block.getId("block"), block);
-                fireTableRowsInserted(0, 0);
-            } catch (IdentifierException exc) {
-                // Ignore the block
-            }
-        }
-
-        /**
-         * An existing block has been removed from the block chain
-         *
-         * @param   blockId         Block identifier
-         */
-        public void blockRemoved(long blockId) {
-            Response block = blockMap.remove(blockId);
-            if (block != null) {
-                int row = blockList.indexOf(block);
-                if (row >= 0) {
-                    blockList.remove(row);
-                    fireTableRowsDeleted(row, row);
-                }
-            }
-        }
-
-        /**
-         * Return the block chain head
-         *
-         * @return                  Block chain head or null if the chain is empty
-         */
-        public Response getChainHead() {
-            return (!blockList.isEmpty() ? blockList.get(0) : null);
-        }
-
-        /**
-         * Return the block for the specified table row
-         *
-         * @param   row             Table row
-         * @return                  Block
-         */
-        public Response getBlock(int row) {
-            return blockList.get(row);
-        }
-    }
-
-    /**
-     * Table model for the connections table
-     */
-    private class ConnectionTableModel extends AbstractTableModel {
-
-        /** Column names */
-        private final String[] columnNames;
-
-        /** Column classes */
-        private final Class<?>[] columnClasses;
-
-        /** Connection list */
-        private final List<Response> connectionList = new LinkedList<>();
-
-        /** Connection map */
-        private final Map<String, Response> connectionMap = new ConcurrentHashMap<>();
-
-        /** Active connection count */
-        private int activeCount = 0;
-
-        /**
-         * Create the table model
-         *
-         * @param       columnName          Column names
-         * @param       columnClasses       Column classes
-         */
-        public ConnectionTableModel(String[] columnNames, Class<?>[] columnClasses) {
-            super();
-            this.columnNames = columnNames;
-            this.columnClasses = columnClasses;
-        }
-
-        /**
-         * Get the number of columns in the table
-         *
-         * @return                  The number of columns
-         */
-        @Override
-        public int getColumnCount() {
-            return columnNames.length;
-        }
-
-        /**
-         * Get the column class
-         *
-         * @param       column      Column number
-         * @return                  The column class
-         */
-        @Override
-        public Class<?> getColumnClass(int column) {
-            return columnClasses[column];
-        }
-
-        /**
-         * Get the column name
-         *
-         * @param       column      Column number
-         * @return                  Column name
-         */
-        @Override
-        public String getColumnName(int column) {
-            return columnNames[column];
-        }
-
-        /**
-         * Get the number of rows in the table
-         *
-         * @return                  The number of rows
-         */
-        @Override
-        public int getRowCount() {
-            return connectionList.size();
-        }
-
-        /**
-         * Get the value for a cell
-         *
-         * @param       row         Row number
-         * @param       column      Column number
-         * @return                  Returns the object associated with the cell
-         */
-        @Override
-        public Object getValueAt(int row, int column) {
-            if (row >= connectionList.size())
-                return null;
-            Object value = null;
-            Response peer = connectionList.get(row);
-            switch (column) {
-                case 0:                         // Network address
-                    value = peer.getString("announcedAddress");
-                    if (((String)value).isEmpty())
-                        value = peer.getString("address");
-                    break;
-                case 1:                         // Application version
-                    value = peer.getString("application") + " " + peer.getString("version");
-                    break;
-                case 2:                         // Platform
-                    value = peer.getString("platform");
-                    break;
-                case 3:                         // Services
-                    List<String> services = peer.getStringList("services");
-                    StringBuilder builder = new StringBuilder(32);
-                    services.forEach((service) -> {
-                        if (builder.length() > 0)
-                            builder.append(",");
-                        builder.append(service);
-                    });
-                    value = builder.toString();
-                    break;
-                case 4:                         // Status
-                    if (peer.getBoolean("blacklisted")) {
-                        value = "Blacklisted";
-                    } else {
-                        State state = State.fromCode(peer.getInt("state"));
-                        switch (state) {
-                            case CONNECTED:
-                                value = "Connected";
-                                break;
-                            case DISCONNECTED:
-                                value = "Disconnected";
-                                break;
-                            default:
-                                value = "Not connected";
-                        }
-                    }
-                    break;
-            }
-            return value;
-        }
-
-        /**
-         * New peers have been added
-         *
-         * @param   peerList        Peers to add
-         */
-        public void peersAdded(List<Response> peerList) {
-            peerList.stream()
-                    .filter(peer -> connectionMap.get(peer.getString("address")) == null &&
-                                    !peer.getString("version").isEmpty())
-                    .forEach(peer -> {
-                        connectionList.add(peer);
-                        connectionMap.put(peer.getString("address"), peer);
-                        if (State.fromCode(peer.getInt("state")) == State.CONNECTED)
-                            activeCount++;
-            });
-            fireTableDataChanged();
-        }
-        /**
-         * A new peer has been added
-         *
-         * @param   peer                Peer to add
-         * @param   pendingConnections  List of pending connections
-         */
-        public void peerAdded(Response peer, List<String> pendingConnections) {
-            String address = peer.getString("address");
-            if (peer.getString("version").isEmpty()) {
-                if (!pendingConnections.contains(address))
-                    pendingConnections.add(address);
-                return;
-            }
-            State peerState = State.fromCode(peer.getInt("state"));
-            Response mapPeer = connectionMap.get(address);
-            if (mapPeer == null) {
-                connectionList.add(peer);
-                connectionMap.put(address, peer);
-                if (peerState == State.CONNECTED)
-                    activeCount++;
-                fireTableRowsInserted(connectionList.size()-1, connectionList.size()-1);
-            } else {
-                State mapState = State.fromCode(mapPeer.getInt("state"));
-                if (mapState == State.CONNECTED && peerState != State.CONNECTED)
-                    activeCount--;
-                else if (mapState != State.CONNECTED && peerState == State.CONNECTED)
-                    activeCount++;
-                int row = connectionList.indexOf(mapPeer);
-                connectionList.set(row, peer);
-                connectionMap.put(address, peer);
-                fireTableRowsUpdated(row, row);
-            }
-        }
-
-        /**
-         * An existing peer has been updated
-         *
-         * @param   address         Peer network address
-         * @param   state           New peer state
-         * @param   blaocklisted    TRUE if the peer is blacklisted
-         */
-        public void peerUpdated(String address, State state, boolean blacklisted) {
-            Response peer = connectionMap.get(address);
-            if (peer != null) {
-                State peerState = State.fromCode(peer.getInt("state"));
-                if (peerState == State.CONNECTED && state != State.CONNECTED)
-                    activeCount--;
-                else if (peerState != State.CONNECTED && state == State.CONNECTED)
-                    activeCount++;
-                int row = connectionList.indexOf(peer);
-                peer.getObjectMap().put("state", (long)state.getCode());
-                peer.getObjectMap().put("blacklisted", blacklisted);
-                fireTableRowsUpdated(row, row);
-            }
-        }
-
-        /**
-         * Return an existing peer
-         *
-         * @param   address         Peer network address
-         * @return                  Peer or null if peer not found
-         */
-        public Response getPeer(String address) {
-            return connectionMap.get(address);
-        }
-
-        /**
-         * Return the active connection count
-         *
-         * @return                  Active connection count
-         */
-        public int getActiveCount() {
-            return activeCount;
-        }
     }
 }
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Transaction;
+import org.ScripterRon.Nxt2API.Utils;
+
+import org.ScripterRon.JSON.JSONParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * TransactionCache is a size-bounded LRU cache of parsed transactions keyed by the
+ * transaction full hash.  The transaction list for a block is also cached using the
+ * block identifier.  The full hash and the block identifier are both computed from
+ * the content, so a cached entry never needs to be refreshed.
+ *
+ * The transactions can optionally be written to a spill file in the application data
+ * directory.  A transaction that has been evicted from memory is then read from the
+ * spill file instead of being requested from the server.  Each spill record contains
+ * the full hash and the deflated transaction JSON.  The spill file is reset once it
+ * reaches its maximum size.
+ */
+class TransactionCache {
+
+    /** Maximum number of cached block transaction lists */
+    private static final int BLOCK_CACHE_SIZE = 500;
+
+    /** Maximum spill file size */
+    private static final long MAX_SPILL_SIZE = 64L * 1024 * 1024;
+
+    /** Cached transactions */
+    private final Map<String, Transaction> txMap;
+
+    /** Cached block transaction lists */
+    private final Map<String, List<TransactionReference>> blockMap;
+
+    /** Spill file or null if spilling is not enabled */
+    private RandomAccessFile spillFile;
+
+    /** Spill file index (full hash to record offset) */
+    private final Map<String, Long> spillIndex = new HashMap<>();
+
+    /** Number of cache hits */
+    private long hitCount;
+
+    /** Number of cache misses */
+    private long missCount;
+
+    /** Number of cache hits satisfied from the spill file */
+    private long spillHitCount;
+
+    /**
+     * Create the transaction cache
+     *
+     * @param       capacity        Maximum number of transactions kept in memory
+     * @param       spillPath       Spill file path or null to disable the spill file
+     */
+    TransactionCache(int capacity, String spillPath) {
+        txMap = new LinkedHashMap<String, Transaction>(capacity*4/3+1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Transaction> eldest) {
+                return size() > capacity;
+            }
+        };
+        blockMap = new LinkedHashMap<String, List<TransactionReference>>(BLOCK_CACHE_SIZE*4/3+1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<TransactionReference>> eldest) {
+                return size() > BLOCK_CACHE_SIZE;
+            }
+        };
+        if (spillPath != null) {
+            try {
+                spillFile = new RandomAccessFile(new File(spillPath), "rw");
+                loadSpillIndex();
+            } catch (IOException exc) {
+                Main.log.error("Unable to open transaction spill file", exc);
+                closeSpillFile();
+            }
+        }
+    }
+
+    /**
+     * Return a cached transaction
+     *
+     * @param       fullHash        Transaction full hash (hex string)
+     * @return                      Transaction or null if the transaction is not cached
+     */
+    synchronized Transaction get(String fullHash) {
+        Transaction tx = txMap.get(fullHash);
+        if (tx == null && spillFile != null) {
+            Long offset = spillIndex.get(fullHash);
+            if (offset != null) {
+                tx = readSpillRecord(offset);
+                if (tx != null) {
+                    txMap.put(fullHash, tx);
+                    spillHitCount++;
+                }
+            }
+        }
+        if (tx != null)
+            hitCount++;
+        else
+            missCount++;
+        return tx;
+    }
+
+    /**
+     * Add a transaction to the cache
+     *
+     * @param       tx              Parsed transaction
+     * @param       txJson          Transaction JSON returned by the server
+     */
+    synchronized void put(Transaction tx, Response txJson) {
+        String fullHash = Utils.toHexString(tx.getFullHash());
+        txMap.put(fullHash, tx);
+        if (spillFile != null && !spillIndex.containsKey(fullHash))
+            writeSpillRecord(fullHash, txJson);
+    }
+
+    /**
+     * Return the cached transaction list for a block
+     *
+     * @param       blockId         Block identifier
+     * @return                      Transaction references or null if the block is not cached
+     */
+    synchronized List<TransactionReference> getBlock(String blockId) {
+        return blockMap.get(blockId);
+    }
+
+    /**
+     * Add the transaction list for a block
+     *
+     * @param       blockId         Block identifier
+     * @param       txList          Transaction references
+     */
+    synchronized void putBlock(String blockId, List<TransactionReference> txList) {
+        blockMap.put(blockId, Collections.unmodifiableList(txList));
+    }
+
+    /**
+     * Return the number of cache hits
+     *
+     * @return                      Hit count
+     */
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Return the number of cache misses
+     *
+     * @return                      Miss count
+     */
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Return the number of cache hits that were read from the spill file
+     *
+     * @return                      Spill hit count
+     */
+    synchronized long getSpillHitCount() {
+        return spillHitCount;
+    }
+
+    /**
+     * Return the number of transactions in memory
+     *
+     * @return                      Cached transaction count
+     */
+    synchronized int size() {
+        return txMap.size();
+    }
+
+    /**
+     * Build the spill file index
+     *
+     * A partial record at the end of the file is discarded.
+     *
+     * @throws      IOException     Unable to read the spill file
+     */
+    private void loadSpillIndex() throws IOException {
+        long offset = 0;
+        long length = spillFile.length();
+        spillFile.seek(0);
+        while (offset + 6 <= length) {
+            int hashLength = spillFile.readUnsignedShort();
+            int dataLength = spillFile.readInt();
+            long next = offset + 6 + hashLength + dataLength;
+            if (hashLength == 0 || dataLength <= 0 || next > length)
+                break;
+            byte[] hashBytes = new byte[hashLength];
+            spillFile.readFully(hashBytes);
+            spillIndex.put(Utils.toHexString(hashBytes), offset);
+            spillFile.seek(next);
+            offset = next;
+        }
+        if (offset != length)
+            spillFile.setLength(offset);
+        Main.log.info(String.format("%d transactions in the transaction spill file", spillIndex.size()));
+    }
+
+    /**
+     * Read a transaction from the spill file
+     *
+     * @param       offset          Record offset
+     * @return                      Transaction or null if the record is not valid
+     */
+    @SuppressWarnings("unchecked")
+    private Transaction readSpillRecord(long offset) {
+        Transaction tx = null;
+        try {
+            spillFile.seek(offset);
+            int hashLength = spillFile.readUnsignedShort();
+            int dataLength = spillFile.readInt();
+            spillFile.skipBytes(hashLength);
+            byte[] data = new byte[dataLength];
+            spillFile.readFully(data);
+            Inflater inflater = new Inflater();
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(dataLength*4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && inflater.needsInput())
+                    throw new DataFormatException("Spill record is truncated");
+                out.write(buffer, 0, count);
+            }
+            inflater.end();
+            Object json = JSONParser.parse(new String(out.toByteArray(), StandardCharsets.UTF_8));
+            Response txJson = new Response((Map<String, Object>)json);
+            tx = Transaction.processTransactions(Collections.singletonList(txJson)).get(0);
+        } catch (Exception exc) {
+            Main.log.error("Unable to read transaction spill record", exc);
+        }
+        return tx;
+    }
+
+    /**
+     * Append a transaction to the spill file
+     *
+     * @param       fullHash        Transaction full hash
+     * @param       txJson          Transaction JSON
+     */
+    private void writeSpillRecord(String fullHash, Response txJson) {
+        try {
+            StringBuilder sb = new StringBuilder(1024);
+            appendJson(sb, txJson.getObjectMap());
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            deflater.setInput(sb.toString().getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(sb.length());
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            deflater.end();
+            byte[] hashBytes = Utils.parseHexString(fullHash);
+            byte[] data = out.toByteArray();
+            long offset = spillFile.length();
+            if (offset + 6 + hashBytes.length + data.length > MAX_SPILL_SIZE) {
+                spillFile.setLength(0);
+                spillIndex.clear();
+                offset = 0;
+            }
+            spillFile.seek(offset);
+            spillFile.writeShort(hashBytes.length);
+            spillFile.writeInt(data.length);
+            spillFile.write(hashBytes);
+            spillFile.write(data);
+            spillIndex.put(fullHash, offset);
+        } catch (IOException exc) {
+            Main.log.error("Unable to write transaction spill record", exc);
+            closeSpillFile();
+        }
+    }
+
+    /**
+     * Close the spill file and stop spilling transactions
+     */
+    private void closeSpillFile() {
+        if (spillFile != null) {
+            try {
+                spillFile.close();
+            } catch (IOException exc) {
+                // Ignore the exception
+            }
+            spillFile = null;
+            spillIndex.clear();
+        }
+    }
+
+    /**
+     * Append a JSON value
+     *
+     * @param       sb              String builder
+     * @param       value           JSON value (Map, List, String, Number, Boolean, Response or null)
+     */
+    static void appendJson(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+                if (!first)
+                    sb.append(',');
+                appendJson(sb, entry.getKey().toString());
+                sb.append(':');
+                appendJson(sb, entry.getValue());
+                first = false;
+            }
+            sb.append('}');
+        } else if (value instanceof List) {
+            sb.append('[');
+            boolean first = true;
+            for (Object element : (List<?>)value) {
+                if (!first)
+                    sb.append(',');
+                appendJson(sb, element);
+                first = false;
+            }
+            sb.append(']');
+        } else if (value instanceof String) {
+            String string = (String)value;
+            sb.append('"');
+            for (int i=0; i<string.length(); i++) {
+                char c = string.charAt(i);
+                switch (c) {
+                    case '"':
+                        sb.append("\\\"");
+                        break;
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20)
+                            sb.append(String.format("\\u%04x", (int)c));
+                        else
+                            sb.append(c);
+                }
+            }
+            sb.append('"');
+        } else if (value instanceof Response) {
+            appendJson(sb, ((Response)value).getObjectMap());
+        } else {
+            sb.append(value.toString());
+        }
+    }
+
+    /**
+     * Reference to a block transaction
+     */
+    static class TransactionReference {
+
+        /** Transaction full hash (hex string) */
+        private final String fullHash;
+
+        /** Chain name */
+        private final String chain;
+
+        /**
+         * Create a transaction reference
+         *
+         * @param       fullHash        Transaction full hash (hex string)
+         * @param       chain           Chain name
+         */
+        TransactionReference(String fullHash, String chain) {
+            this.fullHash = fullHash;
+            this.chain = chain;
+        }
+
+        /**
+         * Return the transaction full hash
+         *
+         * @return                      Full hash (hex string)
+         */
+        String getFullHash() {
+            return fullHash;
+        }
+
+        /**
+         * Return the chain name
+         *
+         * @return                      Chain name
+         */
+        String getChain() {
+            return chain;
+        }
+    }
+}
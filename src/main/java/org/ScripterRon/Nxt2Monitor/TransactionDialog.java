@@ -21,11 +21,15 @@ import org.ScripterRon.Nxt2API.Response;
 import org.ScripterRon.Nxt2API.Transaction;
 import org.ScripterRon.Nxt2API.Utils;
 
-import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
@@ -38,16 +42,21 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.SwingWorker;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableRowSorter;
 import javax.swing.ListSelectionModel;
@@ -55,6 +64,12 @@ import javax.swing.WindowConstants;
 
 /**
  * Display the transactions in a block
+ *
+ * The dialog is displayed as soon as it is created and the transactions are added to
+ * the table as they are received from the server.  The child chain transactions for a
+ * ChildBlock transaction are fetched in parallel using the background request class
+ * for the server, so a large block does not delay the requests for user actions.  Transactions that are in the transaction cache are displayed without
+ * sending a request to the server.
  */
 public class TransactionDialog extends JDialog implements ActionListener {
 
@@ -80,13 +95,23 @@ public class TransactionDialog extends JDialog implements ActionListener {
     /** Transaction table popup menu */
     private final JPopupMenu tablePopup;
 
+    /** Load progress bar */
+    private final JProgressBar progressBar;
+
+    /** Load status field */
+    private final JLabel statusField;
+
+    /** Transaction loader */
+    private final TransactionLoader loader;
+
     /**
      * Create the dialog
      *
      * @param       parent          Parent frame
-     * @param       transactions    Block transactions
+     * @param       nodeMonitor     Node monitor for the server
+     * @param       blockId         Block identifier
      */
-    public TransactionDialog(JFrame parent, List<Response> transactions) {
+    public TransactionDialog(JFrame parent, NodeMonitor nodeMonitor, String blockId) {
         super(parent, "Block Transactions", Dialog.ModalityType.DOCUMENT_MODAL);
         setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
         TableMouseListener mouseListener = new TableMouseListener();
@@ -95,7 +120,7 @@ public class TransactionDialog extends JDialog implements ActionListener {
         //
         tablePopup = new PopupMenu(this, new String[] {"Copy Transaction Hash", "copy hash"},
                                          new String[] {"View Transaction", "view transaction"});
-        tableModel = new TransactionTableModel(columnNames, columnClasses, transactions);
+        tableModel = new TransactionTableModel(columnNames, columnClasses);
         table = new SizedTable(tableModel, columnTypes);
         table.setRowSorter(new TableRowSorter<>(tableModel));
         table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
@@ -112,10 +137,27 @@ public class TransactionDialog extends JDialog implements ActionListener {
         tablePane.add(scrollPane);
         tablePane.add(Box.createVerticalStrut(25));
         //
-        // Create the buttons (Done)
+        // Create the progress pane
+        //
+        progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        statusField = new JLabel("Loading block "+blockId, JLabel.CENTER);
+        JPanel progressPane = new JPanel();
+        progressPane.setBackground(Color.WHITE);
+        progressPane.add(progressBar);
+        progressPane.add(Box.createHorizontalStrut(10));
+        progressPane.add(statusField);
+        //
+        // Create the buttons (Cancel, Done)
         //
-        JPanel buttonPane = new ButtonPane(this, 10, new String[] {"Done", "done"});
+        JPanel buttonPane = new ButtonPane(this, 10, new String[] {"Cancel", "cancel"},
+                                                     new String[] {"Done", "done"});
         buttonPane.setBackground(Color.WHITE);
+        JPanel southPane = new JPanel();
+        southPane.setBackground(Color.WHITE);
+        southPane.setLayout(new BoxLayout(southPane, BoxLayout.Y_AXIS));
+        southPane.add(progressPane);
+        southPane.add(buttonPane);
         //
         // Set up the content pane
         //
@@ -124,46 +166,34 @@ public class TransactionDialog extends JDialog implements ActionListener {
         contentPane.setBackground(Color.WHITE);
         contentPane.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
         contentPane.add(tablePane, BorderLayout.CENTER);
-        contentPane.add(buttonPane, BorderLayout.SOUTH);
+        contentPane.add(southPane, BorderLayout.SOUTH);
         setContentPane(contentPane);
+        //
+        // Start loading the block transactions
+        //
+        loader = new TransactionLoader(nodeMonitor, blockId);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent we) {
+                loader.cancel(true);
+            }
+        });
+        loader.execute();
     }
 
     /**
      * Show the block transactions dialog
      *
      * @param       parent              Parent frame
+     * @param       nodeMonitor         Node monitor for the server
      * @param       blockId             Block identifier
      */
-    public static void showDialog(JFrame parent, String blockId) {
+    public static void showDialog(JFrame parent, NodeMonitor nodeMonitor, String blockId) {
         try {
-            //
-            // Get the block transactions
-            //
-            Response block = Nxt.getBlock(blockId, true);
-            List<Response> blockTransactions = block.getObjectList("transactions");
-            List<Response> transactions = new ArrayList<>();
-            for (Response tx : blockTransactions) {
-                if (tx.getInt("type") == -1) {
-                    Response attachment = tx.getObject("attachment");
-                    Chain chain = Nxt.getChain(attachment.getInt("chain"));
-                    List<String> hashList = attachment.getStringList("childTransactionFullHashes");
-                    for (String hash : hashList) {
-                        transactions.add(Nxt.getTransaction(Utils.parseHexString(hash), chain));
-                    }
-                } else {
-                    transactions.add(tx);
-                }
-            }
-            //
-            // Display the dialog
-            //
-            TransactionDialog dialog = new TransactionDialog(parent, transactions);
+            TransactionDialog dialog = new TransactionDialog(parent, nodeMonitor, blockId);
             dialog.pack();
             dialog.setLocationRelativeTo(parent);
             dialog.setVisible(true);
-        } catch (IOException exc) {
-            Main.log.error("Unable to get block transactions", exc);
-            Main.logException("Unable to get block transactions", exc);
         } catch (Exception exc) {
             Main.log.error("Exception while displaying dialog", exc);
             Main.logException("Exception while displaying dialog", exc);
@@ -178,6 +208,7 @@ public class TransactionDialog extends JDialog implements ActionListener {
     @Override
     public void actionPerformed(ActionEvent ae) {
         //
+        // "cancel"             - Stop loading transactions
         // "copy hash"          - Copy transaction hash to clipboard
         // "done"               - Done displaying block transactions
         // "view transaction"   - Show transaction details
@@ -189,7 +220,11 @@ public class TransactionDialog extends JDialog implements ActionListener {
             Clipboard cb;
             String action = ae.getActionCommand();
             switch (action) {
+                case "cancel":
+                    loader.cancel(true);
+                    break;
                 case "done":
+                    loader.cancel(true);
                     setVisible(false);
                     dispose();
                     break;
@@ -247,6 +282,201 @@ public class TransactionDialog extends JDialog implements ActionListener {
         }
     }
 
+    /**
+     * Load the block transactions in the background
+     *
+     * Transactions are published to the AWT event thread as they are received.  The
+     * outstanding requests are cancelled when the loader is cancelled.  The block and
+     * transaction requests are read-only, so they are hedged when request hedging
+     * is enabled.
+     */
+    private class TransactionLoader extends SwingWorker<Void, Transaction> {
+
+        /** Node monitor */
+        private final NodeMonitor nodeMonitor;
+
+        /** Block identifier */
+        private final String blockId;
+
+        /** Outstanding transaction requests */
+        private final List<Future<Response>> requests = new ArrayList<>();
+
+        /** Total number of transactions */
+        private volatile int totalCount = -1;
+
+        /** Number of transactions loaded */
+        private int loadedCount = 0;
+
+        /** Number of failed transaction requests */
+        private volatile int failedCount = 0;
+
+        /** Number of transactions found in the transaction cache */
+        private volatile int cachedCount = 0;
+
+        /**
+         * Create the transaction loader
+         *
+         * @param   nodeMonitor     Node monitor for the server
+         * @param   blockId         Block identifier
+         */
+        public TransactionLoader(NodeMonitor nodeMonitor, String blockId) {
+            this.nodeMonitor = nodeMonitor;
+            this.blockId = blockId;
+        }
+
+        /**
+         * Load the block transactions (background thread)
+         *
+         * @return                  Null
+         * @throws  Exception       Unable to get the block
+         */
+        @Override
+        protected Void doInBackground() throws Exception {
+            TransactionCache txCache = Main.transactionCache;
+            List<Transaction> transactions = new ArrayList<>();
+            BlockingQueue<Future<Response>> completionQueue = new LinkedBlockingQueue<>();
+            //
+            // Get the block if the block transaction list is not cached.  The
+            // block transactions are returned with the block, so only the child
+            // chain transactions need to be looked up in the transaction cache.
+            //
+            List<TransactionCache.TransactionReference> txRefs = txCache.getBlock(blockId);
+            if (txRefs == null) {
+                Response block = RequestHedger.call(nodeMonitor, client -> client.getBlock(blockId, true));
+                List<Response> blockTransactions = new ArrayList<>();
+                List<TransactionCache.TransactionReference> childRefs = new ArrayList<>();
+                for (Response tx : block.getObjectList("transactions")) {
+                    if (tx.getInt("type") == -1) {
+                        Response attachment = tx.getObject("attachment");
+                        Chain chain = Nxt.getChain(attachment.getInt("chain"));
+                        List<String> hashList = attachment.getStringList("childTransactionFullHashes");
+                        for (String hash : hashList) {
+                            childRefs.add(new TransactionCache.TransactionReference(hash, chain.getName()));
+                        }
+                    } else {
+                        blockTransactions.add(tx);
+                    }
+                }
+                List<TransactionCache.TransactionReference> blockRefs = new ArrayList<>();
+                List<Transaction> parsedList = Transaction.processTransactions(blockTransactions);
+                for (int i=0; i<parsedList.size(); i++) {
+                    Transaction tx = parsedList.get(i);
+                    txCache.put(tx, blockTransactions.get(i));
+                    blockRefs.add(new TransactionCache.TransactionReference(
+                            Utils.toHexString(tx.getFullHash()), tx.getChain().getName()));
+                }
+                blockRefs.addAll(childRefs);
+                txCache.putBlock(blockId, blockRefs);
+                transactions.addAll(parsedList);
+                txRefs = childRefs;
+            }
+            //
+            // Start fetching the transactions that are not in the cache.  The request
+            // list is changed while holding its lock so that done() cancels every
+            // request that is started.
+            //
+            int requestCount = 0;
+            for (TransactionCache.TransactionReference txRef : txRefs) {
+                if (isCancelled())
+                    return null;
+                Transaction tx = txCache.get(txRef.getFullHash());
+                if (tx != null) {
+                    transactions.add(tx);
+                    cachedCount++;
+                } else {
+                    synchronized(requests) {
+                        if (isCancelled())
+                            return null;
+                        requests.add(RequestHedger.submit(nodeMonitor, RequestScheduler.Priority.BACKGROUND,
+                                client -> client.getTransaction(txRef.getFullHash(), txRef.getChain()),
+                                completionQueue));
+                    }
+                    requestCount++;
+                }
+            }
+            totalCount = transactions.size() + requestCount;
+            publish(transactions.toArray(new Transaction[0]));
+            //
+            // Add the child chain transactions as they are received
+            //
+            for (int i=0; i<requestCount && !isCancelled(); i++) {
+                Future<Response> request = completionQueue.take();
+                try {
+                    Response txJson = request.get();
+                    Transaction tx = Transaction.processTransactions(Collections.singletonList(txJson)).get(0);
+                    txCache.put(tx, txJson);
+                    publish(tx);
+                } catch (ExecutionException exc) {
+                    Main.log.error("Unable to get child chain transaction", exc.getCause());
+                    failedCount++;
+                } catch (Exception exc) {
+                    Main.log.error("Unable to process child chain transaction", exc);
+                    failedCount++;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Add transactions to the table (AWT event thread)
+         *
+         * @param   txList          Transactions received since the last update
+         */
+        @Override
+        protected void process(List<Transaction> txList) {
+            if (isCancelled())
+                return;
+            tableModel.transactionsAdded(txList);
+            loadedCount += txList.size();
+            updateProgress();
+        }
+
+        /**
+         * Loading is complete (AWT event thread)
+         */
+        @Override
+        protected void done() {
+            synchronized(requests) {
+                requests.forEach(request -> request.cancel(true));
+            }
+            progressBar.setIndeterminate(false);
+            if (isCancelled()) {
+                statusField.setText(String.format("Cancelled after %,d of %,d transactions",
+                                                  loadedCount, Math.max(totalCount, 0)));
+                return;
+            }
+            try {
+                get();
+                updateProgress();
+            } catch (ExecutionException exc) {
+                Throwable cause = exc.getCause();
+                statusField.setText("Unable to get block transactions");
+                Main.log.error("Unable to get block transactions", cause);
+                Main.logException("Unable to get block transactions", cause);
+            } catch (InterruptedException exc) {
+                statusField.setText("Unable to get block transactions");
+            }
+        }
+
+        /**
+         * Update the progress bar and status field (AWT event thread)
+         */
+        private void updateProgress() {
+            if (totalCount < 0)
+                return;
+            progressBar.setIndeterminate(false);
+            progressBar.setMaximum(Math.max(totalCount, 1));
+            progressBar.setValue(loadedCount);
+            StringBuilder sb = new StringBuilder(80);
+            sb.append(String.format("Loaded %,d of %,d transactions", loadedCount, totalCount));
+            if (cachedCount != 0)
+                sb.append(String.format(" (%,d cached)", cachedCount));
+            if (failedCount != 0)
+                sb.append(String.format(" (%,d failed)", failedCount));
+            statusField.setText(sb.toString());
+        }
+    }
+
     /**
      * Transaction table model
      */
@@ -259,29 +489,20 @@ public class TransactionDialog extends JDialog implements ActionListener {
         private final Class<?>[] columnClasses;
 
         /** Block transactions */
-        private List<Transaction> transactions;
+        private final List<Transaction> transactions = new ArrayList<>();
 
         /**
          * Create the transaction table model
          *
          * @param       columnName          Column names
          * @param       columnClasses       Column classes
-         * @param       blockTransactions   Block transactions
          */
-        public TransactionTableModel(String[] columnNames, Class<?>[] columnClasses,
-                                     List<Response> blockTransactions) {
+        public TransactionTableModel(String[] columnNames, Class<?>[] columnClasses) {
             super();
             if (columnNames.length != columnClasses.length)
                 throw new IllegalArgumentException("Number of names not same as number of classes");
             this.columnNames = columnNames;
             this.columnClasses = columnClasses;
-            try {
-                this.transactions = Transaction.processTransactions(blockTransactions);
-            } catch (Exception exc) {
-                Main.log.error("Unable to process block transactions", exc);
-                Main.logException("Unable to process block transactions", exc);
-                this.transactions = new ArrayList<>(0);
-            }
         }
 
         /**
@@ -376,6 +597,19 @@ public class TransactionDialog extends JDialog implements ActionListener {
             return value;
         }
 
+        /**
+         * Transactions have been received
+         *
+         * @param   txList              Transactions
+         */
+        public void transactionsAdded(List<Transaction> txList) {
+            if (txList.isEmpty())
+                return;
+            int firstRow = transactions.size();
+            transactions.addAll(txList);
+            fireTableRowsInserted(firstRow, transactions.size()-1);
+        }
+
         /**
          * Get the transaction for the specified row
          *
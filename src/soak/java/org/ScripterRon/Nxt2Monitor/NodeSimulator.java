@@ -0,0 +1,1106 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NodeSimulator is a local stand-in for an NRS node.  It implements the API requests
+ * used by the monitor and generates server events at a configurable rate.
+ *
+ * The simulated chain has a single child chain.  Each block contains one ChildBlock
+ * transaction listing the child chain transactions for the block.  The transactions
+ * are generated from the block identifier when they are requested and contain the
+ * common transaction fields.
+ *
+ * The simulator can be run in-process by the soak test or as a separate program:
+ *
+ *   java -cp classpath org.ScripterRon.Nxt2Monitor.NodeSimulator port [peerEventRate [blockInterval [transactionsPerBlock]]]
+ */
+class NodeSimulator implements HttpHandler {
+
+    /** First block identifier */
+    private static final long FIRST_BLOCK_ID = 0x2000000000000000L;
+
+    /** Maximum number of blocks returned by getBlocks */
+    private static final int MAX_BLOCKS = 100;
+
+    /** Maximum number of queued events for an event registration */
+    private static final int MAX_QUEUED_EVENTS = 100000;
+
+    /** Number of log messages retained */
+    private static final int LOG_SIZE = 1000;
+
+    /** Number of block emit times retained */
+    private static final int EMIT_TIME_SIZE = 100000;
+
+    /** Generator tick (milliseconds) */
+    private static final long TICK = 10;
+
+    /** Child chain identifier */
+    private static final int CHILD_CHAIN = 2;
+
+    /** Generator accounts */
+    private static final String[] accounts = {
+        "ARDOR-XK4R-7VJU-6EQG-7R335", "ARDOR-5MYN-AP7M-NKMH-CRQJZ", "ARDOR-EVHD-5FLM-3NMQ-G46NR",
+        "ARDOR-ZKGX-NHTY-3V6E-FA5DQ", "ARDOR-8P4T-ANUH-3UTR-BB3VP"};
+
+    /** HTTP server */
+    private final HttpServer server;
+
+    /** Request executor */
+    private final ExecutorService executor;
+
+    /** Random number generator (generator thread) */
+    private final Random random = new Random(1);
+
+    /** Block chain ordered from the genesis block to the chain head */
+    private final List<SimBlock> chain = new ArrayList<>();
+
+    /** All blocks, including blocks removed by a reorganization */
+    private final Map<Long, SimBlock> blockMap = new HashMap<>();
+
+    /** Peers */
+    private final List<SimPeer> peerList = new ArrayList<>();
+
+    /** Peers by address */
+    private final Map<String, SimPeer> peerMap = new HashMap<>();
+
+    /** Event registrations */
+    private final Map<Long, Registration> registrations = new ConcurrentHashMap<>();
+
+    /** Log messages */
+    private final ArrayDeque<String> logMessages = new ArrayDeque<>(LOG_SIZE);
+
+    /** Block emit times (System.nanoTime) */
+    private final Map<String, Long> emitTimes = new LinkedHashMap<String, Long>(EMIT_TIME_SIZE*4/3+1) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > EMIT_TIME_SIZE;
+        }
+    };
+
+    /** Next block identifier */
+    private long nextBlockId = FIRST_BLOCK_ID;
+
+    /** Next event token */
+    private final AtomicLong nextToken = new AtomicLong(1);
+
+    /** Number of events generated */
+    private final AtomicLong eventCount = new AtomicLong();
+
+    /** Number of events discarded because a registration queue was full */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /** Number of API requests */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /** Number of blocks pushed */
+    private final AtomicLong blockCount = new AtomicLong();
+
+    /** Number of reorganizations */
+    private final AtomicLong reorgCount = new AtomicLong();
+
+    /** Peer events per second */
+    private volatile int peerEventRate = 100;
+
+    /** Block interval (milliseconds) */
+    private volatile long blockInterval = 10000;
+
+    /** Child chain transactions per block */
+    private volatile int transactionsPerBlock = 10;
+
+    /** Reorganization interval (milliseconds, 0 to disable) */
+    private volatile long reorgInterval = 0;
+
+    /** Reorganization depth */
+    private volatile int reorgDepth = 3;
+
+    /** Event generator thread */
+    private Thread generatorThread;
+
+    /** Simulator has been stopped */
+    private volatile boolean stopped = false;
+
+    /** Event generation is paused */
+    private volatile boolean paused = false;
+
+    /**
+     * Create the simulator
+     *
+     * @param       port            Local port or 0 to use any available port
+     * @param       peerCount       Number of peers
+     * @param       initialBlocks   Number of blocks in the initial chain
+     * @throws      IOException     Unable to create the HTTP server
+     */
+    NodeSimulator(int port, int peerCount, int initialBlocks) throws IOException {
+        for (int i=0; i<peerCount; i++)
+            addPeer(i);
+        int timestamp = epochTime() - initialBlocks*60;
+        for (int i=0; i<initialBlocks; i++)
+            addBlock(timestamp + i*60);
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/nxt", this);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Simulator Request");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Run the simulator as a separate program
+     *
+     * @param       args            port [peerEventRate [blockInterval [transactionsPerBlock]]]
+     * @throws      Exception       Unable to start the simulator
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: NodeSimulator port [peerEventRate [blockInterval [transactionsPerBlock]]]");
+            System.exit(1);
+        }
+        NodeSimulator simulator = new NodeSimulator(Integer.parseInt(args[0]), 500, 1000);
+        if (args.length > 1)
+            simulator.setPeerEventRate(Integer.parseInt(args[1]));
+        if (args.length > 2)
+            simulator.setBlockInterval(Long.parseLong(args[2]));
+        if (args.length > 3)
+            simulator.setTransactionsPerBlock(Integer.parseInt(args[3]));
+        simulator.start();
+        System.out.println(String.format("Simulator listening on port %d", simulator.getPort()));
+        while (true) {
+            Thread.sleep(10000);
+            System.out.println(String.format("%,d events, %,d dropped, %,d requests, height %d",
+                    simulator.getEventCount(), simulator.getDroppedCount(),
+                    simulator.getRequestCount(), simulator.getChainHeight()));
+        }
+    }
+
+    /**
+     * Set the peer event rate
+     *
+     * @param       rate            Peer events per second
+     */
+    void setPeerEventRate(int rate) {
+        peerEventRate = rate;
+    }
+
+    /**
+     * Set the block interval
+     *
+     * @param       interval        Block interval (milliseconds)
+     */
+    void setBlockInterval(long interval) {
+        blockInterval = Math.max(interval, TICK);
+    }
+
+    /**
+     * Set the number of child chain transactions in each block
+     *
+     * @param       count           Transaction count
+     */
+    void setTransactionsPerBlock(int count) {
+        transactionsPerBlock = count;
+    }
+
+    /**
+     * Set the chain reorganization schedule
+     *
+     * @param       interval        Reorganization interval (milliseconds, 0 to disable)
+     * @param       depth           Number of blocks replaced
+     */
+    void setReorg(long interval, int depth) {
+        reorgInterval = interval;
+        reorgDepth = depth;
+    }
+
+    /**
+     * Start the simulator
+     */
+    void start() {
+        server.start();
+        generatorThread = new Thread(() -> generateEvents(), "Simulator Event Generator");
+        generatorThread.setDaemon(true);
+        generatorThread.start();
+    }
+
+    /**
+     * Pause or resume event generation
+     *
+     * @param       pause           TRUE to pause event generation
+     */
+    void setPaused(boolean pause) {
+        paused = pause;
+    }
+
+    /**
+     * Stop the simulator
+     */
+    void stop() {
+        stopped = true;
+        if (generatorThread != null)
+            generatorThread.interrupt();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Return the simulator port
+     *
+     * @return                      Port
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Return the number of events generated
+     *
+     * @return                      Event count
+     */
+    long getEventCount() {
+        return eventCount.get();
+    }
+
+    /**
+     * Return the number of events discarded because a registration queue was full
+     *
+     * @return                      Dropped event count
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Return the number of API requests
+     *
+     * @return                      Request count
+     */
+    long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Return the number of blocks pushed by the event generator
+     *
+     * @return                      Block count
+     */
+    long getBlockCount() {
+        return blockCount.get();
+    }
+
+    /**
+     * Return the number of chain reorganizations
+     *
+     * @return                      Reorganization count
+     */
+    long getReorgCount() {
+        return reorgCount.get();
+    }
+
+    /**
+     * Return the current chain height
+     *
+     * @return                      Chain height
+     */
+    synchronized int getChainHeight() {
+        return chain.size()-1;
+    }
+
+    /**
+     * Return the chain head identifier
+     *
+     * @return                      Block identifier
+     */
+    synchronized String getChainHead() {
+        return Long.toUnsignedString(chain.get(chain.size()-1).id);
+    }
+
+    /**
+     * Return the time the BLOCK_PUSHED event was generated for a block
+     *
+     * @param       blockId         Block identifier
+     * @return                      Emit time (System.nanoTime) or 0 if not known
+     */
+    long getEmitTime(String blockId) {
+        synchronized(emitTimes) {
+            Long time = emitTimes.get(blockId);
+            return (time != null ? time : 0);
+        }
+    }
+
+    /**
+     * Generate server events
+     */
+    private void generateEvents() {
+        long lastTime = System.nanoTime();
+        long nextBlockTime = lastTime + blockInterval*1000000;
+        long nextReorgTime = lastTime + reorgInterval*1000000;
+        double peerCredit = 0;
+        while (!stopped) {
+            try {
+                Thread.sleep(TICK);
+            } catch (InterruptedException exc) {
+                break;
+            }
+            long now = System.nanoTime();
+            if (paused) {
+                lastTime = now;
+                nextBlockTime = now + blockInterval*1000000;
+                nextReorgTime = now + reorgInterval*1000000;
+                continue;
+            }
+            peerCredit += (double)peerEventRate * (now - lastTime) / 1.0e9;
+            lastTime = now;
+            while (peerCredit >= 1.0) {
+                peerEvent();
+                peerCredit -= 1.0;
+            }
+            if (now >= nextBlockTime) {
+                pushBlock();
+                nextBlockTime = now + blockInterval*1000000;
+            }
+            if (reorgInterval > 0 && now >= nextReorgTime) {
+                reorganize();
+                nextReorgTime = now + reorgInterval*1000000;
+            }
+        }
+    }
+
+    /**
+     * Generate a peer event
+     *
+     * Most events change the peer state.  A few events blacklist or unblacklist a peer
+     * or add a new peer.
+     */
+    private void peerEvent() {
+        String name;
+        String address;
+        synchronized(this) {
+            int selector = random.nextInt(100);
+            if (selector == 0 && peerList.size() < 10000) {
+                SimPeer peer = addPeer(peerList.size());
+                peer.state = 1;
+                name = "Peer.ADD_ACTIVE_PEER";
+                address = peer.address;
+            } else {
+                SimPeer peer = peerList.get(random.nextInt(peerList.size()));
+                address = peer.address;
+                if (selector < 3) {
+                    peer.blacklisted = !peer.blacklisted;
+                    name = (peer.blacklisted ? "Peer.BLACKLIST" : "Peer.UNBLACKLIST");
+                    if (peer.blacklisted)
+                        peer.state = 2;
+                } else {
+                    peer.state = (peer.state == 1 ? 2 : 1);
+                    name = "Peer.CHANGE_ACTIVE_PEER";
+                }
+            }
+        }
+        postEvent(name, address);
+    }
+
+    /**
+     * Push a new block
+     */
+    private void pushBlock() {
+        SimBlock block;
+        synchronized(this) {
+            block = addBlock(Math.max(epochTime(), chain.get(chain.size()-1).timestamp+1));
+        }
+        String blockId = Long.toUnsignedString(block.id);
+        synchronized(emitTimes) {
+            emitTimes.put(blockId, System.nanoTime());
+        }
+        blockCount.incrementAndGet();
+        log(String.format("Block %s at height %d pushed", blockId, block.height));
+        postEvent("Block.BLOCK_PUSHED", blockId);
+    }
+
+    /**
+     * Replace the most recent blocks
+     */
+    private void reorganize() {
+        int depth;
+        List<String> poppedList = new ArrayList<>();
+        synchronized(this) {
+            depth = Math.min(reorgDepth, chain.size()-1);
+            for (int i=0; i<depth; i++) {
+                SimBlock block = chain.remove(chain.size()-1);
+                poppedList.add(Long.toUnsignedString(block.id));
+            }
+        }
+        reorgCount.incrementAndGet();
+        log(String.format("Chain reorganization: %d blocks popped", depth));
+        poppedList.forEach(blockId -> postEvent("Block.BLOCK_POPPED", blockId));
+        for (int i=0; i<=depth; i++)
+            pushBlock();
+    }
+
+    /**
+     * Add a block to the chain (caller must hold the simulator lock)
+     *
+     * @param       timestamp       Block timestamp (seconds since the epoch)
+     * @return                      Block
+     */
+    private SimBlock addBlock(int timestamp) {
+        SimBlock block = new SimBlock();
+        block.id = nextBlockId++;
+        block.height = chain.size();
+        block.timestamp = timestamp;
+        block.previous = (chain.isEmpty() ? 0 : chain.get(chain.size()-1).id);
+        block.generator = accounts[(int)(block.id%accounts.length)];
+        block.transactionCount = transactionsPerBlock;
+        chain.add(block);
+        blockMap.put(block.id, block);
+        return block;
+    }
+
+    /**
+     * Add a peer (caller must hold the simulator lock)
+     *
+     * @param       index           Peer index
+     * @return                      Peer
+     */
+    private SimPeer addPeer(int index) {
+        SimPeer peer = new SimPeer();
+        peer.address = String.format("10.%d.%d.%d", (index>>16)&255, (index>>8)&255, index&255);
+        peer.announcedAddress = (index%3 == 0 ? "" : "node"+index+".example.com");
+        peer.platform = (index%2 == 0 ? "Linux amd64" : "Windows 10 amd64");
+        peer.state = (index%4 == 0 ? 2 : 1);
+        peerList.add(peer);
+        peerMap.put(peer.address, peer);
+        return peer;
+    }
+
+    /**
+     * Add a log message
+     *
+     * @param       message         Log message
+     */
+    private void log(String message) {
+        synchronized(logMessages) {
+            if (logMessages.size() == LOG_SIZE)
+                logMessages.removeFirst();
+            logMessages.addLast(String.format("%tF %<tT INFO: %s", System.currentTimeMillis(), message));
+        }
+    }
+
+    /**
+     * Queue an event for each registration that includes the event
+     *
+     * @param       name            Event name
+     * @param       id              Event identifier
+     */
+    private void postEvent(String name, String id) {
+        eventCount.incrementAndGet();
+        for (Registration registration : registrations.values()) {
+            if (!registration.events.contains(name))
+                continue;
+            synchronized(registration) {
+                if (registration.queue.size() >= MAX_QUEUED_EVENTS) {
+                    registration.queue.removeFirst();
+                    droppedCount.incrementAndGet();
+                }
+                registration.queue.addLast(new String[] {name, id});
+                registration.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Handle an API request (HttpHandler interface)
+     *
+     * @param       exchange        HTTP exchange
+     * @throws      IOException     Unable to send the response
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            requestCount.incrementAndGet();
+            Map<String, List<String>> params = new HashMap<>();
+            parseParameters(exchange.getRequestURI().getRawQuery(), params);
+            if (exchange.getRequestMethod().equals("POST")) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+                try (InputStream in = exchange.getRequestBody()) {
+                    byte[] buffer = new byte[4096];
+                    int count;
+                    while ((count=in.read(buffer)) > 0)
+                        body.write(buffer, 0, count);
+                }
+                parseParameters(new String(body.toByteArray(), StandardCharsets.UTF_8), params);
+            }
+            Map<String, Object> response;
+            try {
+                response = processRequest(params);
+            } catch (IllegalArgumentException exc) {
+                response = error(4, exc.getMessage());
+            } catch (InterruptedException exc) {
+                response = error(1, "Request interrupted");
+            }
+            StringBuilder sb = new StringBuilder(1024);
+            TransactionCache.appendJson(sb, response);
+            byte[] responseBytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, responseBytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(responseBytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Process an API request
+     *
+     * @param       params          Request parameters
+     * @return                      Response
+     * @throws      IllegalArgumentException A request parameter is not valid
+     * @throws      InterruptedException The request was interrupted
+     */
+    private Map<String, Object> processRequest(Map<String, List<String>> params) throws InterruptedException {
+        String requestType = getParameter(params, "requestType", null);
+        if (requestType == null)
+            return error(1, "Incorrect request");
+        switch (requestType) {
+            case "getBlocks":
+                return getBlocks(Integer.parseInt(getParameter(params, "firstIndex", "0")),
+                                 Integer.parseInt(getParameter(params, "lastIndex", "99")),
+                                 Boolean.parseBoolean(getParameter(params, "includeTransactions", "false")));
+            case "getBlock":
+                return getBlock(getParameter(params, "block", ""),
+                                Boolean.parseBoolean(getParameter(params, "includeTransactions", "false")));
+            case "getTransaction":
+                return getTransaction(getParameter(params, "fullHash", ""));
+            case "getPeers":
+                return getPeers(getParameter(params, "state", null));
+            case "getPeer":
+                return getPeer(getParameter(params, "peer", ""));
+            case "eventRegister":
+                return eventRegister(params.getOrDefault("event", new ArrayList<>()),
+                                     Long.parseUnsignedLong(getParameter(params, "token", "0")),
+                                     Boolean.parseBoolean(getParameter(params, "add", "false")),
+                                     Boolean.parseBoolean(getParameter(params, "remove", "false")));
+            case "eventWait":
+                return eventWait(Long.parseUnsignedLong(getParameter(params, "token", "0")),
+                                 Integer.parseInt(getParameter(params, "timeout", "0")));
+            case "getLog":
+                return getLog(Integer.parseInt(getParameter(params, "count", "100")));
+            case "getForging":
+                return getForging();
+            case "getBundlers":
+                return getBundlers();
+            default:
+                return error(1, "Incorrect request");
+        }
+    }
+
+    /**
+     * Process a getBlocks request
+     *
+     * @param       firstIndex          Index of the first block (0 is the chain head)
+     * @param       lastIndex           Index of the last block
+     * @param       includeTransactions Include the block transactions
+     * @return                          Response
+     */
+    private synchronized Map<String, Object> getBlocks(int firstIndex, int lastIndex, boolean includeTransactions) {
+        lastIndex = Math.min(lastIndex, firstIndex+MAX_BLOCKS-1);
+        List<Object> blocks = new ArrayList<>();
+        for (int i=firstIndex; i<=lastIndex && i<chain.size(); i++)
+            blocks.add(blockJson(chain.get(chain.size()-1-i), includeTransactions));
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("blocks", blocks);
+        return response;
+    }
+
+    /**
+     * Process a getBlock request
+     *
+     * @param       blockId             Block identifier
+     * @param       includeTransactions Include the block transactions
+     * @return                          Response
+     */
+    private synchronized Map<String, Object> getBlock(String blockId, boolean includeTransactions) {
+        SimBlock block = blockMap.get(Long.parseUnsignedLong(blockId));
+        if (block == null)
+            return error(5, "Unknown block");
+        return blockJson(block, includeTransactions);
+    }
+
+    /**
+     * Process a getTransaction request
+     *
+     * The full hash contains the block identifier and the transaction index
+     *
+     * @param       fullHash            Transaction full hash
+     * @return                          Response
+     */
+    private synchronized Map<String, Object> getTransaction(String fullHash) {
+        byte[] hash = Utils.parseHexString(fullHash);
+        if (hash.length != 32)
+            return error(4, "Incorrect \"fullHash\"");
+        ByteBuffer buffer = ByteBuffer.wrap(hash);
+        long blockId = buffer.getLong(8);
+        int index = buffer.getInt(16);
+        SimBlock block = blockMap.get(blockId);
+        if (block == null || index < 0 || index >= block.transactionCount)
+            return error(5, "Unknown transaction");
+        return transactionJson(block, index);
+    }
+
+    /**
+     * Process a getPeers request
+     *
+     * @param       state               Peer state or null for all peers
+     * @return                          Response
+     */
+    private synchronized Map<String, Object> getPeers(String state) {
+        int stateCode = -1;
+        if (state != null)
+            stateCode = StatusPanel.State.valueOf(state).getCode();
+        List<Object> peers = new ArrayList<>();
+        for (SimPeer peer : peerList) {
+            if (stateCode < 0 || peer.state == stateCode)
+                peers.add(peerJson(peer));
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("peers", peers);
+        return response;
+    }
+
+    /**
+     * Process a getPeer request
+     *
+     * @param       address             Peer network address
+     * @return                          Response
+     */
+    private synchronized Map<String, Object> getPeer(String address) {
+        SimPeer peer = peerMap.get(address);
+        if (peer == null)
+            return error(5, "Unknown peer");
+        return peerJson(peer);
+    }
+
+    /**
+     * Process an eventRegister request
+     *
+     * @param       events              Event names
+     * @param       token               Existing registration or 0 for a new registration
+     * @param       add                 Add events to the existing registration
+     * @param       remove              Remove events from the existing registration
+     * @return                          Response
+     */
+    private Map<String, Object> eventRegister(List<String> events, long token, boolean add, boolean remove) {
+        Registration registration;
+        if (token == 0) {
+            token = nextToken.getAndIncrement();
+            registration = new Registration();
+            registration.events.addAll(events);
+            registrations.put(token, registration);
+        } else {
+            registration = registrations.get(token);
+            if (registration == null)
+                return error(4, "Unknown event registration");
+            synchronized(registration) {
+                if (remove && events.isEmpty()) {
+                    registrations.remove(token);
+                    registration.cancelled = true;
+                    registration.notifyAll();
+                } else if (remove) {
+                    registration.events.removeAll(events);
+                } else if (add) {
+                    registration.events.addAll(events);
+                }
+            }
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("registered", true);
+        response.put("token", Long.toUnsignedString(token));
+        return response;
+    }
+
+    /**
+     * Process an eventWait request
+     *
+     * @param       token               Event registration
+     * @param       timeout             Wait timeout (seconds)
+     * @return                          Response
+     * @throws      InterruptedException The wait was interrupted
+     */
+    private Map<String, Object> eventWait(long token, int timeout) throws InterruptedException {
+        Registration registration = registrations.get(token);
+        if (registration == null)
+            return error(4, "Unknown event registration");
+        List<Object> events = new ArrayList<>();
+        synchronized(registration) {
+            long waitTime = timeout*1000L;
+            long endTime = System.currentTimeMillis() + waitTime;
+            while (registration.queue.isEmpty() && !registration.cancelled && waitTime > 0) {
+                registration.wait(waitTime);
+                waitTime = endTime - System.currentTimeMillis();
+            }
+            Map<String, Object> event = null;
+            List<String> ids = null;
+            Iterator<String[]> it = registration.queue.iterator();
+            while (it.hasNext()) {
+                String[] queued = it.next();
+                if (event == null || !event.get("name").equals(queued[0])) {
+                    event = new LinkedHashMap<>();
+                    ids = new ArrayList<>();
+                    event.put("name", queued[0]);
+                    event.put("ids", ids);
+                    events.add(event);
+                }
+                ids.add(queued[1]);
+            }
+            registration.queue.clear();
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("events", events);
+        return response;
+    }
+
+    /**
+     * Process a getLog request
+     *
+     * @param       count               Number of messages
+     * @return                          Response
+     */
+    private Map<String, Object> getLog(int count) {
+        List<Object> messages;
+        synchronized(logMessages) {
+            messages = new ArrayList<>(logMessages);
+        }
+        if (messages.size() > count)
+            messages = messages.subList(messages.size()-count, messages.size());
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("messages", messages);
+        return response;
+    }
+
+    /**
+     * Process a getForging request
+     *
+     * @return                          Response
+     */
+    private synchronized Map<String, Object> getForging() {
+        List<Object> generators = new ArrayList<>();
+        for (int i=0; i<accounts.length; i++) {
+            Map<String, Object> generator = new LinkedHashMap<>();
+            generator.put("account", Long.toUnsignedString(FIRST_BLOCK_ID + i));
+            generator.put("accountRS", accounts[i]);
+            generator.put("deadline", (long)(i*30+10));
+            generator.put("hitTime", (long)(chain.get(chain.size()-1).timestamp + i*30 + 10));
+            generator.put("remaining", (long)(i*30+10));
+            generator.put("effectiveBalanceFXT", 1000000L*(i+1));
+            generators.add(generator);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("generators", generators);
+        return response;
+    }
+
+    /**
+     * Process a getBundlers request
+     *
+     * @return                          Response
+     */
+    private Map<String, Object> getBundlers() {
+        List<Object> bundlers = new ArrayList<>();
+        for (int i=0; i<2; i++) {
+            Map<String, Object> bundler = new LinkedHashMap<>();
+            bundler.put("account", Long.toUnsignedString(FIRST_BLOCK_ID + i));
+            bundler.put("accountRS", accounts[i]);
+            bundler.put("chain", (long)CHILD_CHAIN);
+            bundler.put("totalFeesLimitFQT", "100000000000");
+            bundler.put("currentTotalFeesFQT", "1000000");
+            bundler.put("minRateNQTPerFXT", "1000000");
+            bundler.put("overpayFQTPerFXT", "0");
+            bundlers.add(bundler);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("bundlers", bundlers);
+        return response;
+    }
+
+    /**
+     * Build the JSON for a block
+     *
+     * @param       block               Block
+     * @param       includeTransactions Include the block transactions
+     * @return                          Block JSON
+     */
+    private Map<String, Object> blockJson(SimBlock block, boolean includeTransactions) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("block", Long.toUnsignedString(block.id));
+        json.put("height", (long)block.height);
+        json.put("timestamp", (long)block.timestamp);
+        json.put("previousBlock", Long.toUnsignedString(block.previous));
+        json.put("version", 3L);
+        json.put("numberOfTransactions", (long)(block.transactionCount > 0 ? 1 : 0));
+        json.put("generatorRS", block.generator);
+        if (includeTransactions) {
+            List<Object> transactions = new ArrayList<>();
+            if (block.transactionCount > 0) {
+                List<Object> hashes = new ArrayList<>(block.transactionCount);
+                for (int i=0; i<block.transactionCount; i++)
+                    hashes.add(Utils.toHexString(fullHash(block, i)));
+                Map<String, Object> attachment = new LinkedHashMap<>();
+                attachment.put("version.ChildBlock", 1L);
+                attachment.put("chain", (long)CHILD_CHAIN);
+                attachment.put("childTransactionFullHashes", hashes);
+                Map<String, Object> tx = commonTransactionJson(block, -1, 1);
+                tx.put("type", -1L);
+                tx.put("subtype", 0L);
+                tx.put("attachment", attachment);
+                transactions.add(tx);
+            }
+            json.put("transactions", transactions);
+        }
+        return json;
+    }
+
+    /**
+     * Build the JSON for a child chain transaction
+     *
+     * @param       block               Block containing the transaction
+     * @param       index               Transaction index
+     * @return                          Transaction JSON
+     */
+    private Map<String, Object> transactionJson(SimBlock block, int index) {
+        Map<String, Object> json = commonTransactionJson(block, index, CHILD_CHAIN);
+        json.put("type", 0L);
+        json.put("subtype", 0L);
+        json.put("amountNQT", Long.toString(100000000L * (index%1000 + 1)));
+        json.put("attachment", new LinkedHashMap<String, Object>());
+        return json;
+    }
+
+    /**
+     * Build the JSON fields that are the same for all transactions
+     *
+     * @param       block               Block containing the transaction
+     * @param       index               Transaction index or -1 for the ChildBlock transaction
+     * @param       chainId             Chain identifier
+     * @return                          Transaction JSON
+     */
+    private Map<String, Object> commonTransactionJson(SimBlock block, int index, int chainId) {
+        byte[] hash = fullHash(block, index);
+        long id = ByteBuffer.wrap(hash, 0, 8).order(java.nio.ByteOrder.LITTLE_ENDIAN).getLong();
+        String sender = accounts[(index+1)%accounts.length];
+        String recipient = accounts[(index+2)%accounts.length];
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("chain", (long)chainId);
+        json.put("fullHash", Utils.toHexString(hash));
+        json.put("transaction", Long.toUnsignedString(id));
+        json.put("timestamp", (long)block.timestamp-1);
+        json.put("deadline", 15L);
+        json.put("version", 1L);
+        json.put("sender", Long.toUnsignedString(FIRST_BLOCK_ID + (index+1)%accounts.length));
+        json.put("senderRS", sender);
+        json.put("recipient", Long.toUnsignedString(FIRST_BLOCK_ID + (index+2)%accounts.length));
+        json.put("recipientRS", recipient);
+        json.put("amountNQT", "0");
+        json.put("feeNQT", "1000000");
+        json.put("ecBlockHeight", (long)Math.max(block.height-10, 0));
+        json.put("ecBlockId", Long.toUnsignedString(FIRST_BLOCK_ID + Math.max(block.height-10, 0)));
+        json.put("block", Long.toUnsignedString(block.id));
+        json.put("height", (long)block.height);
+        return json;
+    }
+
+    /**
+     * Build the full hash for a transaction
+     *
+     * The first 8 bytes are a hash of the block identifier and transaction index and
+     * are used as the transaction identifier.  The block identifier and transaction
+     * index follow so the transaction can be located from its full hash.
+     *
+     * @param       block               Block containing the transaction
+     * @param       index               Transaction index
+     * @return                          Full hash
+     */
+    private static byte[] fullHash(SimBlock block, int index) {
+        long mix = block.id * 0x9E3779B97F4A7C15L + index;
+        mix ^= (mix >>> 31);
+        mix *= 0xBF58476D1CE4E5B9L;
+        mix ^= (mix >>> 29);
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        buffer.putLong(mix).putLong(block.id).putInt(index);
+        return buffer.array();
+    }
+
+    /**
+     * Build the JSON for a peer
+     *
+     * @param       peer                Peer
+     * @return                          Peer JSON
+     */
+    private static Map<String, Object> peerJson(SimPeer peer) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("address", peer.address);
+        json.put("announcedAddress", peer.announcedAddress);
+        json.put("application", "Ardor");
+        json.put("version", "2.0.4");
+        json.put("platform", peer.platform);
+        json.put("services", new ArrayList<Object>(Arrays.asList("API", "CORS")));
+        json.put("state", (long)peer.state);
+        json.put("blacklisted", peer.blacklisted);
+        return json;
+    }
+
+    /**
+     * Build an error response
+     *
+     * @param       errorCode           Error code
+     * @param       description         Error description
+     * @return                          Response
+     */
+    private static Map<String, Object> error(int errorCode, String description) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("errorCode", (long)errorCode);
+        response.put("errorDescription", description);
+        return response;
+    }
+
+    /**
+     * Return the first value for a request parameter
+     *
+     * @param       params              Request parameters
+     * @param       name                Parameter name
+     * @param       defaultValue        Value to return if the parameter is not specified
+     * @return                          Parameter value
+     */
+    private static String getParameter(Map<String, List<String>> params, String name, String defaultValue) {
+        List<String> values = params.get(name);
+        return (values != null && !values.isEmpty() ? values.get(0) : defaultValue);
+    }
+
+    /**
+     * Parse URL-encoded request parameters
+     *
+     * @param       encoded             Encoded parameters
+     * @param       params              Parameter map
+     * @throws      IOException         Unable to decode the parameters
+     */
+    private static void parseParameters(String encoded, Map<String, List<String>> params) throws IOException {
+        if (encoded == null || encoded.isEmpty())
+            return;
+        for (String param : encoded.split("&")) {
+            int sep = param.indexOf('=');
+            String name = URLDecoder.decode(sep < 0 ? param : param.substring(0, sep), "UTF-8");
+            String value = (sep < 0 ? "" : URLDecoder.decode(param.substring(sep+1), "UTF-8"));
+            params.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+    }
+
+    /**
+     * Return the current time in seconds since the Nxt epoch
+     *
+     * @return                          Epoch time
+     */
+    private static int epochTime() {
+        return (int)((System.currentTimeMillis() - org.ScripterRon.Nxt2API.Nxt.getEpoch()) / 1000);
+    }
+
+    /**
+     * Simulated block
+     */
+    private static class SimBlock {
+
+        /** Block identifier */
+        long id;
+
+        /** Block height */
+        int height;
+
+        /** Block timestamp */
+        int timestamp;
+
+        /** Previous block identifier */
+        long previous;
+
+        /** Block generator */
+        String generator;
+
+        /** Number of child chain transactions */
+        int transactionCount;
+    }
+
+    /**
+     * Simulated peer
+     */
+    private static class SimPeer {
+
+        /** Network address */
+        String address;
+
+        /** Announced address */
+        String announcedAddress;
+
+        /** Platform */
+        String platform;
+
+        /** Peer state */
+        int state;
+
+        /** Peer is blacklisted */
+        boolean blacklisted;
+    }
+
+    /**
+     * Event registration
+     */
+    private static class Registration {
+
+        /** Registered events */
+        final java.util.Set<String> events = ConcurrentHashMap.newKeySet();
+
+        /** Queued events (name, identifier) */
+        final ArrayDeque<String[]> queue = new ArrayDeque<>();
+
+        /** Registration has been cancelled */
+        boolean cancelled;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2016 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Monitor;
+
+import org.ScripterRon.Nxt2API.Response;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SoakTest runs a headless node monitor against the local node simulator and
+ * measures the rate at which server events are processed and the time between
+ * a block being pushed by the simulator and the block appearing in the block table.
+ *
+ * The test is configured using system properties:
+ *   soak.duration              - Test duration in seconds (default 600)
+ *   soak.peers                 - Initial number of peers (default 500)
+ *   soak.peerEventRate         - Peer events per second (default 10000)
+ *   soak.blockInterval         - Block interval in milliseconds (default 1000)
+ *   soak.transactionsPerBlock  - Child chain transactions per block (default 5000)
+ *   soak.reorgInterval         - Chain reorganization interval in milliseconds, 0 to disable (default 30000)
+ *   soak.reorgDepth            - Number of blocks replaced by a reorganization (default 10)
+ *   soak.report                - Progress report interval in seconds (default 60)
+ *   soak.output                - Result file (default target/soak-result.json)
+ *   soak.dataPath              - Monitor data directory (default target/soak-data)
+ *
+ * The test fails if the monitor is not active at the end of the test or if the
+ * monitor chain head does not match the simulator chain head once the event
+ * stream has been stopped.
+ */
+public class SoakTest implements NodeMonitor.Listener {
+
+    /** Time allowed for the monitor to catch up once the event stream is stopped (milliseconds) */
+    private static final long SETTLE_TIME = 60000;
+
+    /** Node simulator */
+    private final NodeSimulator simulator;
+
+    /** Block latencies (nanoseconds) */
+    private long[] latencies = new long[1024];
+
+    /** Number of block latencies */
+    private int latencyCount;
+
+    /** Blocks already measured */
+    private final Map<String, Boolean> measuredBlocks = new LinkedHashMap<String, Boolean>(1024, 0.75f) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > 1000;
+        }
+    };
+
+    /**
+     * Create the soak test
+     *
+     * @param       simulator       Node simulator
+     */
+    private SoakTest(NodeSimulator simulator) {
+        this.simulator = simulator;
+    }
+
+    /**
+     * Run the soak test
+     *
+     * @param       args            Command-line arguments (not used)
+     * @throws      Exception       Unable to run the test
+     */
+    public static void main(String[] args) throws Exception {
+        long duration = Long.getLong("soak.duration", 600) * 1000;
+        int peers = Integer.getInteger("soak.peers", 500);
+        int peerEventRate = Integer.getInteger("soak.peerEventRate", 10000);
+        long blockInterval = Long.getLong("soak.blockInterval", 1000);
+        int transactionsPerBlock = Integer.getInteger("soak.transactionsPerBlock", 5000);
+        long reorgInterval = Long.getLong("soak.reorgInterval", 30000);
+        int reorgDepth = Integer.getInteger("soak.reorgDepth", 10);
+        long reportInterval = Long.getLong("soak.report", 60) * 1000;
+        String output = System.getProperty("soak.output", "target/soak-result.json");
+        //
+        // Start the simulator and the node monitor
+        //
+        Main.headless = true;
+        Main.fileSeparator = File.separator;
+        Main.dataPath = System.getProperty("soak.dataPath", "target/soak-data");
+        new File(Main.dataPath).mkdirs();
+        NodeSimulator simulator = new NodeSimulator(0, peers, Main.blockHistory);
+        simulator.setPeerEventRate(peerEventRate);
+        simulator.setBlockInterval(blockInterval);
+        simulator.setTransactionsPerBlock(transactionsPerBlock);
+        simulator.setReorg(reorgInterval, reorgDepth);
+        simulator.start();
+        NodeMonitor monitor = new NodeMonitor(new Connection("localhost", simulator.getPort(), ""));
+        SoakTest test = new SoakTest(simulator);
+        monitor.addListener(test);
+        long startTime = System.currentTimeMillis();
+        monitor.start();
+        Main.log.info(String.format("Soak test started: %d seconds, %d peer events/s, %d ms blocks, "
+                        + "%d transactions/block, reorg every %d ms (depth %d)",
+                duration/1000, peerEventRate, blockInterval, transactionsPerBlock, reorgInterval, reorgDepth));
+        //
+        // Report progress until the test duration has elapsed
+        //
+        long endTime = startTime + duration;
+        long lastReport = startTime;
+        long lastEvents = 0;
+        long now;
+        while ((now=System.currentTimeMillis()) < endTime) {
+            Thread.sleep(Math.min(endTime-now, Math.max(lastReport+reportInterval-now, 1)));
+            now = System.currentTimeMillis();
+            if (now - lastReport >= reportInterval) {
+                long events = monitor.getEventCount();
+                long[] percentiles = test.getPercentiles();
+                Main.log.info(String.format("%,.0f events/s, block latency p50 %.1f ms, p99 %.1f ms, "
+                                + "status %s, height %d/%d",
+                        (events-lastEvents)*1000.0/(now-lastReport),
+                        percentiles[0]/1.0e6, percentiles[2]/1.0e6, monitor.getStatus(),
+                        monitor.getChainHeight(), simulator.getChainHeight()));
+                lastEvents = events;
+                lastReport = now;
+            }
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+        long eventCount = monitor.getEventCount();
+        //
+        // Stop the event stream and wait for the monitor to catch up
+        //
+        simulator.setPaused(true);
+        String simulatorHead = simulator.getChainHead();
+        String monitorHead = null;
+        long settleEnd = System.currentTimeMillis() + SETTLE_TIME;
+        while (System.currentTimeMillis() < settleEnd) {
+            monitorHead = test.getMonitorHead(monitor);
+            if (simulatorHead.equals(monitorHead))
+                break;
+            Thread.sleep(100);
+        }
+        boolean passed = (monitor.getStatus() == NodeMonitor.Status.ACTIVE && simulatorHead.equals(monitorHead));
+        //
+        // Write the test results
+        //
+        long[] percentiles = test.getPercentiles();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("passed", passed);
+        result.put("durationSeconds", elapsed/1000);
+        result.put("peerEventRate", (long)peerEventRate);
+        result.put("blockInterval", blockInterval);
+        result.put("transactionsPerBlock", (long)transactionsPerBlock);
+        result.put("reorgInterval", reorgInterval);
+        result.put("reorgDepth", (long)reorgDepth);
+        result.put("eventsGenerated", simulator.getEventCount());
+        result.put("eventsDropped", simulator.getDroppedCount());
+        result.put("eventsProcessed", eventCount);
+        result.put("eventsPerSecond", eventCount*1000/Math.max(elapsed, 1));
+        result.put("blocksGenerated", simulator.getBlockCount());
+        result.put("reorganizations", simulator.getReorgCount());
+        result.put("firstRenderMillis", monitor.getFirstRenderTime());
+        result.put("liveMillis", monitor.getLiveTime());
+        result.put("reconnects", monitor.getReconnectCount());
+        result.put("apiRequests", monitor.getNodeClient().getRequestCount());
+        result.put("apiErrors", monitor.getNodeClient().getErrorCount());
+        result.put("apiBytesReceived", monitor.getNodeClient().getBytesReceived());
+        result.put("peerCacheHits", monitor.getPeerCache().getHitCount());
+        result.put("peerCacheMisses", monitor.getPeerCache().getMissCount());
+        result.put("peerCacheMerges", monitor.getPeerCache().getMergeCount());
+        RequestScheduler scheduler = monitor.getScheduler();
+        RequestScheduler.Priority event = RequestScheduler.Priority.EVENT;
+        result.put("eventRequests", scheduler.getStartedCount(event));
+        result.put("eventRequestWaitMicros",
+                scheduler.getWaitTime(event)/Math.max(scheduler.getStartedCount(event), 1)/1000);
+        result.put("eventRequestMaxWaitMicros", scheduler.getMaxWaitTime(event)/1000);
+        result.put("blocksMeasured", (long)test.getLatencyCount());
+        result.put("latencyP50Micros", percentiles[0]/1000);
+        result.put("latencyP90Micros", percentiles[1]/1000);
+        result.put("latencyP99Micros", percentiles[2]/1000);
+        result.put("latencyMaxMicros", percentiles[3]/1000);
+        StringBuilder sb = new StringBuilder(1024);
+        TransactionCache.appendJson(sb, result);
+        sb.append('\n');
+        writeResult(output, sb.toString());
+        Main.log.info(String.format("Soak test %s: %s", passed ? "passed" : "failed", sb.toString().trim()));
+        monitor.shutdown();
+        simulator.stop();
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * The monitor tables have been updated (NodeMonitor.Listener interface)
+     *
+     * The new blocks are at the top of the block table.  We stop at the first
+     * block that has already been measured.
+     *
+     * @param       monitor         Node monitor
+     */
+    @Override
+    public void monitorUpdated(NodeMonitor monitor) {
+        long now = System.nanoTime();
+        BlockTableModel blockModel = monitor.getBlockTableModel();
+        int rows = blockModel.getRowCount();
+        for (int row=0; row<rows; row++) {
+            String blockId = blockModel.getBlock(row).getString("block");
+            synchronized(this) {
+                if (measuredBlocks.containsKey(blockId))
+                    break;
+                measuredBlocks.put(blockId, Boolean.TRUE);
+                long emitTime = simulator.getEmitTime(blockId);
+                if (emitTime == 0)
+                    break;
+                if (latencyCount == latencies.length)
+                    latencies = Arrays.copyOf(latencies, latencyCount*2);
+                latencies[latencyCount++] = now - emitTime;
+            }
+        }
+    }
+
+    /**
+     * Return the chain head displayed by the monitor
+     *
+     * @param       monitor         Node monitor
+     * @return                      Block identifier or null if the block table is empty
+     * @throws      Exception       Unable to access the block table
+     */
+    private String getMonitorHead(NodeMonitor monitor) throws Exception {
+        String[] head = new String[1];
+        NodeMonitor.runAndWait(() -> {
+            Response block = monitor.getBlockTableModel().getChainHead();
+            head[0] = (block != null ? block.getString("block") : null);
+        });
+        return head[0];
+    }
+
+    /**
+     * Return the number of block latencies
+     *
+     * @return                      Latency count
+     */
+    private synchronized int getLatencyCount() {
+        return latencyCount;
+    }
+
+    /**
+     * Return the block latency percentiles
+     *
+     * @return                      p50, p90, p99 and maximum latency (nanoseconds)
+     */
+    private synchronized long[] getPercentiles() {
+        if (latencyCount == 0)
+            return new long[4];
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        return new long[] {sorted[(latencyCount-1)*50/100], sorted[(latencyCount-1)*90/100],
+                           sorted[(latencyCount-1)*99/100], sorted[latencyCount-1]};
+    }
+
+    /**
+     * Write the test result
+     *
+     * @param       path            Result file path
+     * @param       text            Result text
+     * @throws      IOException     Unable to write the result file
+     */
+    private static void writeResult(String path, String text) throws IOException {
+        File file = new File(path);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists())
+            parent.mkdirs();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}